@@ -0,0 +1,217 @@
+package Controller;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import Util.ConfigUtil;
+import Util.Metrics;
+import Util.RateLimiter;
+import io.javalin.http.Context;
+
+/**
+ * Keeps one client from taking the database away from everyone else.
+ *
+ * - Every request is rate limited per client address, and message creation and timeline reads also per account_id
+ *   (posted_by, or the account in the path). Over the limit, the request fails with TooManyRequestsException,
+ *   which the controller answers with 429 and a Retry-After.
+ * - At most maxConcurrent requests are in progress at once. A request beyond that fails straight away with a
+ *   RejectedExecutionException, answered like a full database queue: 503 with Retry-After. This sheds load before
+ *   the database executor's queue fills up, and covers requests that never reach it.
+ *
+ * The limits come from the socialmedia.rateLimit.* settings (socialmedia.rateLimit.enabled=false turns the rate
+ * limits off) and socialmedia.admission.maxConcurrent (0 turns the concurrency limit off), read when the controller
+ * is created. /metrics and /admin/ are exempt from both, so operators can still look in on an overloaded server.
+ * GET /events is rate limited but not counted against the concurrency limit, as a stream stays open for hours.
+ * Each open stream holds a thread, though, so streams have their own limit, socialmedia.events.maxSubscribers
+ * (0 turns it off); a stream beyond it gets the same 503.
+ */
+public class AdmissionControl {
+
+    private static final String ADMITTED = "socialmedia.admitted";
+    private static final String STREAM_ADMITTED = "socialmedia.streamAdmitted";
+    /**
+     * Buckets per limiter, see RateLimiter. 16k stripes take 128 KB each.
+     */
+    private static final int STRIPES = 16384;
+
+    private final boolean rateLimitsEnabled;
+    private final RateLimiter addressLimiter;
+    private final RateLimiter accountWriteLimiter;
+    private final RateLimiter accountReadLimiter;
+    private final int maxConcurrent;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final int maxEventStreams;
+    private final AtomicInteger openEventStreams = new AtomicInteger();
+
+    public AdmissionControl() {
+        this.rateLimitsEnabled = ConfigUtil.getBoolean("socialmedia.rateLimit.enabled", true);
+        this.addressLimiter = new RateLimiter(
+                ConfigUtil.getInt("socialmedia.rateLimit.address.perSecond", 500),
+                ConfigUtil.getInt("socialmedia.rateLimit.address.burst", 1000), STRIPES);
+        this.accountWriteLimiter = new RateLimiter(
+                ConfigUtil.getInt("socialmedia.rateLimit.account.writesPerSecond", 20),
+                ConfigUtil.getInt("socialmedia.rateLimit.account.writeBurst", 100), STRIPES);
+        this.accountReadLimiter = new RateLimiter(
+                ConfigUtil.getInt("socialmedia.rateLimit.account.readsPerSecond", 200),
+                ConfigUtil.getInt("socialmedia.rateLimit.account.readBurst", 400), STRIPES);
+        this.maxConcurrent = ConfigUtil.getInt("socialmedia.admission.maxConcurrent", 512);
+        this.maxEventStreams = ConfigUtil.getInt("socialmedia.events.maxSubscribers", 1000);
+    }
+
+
+    /**
+     * Before handler: apply the per-address limit and take a slot of the concurrency limit, or for GET /events of
+     * the event stream limit.
+     */
+    public void admit(Context context) {
+        String path = context.path();
+        if (path.equals("/metrics") || path.startsWith("/admin/")) {
+            return;
+        }
+        if (rateLimitsEnabled) {
+            checkWait(addressLimiter.tryAcquire(context.ip().hashCode()));
+        }
+
+        if (path.equals("/events")) {
+            admitEventStream(context);
+            return;
+        }
+        if (maxConcurrent <= 0) {
+            return;
+        }
+        if (inFlight.incrementAndGet() > maxConcurrent) {
+            inFlight.decrementAndGet();
+            throw new RejectedExecutionException("More than " + maxConcurrent + " requests in progress");
+        }
+        context.attribute(ADMITTED, Boolean.TRUE);
+    }
+
+    /**
+     * After handler: give back the concurrency slot, once the response (including an async one) is complete.
+     */
+    public void release(Context context) {
+        if (context.attribute(ADMITTED) != null) {
+            context.attribute(ADMITTED, null);
+            inFlight.decrementAndGet();
+        }
+        if (context.attribute(STREAM_ADMITTED) != null) {
+            context.attribute(STREAM_ADMITTED, null);
+            openEventStreams.decrementAndGet();
+        }
+    }
+
+    /**
+     * Take a slot of the event stream limit. It is given back by release(), which Javalin runs once the stream
+     * has ended.
+     */
+    private void admitEventStream(Context context) {
+        if (maxEventStreams <= 0) {
+            return;
+        }
+        if (openEventStreams.incrementAndGet() > maxEventStreams) {
+            openEventStreams.decrementAndGet();
+            throw new RejectedExecutionException("More than " + maxEventStreams + " event streams open");
+        }
+        context.attribute(STREAM_ADMITTED, Boolean.TRUE);
+    }
+
+
+    /**
+     * @param permits number of messages being created
+     * @throws TooManyRequestsException if the account has created too many messages recently
+     */
+    public void checkAccountWrite(int accountId, int permits) {
+        if (rateLimitsEnabled) {
+            checkWait(accountWriteLimiter.tryAcquire(accountId, permits));
+        }
+    }
+
+    /**
+     * Check the write limits of all the accounts a batch posts as, all or nothing: if one account is refused, the
+     * others are not charged for the batch.
+     *
+     * @param permitsByAccount number of messages being created, by account_id
+     * @throws TooManyRequestsException if any of the accounts has created too many messages recently
+     */
+    public void checkAccountWrites(Map<Integer, Integer> permitsByAccount) {
+        if (!rateLimitsEnabled) {
+            return;
+        }
+        List<Map.Entry<Integer, Integer>> acquired = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> entry : permitsByAccount.entrySet()) {
+            long waitNanos = accountWriteLimiter.tryAcquire(entry.getKey(), entry.getValue());
+            if (waitNanos > 0) {
+                for (Map.Entry<Integer, Integer> charged : acquired) {
+                    accountWriteLimiter.release(charged.getKey(), charged.getValue());
+                }
+                checkWait(waitNanos);
+            }
+            acquired.add(entry);
+        }
+    }
+
+    /**
+     * @throws TooManyRequestsException if the account's timeline has been read too often recently
+     */
+    public void checkAccountRead(int accountId) {
+        if (rateLimitsEnabled) {
+            checkWait(accountReadLimiter.tryAcquire(accountId));
+        }
+    }
+
+
+    /**
+     * Expose rejections and the in-flight count on /metrics.
+     */
+    public void registerMetrics(Metrics metrics) {
+        String rejected = "socialmedia_rate_limited_total";
+        String rejectedHelp = "Requests refused with 429 by a rate limit.";
+        metrics.counter(rejected, rejectedHelp, addressLimiter::getRejected, "limit", "address");
+        metrics.counter(rejected, rejectedHelp, accountWriteLimiter::getRejected, "limit", "account_write");
+        metrics.counter(rejected, rejectedHelp, accountReadLimiter::getRejected, "limit", "account_read");
+        metrics.gauge("socialmedia_requests_in_flight", "Requests counted against the concurrency limit.",
+                this::getInFlight);
+        metrics.gauge("socialmedia_event_streams_open", "GET /events streams counted against their limit.",
+                this::getOpenEventStreams);
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public int getOpenEventStreams() {
+        return openEventStreams.get();
+    }
+
+
+    private static void checkWait(long waitNanos) {
+        if (waitNanos > 0) {
+            throw new TooManyRequestsException((waitNanos + 999_999_999L) / 1_000_000_000L);
+        }
+    }
+
+
+    /**
+     * A request refused by a rate limit. It carries no stack trace, as it is thrown on the hot path under load.
+     */
+    public static class TooManyRequestsException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private final long retryAfterSeconds;
+
+        TooManyRequestsException(long retryAfterSeconds) {
+            super("Rate limit exceeded", null, false, false);
+            this.retryAfterSeconds = retryAfterSeconds;
+        }
+
+        /**
+         * @return whole seconds until the request would be allowed
+         */
+        public long getRetryAfterSeconds() {
+            return retryAfterSeconds;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package Controller;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Type;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import Model.Account;
+import Model.Message;
+import Model.MessagePage;
+import Util.JsonUtil;
+import io.javalin.json.JsonMapper;
+
+/**
+ * Javalin JsonMapper backed by the shared mapper in JsonUtil. context.json() and context.bodyAsClass() go through
+ * here, using the pre-built readers and writers for our model types and caching one for any other type.
+ */
+public class JacksonJsonMapper implements JsonMapper {
+
+    private final Map<Type, ObjectReader> readers = new ConcurrentHashMap<>();
+    private final Map<Type, ObjectWriter> writers = new ConcurrentHashMap<>();
+
+    public JacksonJsonMapper() {
+        readers.put(Account.class, JsonUtil.ACCOUNT_READER);
+        readers.put(Message.class, JsonUtil.MESSAGE_READER);
+        readers.put(JsonUtil.MESSAGE_LIST_TYPE, JsonUtil.MESSAGE_LIST_READER);
+
+        writers.put(Account.class, JsonUtil.ACCOUNT_WRITER);
+        writers.put(Message.class, JsonUtil.MESSAGE_WRITER);
+        writers.put(JsonUtil.MESSAGE_LIST_TYPE, JsonUtil.MESSAGE_LIST_WRITER);
+        writers.put(MessagePage.class, JsonUtil.MESSAGE_PAGE_WRITER);
+    }
+
+    @Override
+    public String toJsonString(Object obj, Type type) {
+        if (obj instanceof String) {
+            return (String) obj;
+        }
+        try {
+            return writerFor(type).writeValueAsString(obj);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Could not serialize " + type.getTypeName(), e);
+        }
+    }
+
+    @Override
+    public <T> T fromJsonString(String json, Type targetType) {
+        try {
+            return readerFor(targetType).readValue(json);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Could not parse " + targetType.getTypeName(), e);
+        }
+    }
+
+    @Override
+    public <T> T fromJsonStream(InputStream json, Type targetType) {
+        try {
+            return readerFor(targetType).readValue(json);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Could not parse " + targetType.getTypeName(), e);
+        }
+    }
+
+    private ObjectReader readerFor(Type type) {
+        return readers.computeIfAbsent(type, t -> JsonUtil.MAPPER.readerFor(JsonUtil.MAPPER.constructType(t)));
+    }
+
+    private ObjectWriter writerFor(Type type) {
+        return writers.computeIfAbsent(type, t -> JsonUtil.MAPPER.writerFor(JsonUtil.MAPPER.constructType(t)));
+    }
+}
@@ -0,0 +1,109 @@
+package Controller;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import Util.LatencyHistogram;
+import Util.Metrics;
+import io.javalin.event.HandlerMetaInfo;
+import io.javalin.http.Context;
+import io.javalin.http.HandlerType;
+import io.javalin.http.RequestLogger;
+
+/**
+ * Counts every request and records its latency, per endpoint: the HTTP method and the path the endpoint was
+ * declared with (/messages/{message_id}, not /messages/42), so the number of series stays fixed.
+ *
+ * Installed as Javalin's request logger, which runs once the response is complete, including for requests answered
+ * by a future and for errors, and gets the time Javalin measured for the whole request. The endpoints are learnt
+ * from Javalin's handlerAdded events as the routes are declared, so recording is two map lookups and a few LongAdder
+ * increments, with no allocation or locking.
+ */
+public class RequestMetrics implements RequestLogger {
+
+    /**
+     * Requests that matched no endpoint (404s) share one series, so probing random paths doesn't add series.
+     */
+    static final String UNMATCHED = "unmatched";
+
+    private final Metrics metrics;
+    private final Map<HandlerType, ConcurrentHashMap<String, Endpoint>> endpoints = new EnumMap<>(HandlerType.class);
+
+    public RequestMetrics(Metrics metrics) {
+        this.metrics = metrics;
+        for (HandlerType method : HandlerType.values()) {
+            endpoints.put(method, new ConcurrentHashMap<>());
+        }
+    }
+
+
+    /**
+     * Listener for Javalin's handlerAdded event: create the series of an endpoint as it is declared.
+     */
+    public void addEndpoint(HandlerMetaInfo handler) {
+        if (handler.getHttpMethod().isHttpMethod()) {
+            // The event has the path with a leading slash, a request the path as declared, which may not have one
+            Endpoint endpoint = endpoint(handler.getHttpMethod(), handler.getPath());
+            if (handler.getPath().startsWith("/")) {
+                endpoints.get(handler.getHttpMethod()).putIfAbsent(handler.getPath().substring(1), endpoint);
+            }
+        }
+    }
+
+
+    @Override
+    public void handle(Context context, Float executionTimeMs) {
+        ConcurrentHashMap<String, Endpoint> byPath = endpoints.get(context.method());
+        Endpoint endpoint = null;
+        // If no endpoint matched, the handler type is still BEFORE (or Javalin's own 404 path, which isn't declared)
+        if (context.handlerType() != HandlerType.BEFORE) {
+            endpoint = byPath.get(context.endpointHandlerPath());
+        }
+        if (endpoint == null) {
+            endpoint = endpoint(context.method(), UNMATCHED);
+        }
+        endpoint.record(context.statusCode(), (long) (executionTimeMs * 1_000_000));
+    }
+
+
+    private Endpoint endpoint(HandlerType method, String path) {
+        ConcurrentHashMap<String, Endpoint> byPath = endpoints.get(method);
+        Endpoint endpoint = byPath.get(path);
+        if (endpoint == null) {
+            endpoint = byPath.computeIfAbsent(path, key -> new Endpoint(metrics, method.name(), key));
+        }
+        return endpoint;
+    }
+
+
+    /**
+     * The series of one endpoint.
+     */
+    private static class Endpoint {
+        final LatencyHistogram duration;
+        /**
+         * Request counts by status class, index 2 is 2xx ... 5 is 5xx.
+         */
+        final LongAdder[] byStatusClass = new LongAdder[6];
+
+        Endpoint(Metrics metrics, String method, String path) {
+            duration = metrics.histogram("socialmedia_http_request_duration_seconds",
+                    "Time from receiving a request to completing its response.", "method", method, "path", path);
+            for (int statusClass = 2; statusClass <= 5; statusClass++) {
+                byStatusClass[statusClass] = metrics.counter("socialmedia_http_requests_total",
+                        "Requests completed, by endpoint and status class.",
+                        "method", method, "path", path, "status", statusClass + "xx");
+            }
+        }
+
+        void record(int status, long nanos) {
+            int statusClass = status / 100;
+            if (statusClass >= 2 && statusClass <= 5) {
+                byStatusClass[statusClass].increment();
+            }
+            duration.record(nanos);
+        }
+    }
+}
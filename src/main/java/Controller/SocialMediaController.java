@@ -1,18 +1,45 @@
 package Controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 
 
+import DAO.MessageDAO;
 import Model.Account;
 import Model.Message;
+import Model.MessageCursor;
+import Model.MessageFields;
 import Service.AccountService;
+import Service.MessageEventBus;
 import Service.MessageService;
-
+import Util.ConfigUtil;
+import Util.ConnectionUtil;
+import Util.JsonUtil;
+import Util.Metrics;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.*;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import io.javalin.Javalin;
+import io.javalin.compression.Brotli;
+import io.javalin.compression.CompressionStrategy;
+import io.javalin.compression.Gzip;
+import io.javalin.http.ContentType;
 import io.javalin.http.Context;
+import io.javalin.http.sse.SseClient;
+import io.javalin.util.ConcurrencyUtil;
+import io.javalin.util.LoomUtil;
+import org.eclipse.jetty.server.Request;
 
 
 public class SocialMediaController {
@@ -21,52 +48,217 @@ public class SocialMediaController {
      * @return a Javalin app object which defines the behavior of the Javalin controller.
      */
 
+    /**
+     * Page size used when a client asks for a page with a cursor but no limit.
+     */
+    private static final int DEFAULT_PAGE_LIMIT = 100;
+    /**
+     * Largest page a client can ask for; bigger limits are clamped to this.
+     */
+    private static final int MAX_PAGE_LIMIT = ConfigUtil.getInt("socialmedia.pagination.maxLimit", 1000);
+    /**
+     * Whether Jetty runs each request on its own virtual thread instead of a fixed pool of platform threads.
+     * Needs a JDK with virtual threads (21+); on older JDKs the platform pool is used.
+     */
+    private static final boolean VIRTUAL_THREADS = ConfigUtil.getBoolean("socialmedia.server.virtualThreads", false);
+    /**
+     * Response compression: gzip, brotli (with gzip for clients that don't accept br) or none.
+     */
+    private static final String COMPRESSION = ConfigUtil.getString("socialmedia.compression", "gzip");
+    /**
+     * Responses smaller than this are sent uncompressed; compressing them costs more CPU than it saves bytes.
+     */
+    private static final int COMPRESSION_MIN_SIZE = ConfigUtil.getInt("socialmedia.compression.minSizeBytes", 1500);
+    private static final int GZIP_LEVEL = ConfigUtil.getInt("socialmedia.compression.gzipLevel", 6);
+    private static final int BROTLI_LEVEL = ConfigUtil.getInt("socialmedia.compression.brotliLevel", 4);
+    /**
+     * How often an idle event stream gets a comment, so proxies and Jetty's idle timeout don't close it and a
+     * client that has gone away is noticed.
+     */
+    private static final long EVENTS_HEARTBEAT_MILLIS = ConfigUtil.getLong("socialmedia.events.heartbeatMillis", 15000);
+    /**
+     * Whether requests are counted and timed, and GET /metrics serves them with the database and cache metrics.
+     */
+    private static final boolean METRICS_ENABLED = ConfigUtil.getBoolean("socialmedia.metrics.enabled", true);
+
     AccountService accountService;
     MessageService messageService;
+    AdmissionControl admissionControl = new AdmissionControl();
 
     public SocialMediaController() {
         this.accountService = new AccountService();
-        this.messageService = new MessageService();
+        this.messageService = new MessageService(new MessageDAO(), accountService);
+    }
+
+    // Constructor for the controller when the services are provided, eg with their own database executor.
+    public SocialMediaController(AccountService accountService, MessageService messageService) {
+        this.accountService = accountService;
+        this.messageService = messageService;
     }
 
 
     public Javalin startAPI() {
-        Javalin app = Javalin.create();
+        // Javalin picks virtual threads by itself whenever the JDK has them, so set the choice explicitly either way.
+        // With virtual threads a blocked JDBC call parks its request instead of holding one of Jetty's 250 threads,
+        // and requests beyond the connection pool's maxSize wait on the pool's semaphore rather than in Jetty's queue.
+        ConcurrencyUtil.INSTANCE.setUseLoom(VIRTUAL_THREADS);
+        if (VIRTUAL_THREADS && !LoomUtil.INSTANCE.getLoomAvailable()) {
+            System.out.println("Virtual threads are not available on Java " + System.getProperty("java.version")
+                    + ", using platform threads");
+        }
+
+        CompressionStrategy compression = compressionStrategy();
+        RequestMetrics requestMetrics = METRICS_ENABLED ? new RequestMetrics(Metrics.getDefault()) : null;
+        Javalin app = Javalin.create(config -> {
+            config.jsonMapper(new JacksonJsonMapper());
+            config.compression.custom(compression);
+            if (requestMetrics != null) {
+                config.requestLogger.http(requestMetrics);
+            }
+        });
+        if (requestMetrics != null) {
+            app.events(listener -> listener.handlerAdded(requestMetrics::addEndpoint));
+        }
+
+        app.before(admissionControl::admit);
+        app.after(admissionControl::release);
 
         app.post("register", this::createAccountHandler);
         app.post("login", this::loginHandler);
 
         app.post("messages", this::createMessageHandler);
+        app.post("messages/batch", this::createMessagesHandler);
         app.get("messages", this::getAllMessagesHandler);
         app.get("messages/{message_id}", this::getMessageById);
         app.delete("messages/{message_id}", this::deleteMessageById);
         app.patch("messages/{message_id}", this::updateMessage);
         app.get("accounts/{account_id}/messages", this::getAllMessagesForUserHandler);
+        app.sse("events", this::messageEventsHandler);
+        if (METRICS_ENABLED) {
+            registerServiceMetrics(Metrics.getDefault());
+            admissionControl.registerMetrics(Metrics.getDefault());
+            app.get("metrics", this::metricsHandler);
+        }
+        if (ConnectionUtil.getStatementProfiler() != null) {
+            app.get("admin/queries", this::queryStatsHandler);
+            app.delete("admin/queries", context -> ConnectionUtil.getStatementProfiler().reset());
+        }
+
+        // The database executor's queue is full, or too many requests are in progress: ask the client to come back
+        // rather than queueing without bound
+        app.exception(RejectedExecutionException.class, (e, context) -> {
+            context.status(503);
+            context.header("Retry-After", "1");
+        });
+        app.exception(AdmissionControl.TooManyRequestsException.class, (e, context) -> {
+            context.status(429);
+            context.header("Retry-After", Long.toString(e.getRetryAfterSeconds()));
+        });
 
         return app;
     }
 
 
+    /**
+     * Expose the caches and the event feed of this controller's services on /metrics. Registering again (a new
+     * controller, eg in tests) points the metrics at the new services.
+     */
+    private void registerServiceMetrics(Metrics metrics) {
+        String hits = "socialmedia_cache_hits_total";
+        String hitsHelp = "Cache lookups answered from the cache.";
+        String misses = "socialmedia_cache_misses_total";
+        String missesHelp = "Cache lookups that went to the database.";
+
+        metrics.counter(hits, hitsHelp, () -> messageService.getMessageCache().stats().hitCount(),
+                "cache", "message");
+        metrics.counter(misses, missesHelp, () -> messageService.getMessageCache().stats().missCount(),
+                "cache", "message");
+        metrics.counter(hits, hitsHelp, () -> accountService.getAccountCache().idStats().hitCount(),
+                "cache", "account");
+        metrics.counter(misses, missesHelp, () -> accountService.getAccountCache().idStats().missCount(),
+                "cache", "account");
+        metrics.counter(hits, hitsHelp, () -> accountService.getAccountCache().usernameStats().hitCount(),
+                "cache", "account_username");
+        metrics.counter(misses, missesHelp, () -> accountService.getAccountCache().usernameStats().missCount(),
+                "cache", "account_username");
+        if (messageService.getTimelineCache() != null) {
+            metrics.counter(hits, hitsHelp, () -> messageService.getTimelineCache().stats().hitCount(),
+                    "cache", "timeline");
+            metrics.counter(misses, missesHelp, () -> messageService.getTimelineCache().stats().missCount(),
+                    "cache", "timeline");
+        }
+        if (accountService.getCredentialCache() != null) {
+            metrics.counter(hits, hitsHelp, () -> accountService.getCredentialCache().stats().hitCount(),
+                    "cache", "credential");
+            metrics.counter(misses, missesHelp, () -> accountService.getCredentialCache().stats().missCount(),
+                    "cache", "credential");
+        }
+
+        metrics.gauge("socialmedia_event_subscribers", "Open GET /events streams.",
+                () -> messageService.getEventBus().getSubscriptionCount());
+        metrics.counter("socialmedia_event_subscribers_dropped_total",
+                "Event streams closed because the client fell too far behind.",
+                () -> messageService.getEventBus().getDroppedSubscriptions());
+        if (messageService.getMessageStore() != null) {
+            metrics.counter(hits, hitsHelp, () -> messageService.getMessageStore().getHits(),
+                    "cache", "message_offheap");
+            metrics.counter(misses, missesHelp, () -> messageService.getMessageStore().getMisses(),
+                    "cache", "message_offheap");
+            metrics.gauge("socialmedia_offheap_store_messages", "Messages held by the off-heap message store.",
+                    () -> messageService.getMessageStore().size());
+            metrics.gauge("socialmedia_offheap_store_used_bytes",
+                    "Bytes of the off-heap message store's buffer in use, including superseded records.",
+                    () -> messageService.getMessageStore().getUsedBytes());
+        }
+        if (messageService.getReadModel() != null) {
+            metrics.gauge("socialmedia_read_model_messages", "Messages held by the in-memory read model.",
+                    () -> messageService.getReadModel().size());
+        }
+    }
+
+
+    /**
+     * Every metric in the Prometheus text format, for a Prometheus server (or anything that reads the format) to
+     * scrape.
+     * 
+     * @param context
+     */
+    private void metricsHandler(Context context) {
+        context.contentType("text/plain; version=0.0.4; charset=utf-8");
+        context.result(Metrics.getDefault().scrape());
+    }
+
+
+    /**
+     * Respond with the statistics of every SQL statement run since startup (or the last DELETE /admin/queries),
+     * the statement with the most total time first.
+     * 
+     * @param context
+     */
+    private void queryStatsHandler(Context context) {
+        context.json(ConnectionUtil.getStatementProfiler().snapshot());
+    }
+
+
     /**
      * Persist a new account.
      * 
+     * The handlers below that touch the database hand the work to the services' *Async methods and return, so the
+     * request thread is free while JDBC runs; Javalin writes the response when the future completes.
+     * 
      * @param context The Javalin Context object manages information about both the HTTP request and response.
-     * @throws JsonProcessingException
      */
-    private void createAccountHandler(Context context) throws JsonProcessingException {
-
-        // ObjectMapper will convert JSON from post request into Account object
-        ObjectMapper mapper = new ObjectMapper();
-        Account account = mapper.readValue(context.body(), Account.class);
+    private void createAccountHandler(Context context) {
+        Account account = context.bodyAsClass(Account.class);
 
         // Add the account
-        Account addedAccount = accountService.addAccount(account);
-        if (addedAccount != null) {
-            context.json(mapper.writeValueAsString(addedAccount));
-        } else {
-            context.status(400);
-        }
-
+        context.future(() -> accountService.addAccountAsync(account).thenAccept(addedAccount -> {
+            if (addedAccount != null) {
+                context.json(addedAccount);
+            } else {
+                context.status(400);
+            }
+        }));
     }
 
 
@@ -74,19 +266,17 @@ public class SocialMediaController {
      * Check that an account with the given username/password exists. 200, else 401.
      * 
      * @param context
-     * @throws JsonProcessingException
      */
-    private void loginHandler(Context context) throws JsonProcessingException {
-
-        ObjectMapper mapper = new ObjectMapper();
-        Account account = mapper.readValue(context.body(), Account.class);
-
-        Account loginAccount = accountService.loginAccount(account);
-        if (loginAccount != null) {
-            context.json(mapper.writeValueAsString(loginAccount));
-        } else {
-            context.status(401);
-        }
+    private void loginHandler(Context context) {
+        Account account = context.bodyAsClass(Account.class);
+
+        context.future(() -> accountService.loginAccountAsync(account).thenAccept(loginAccount -> {
+            if (loginAccount != null) {
+                context.json(loginAccount);
+            } else {
+                context.status(401);
+            }
+        }));
     }
 
 
@@ -95,56 +285,160 @@ public class SocialMediaController {
      * Create a new message. Status code of 200 if successful, otherwise 400.
      * 
      * @param context
-     * @throws JsonProcessingException
      */
-    private void createMessageHandler(Context context) throws JsonProcessingException {
+    private void createMessageHandler(Context context) {
+        Message message = context.bodyAsClass(Message.class);
+        admissionControl.checkAccountWrite(message.getPosted_by(), 1);
+
+        context.future(() -> messageService.createMessageAsync(message).thenAccept(newMessage -> {
+            if (newMessage != null) {
+                context.json(newMessage);
+            } else {
+                context.status(400);
+            }
+        }));
+    }
+
 
-        ObjectMapper mapper = new ObjectMapper();
-        Message message = mapper.readValue(context.body(), Message.class);
 
-        Message newMessage = messageService.createMessage(message);
-        if (newMessage != null) {
-            context.json(mapper.writeValueAsString(newMessage));
-        } else {
+    /**
+     * Create every message in a JSON array, in one transaction. Status code of 200 with the created messages if all
+     * of them are valid, otherwise 400 and nothing is created.
+     * 
+     * @param context
+     */
+    private void createMessagesHandler(Context context) {
+        List<Message> messages = context.bodyAsClass(JsonUtil.MESSAGE_LIST_TYPE);
+
+        if (messages == null) {
             context.status(400);
+            return;
         }
-
+        // Each message counts against its account's write limit
+        Map<Integer, Integer> perAccount = new HashMap<>();
+        for (Message message : messages) {
+            if (message != null) {
+                perAccount.merge(message.getPosted_by(), 1, Integer::sum);
+            }
+        }
+        admissionControl.checkAccountWrites(perAccount);
+
+        context.future(() -> messageService.createMessagesAsync(messages).thenAccept(newMessages -> {
+            if (newMessages != null) {
+                context.json(newMessages, JsonUtil.MESSAGE_LIST_TYPE);
+            } else {
+                context.status(400);
+            }
+        }));
     }
 
 
 
     /**
-     * Respond with a JSON representation of a list containing all messages retrieved from the database
+     * Respond with a JSON representation of a list containing all messages retrieved from the database.
+     * If a limit or cursor query parameter is given, respond with one page of messages instead.
+     * 
+     * The full list is streamed: it is read a chunk at a time and each chunk is written before the next is read,
+     * so neither the list nor its JSON form is ever held in memory, and no connection is held while the client
+     * reads. The chunks are read on the database executor, so a full queue means a 503 like any other read.
      * 
      * @param context
-     * @throws JsonProcessingException
+     * @throws IOException
      */
-    private void getAllMessagesHandler(Context context) throws JsonProcessingException {
-        ObjectMapper mapper = new ObjectMapper();
-        List<Message> messages = messageService.getAllMessages();
-        context.json(mapper.writeValueAsString(messages));
+    private void getAllMessagesHandler(Context context) throws IOException {
+        MessageFields fields;
+        try {
+            fields = messageFields(context);
+        } catch (IllegalArgumentException e) {
+            context.status(400);
+            return;
+        }
+
+        if (isPageRequest(context)) {
+            MessageCursor cursor;
+            int limit;
+            try {
+                cursor = pageCursor(context);
+                limit = pageLimit(context);
+            } catch (IllegalArgumentException e) {
+                context.status(400);
+                return;
+            }
+            context.future(() -> messageService.getMessagesPageAsync(cursor, limit, fields)
+                    .thenAccept(page -> json(context, page, JsonUtil.MESSAGE_PAGE_TYPE, fields)));
+            return;
+        }
+
+        context.contentType(ContentType.APPLICATION_JSON);
+        // Without FLUSH_AFTER_WRITE_VALUE, Jetty's buffer (and the gzip stream) is only flushed when full instead of
+        // after every message
+        ObjectWriter writer = JsonUtil.projectionWriter(fields).forType(Message.class)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        JsonGenerator generator = JsonUtil.MAPPER.getFactory().createGenerator(context.outputStream());
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        generator.writeStartArray();
+        try {
+            messageService.streamAllMessages(fields, message -> writer.writeValue(generator, message));
+        } catch (IOException | RejectedExecutionException e) {
+            abortStream(context, e);
+            return;
+        }
+        generator.writeEndArray();
+        generator.close();
+    }
+
+
+    /**
+     * End a streamed response that failed part way, so the client can't mistake what it got for the full list.
+     * If nothing has been sent yet, the response becomes a plain 500, or for a full database executor the usual
+     * 503. Otherwise the 200 and some rows are already on the wire, so the connection is cut without ending the
+     * body; the client sees a failed transfer.
+     */
+    private void abortStream(Context context, Exception e) {
+        if (!context.res().isCommitted()) {
+            context.res().resetBuffer();
+            if (e instanceof RejectedExecutionException) {
+                throw (RejectedExecutionException) e;
+            }
+            context.status(500).result("");
+            return;
+        }
+        Request.getBaseRequest(context.req()).getHttpChannel().abort(e);
     }
 
 
 
     /**
      * Get a message object with a specific message_id. Empty response if message doesn't exist.
+     * The response carries an ETag of the message's content; if the client already has it (If-None-Match), the
+     * response is a 304 with no body.
      * 
      * @param context
-     * @throws JsonProcessingException
      */
-    private void getMessageById(Context context) throws JsonProcessingException {
-        ObjectMapper mapper = new ObjectMapper();
+    private void getMessageById(Context context) {
         String messageIdParam = context.pathParam("message_id");
         int messageId = Integer.parseInt(messageIdParam);
 
-        // If message doesn't exist, response will be empty (200)
-        Message message = messageService.getMessageById(messageId);
-        if (message != null) {
-            context.json(mapper.writeValueAsString(message));
-        } else {
-            context.status(200);
+        if (messageService.getMessageStore() != null) {
+            // The JSON comes straight from the off-heap store, so the ETag is a hash of it
+            context.future(() -> messageService.getMessageJsonByIdAsync(messageId).thenAccept(json -> {
+                if (json == null) {
+                    context.status(200);
+                } else if (!notModified(context, messageTag(messageId, json), -1)) {
+                    context.contentType(ContentType.APPLICATION_JSON).result(json);
+                }
+            }));
+            return;
         }
+
+        // If message doesn't exist, response will be empty (200)
+        context.future(() -> messageService.getMessageByIdAsync(messageId).thenAccept(message -> {
+            if (message == null) {
+                context.status(200);
+            } else if (!notModified(context, messageTag(message), -1)) {
+                context.json(message);
+            }
+        }));
     }
 
 
@@ -152,19 +446,18 @@ public class SocialMediaController {
      * Deletes a message given an ID. If message didn't exist, response is empty, status 200.
      * 
      * @param context
-     * @throws JsonProcessingException
      */
-    private void deleteMessageById(Context context) throws JsonProcessingException {
-        ObjectMapper mapper = new ObjectMapper();
+    private void deleteMessageById(Context context) {
         String messageIdParam = context.pathParam("message_id");
         int messageId = Integer.parseInt(messageIdParam);
 
-        Message message = messageService.deleteMessageById(messageId);
-        if (message != null) {
-            context.json(mapper.writeValueAsString(message));
-        } else {
-            context.status(200);
-        }
+        context.future(() -> messageService.deleteMessageByIdAsync(messageId).thenAccept(message -> {
+            if (message != null) {
+                context.json(message);
+            } else {
+                context.status(200);
+            }
+        }));
     }
 
 
@@ -180,16 +473,16 @@ public class SocialMediaController {
         int messageId = Integer.parseInt(messageIdParam);
 
         // Get message text
-        ObjectMapper mapper = new ObjectMapper();
-        JsonNode jsonNode = mapper.readTree(context.body());
+        JsonNode jsonNode = JsonUtil.MAPPER.readTree(context.body());
         String messageText = jsonNode.get("message_text").asText();
 
-        Message message = messageService.updateMessageById(messageId, messageText);
-        if (message != null) {
-            context.json(mapper.writeValueAsString(message));
-        } else {
-            context.status(400);
-        }
+        context.future(() -> messageService.updateMessageByIdAsync(messageId, messageText).thenAccept(message -> {
+            if (message != null) {
+                context.json(message);
+            } else {
+                context.status(400);
+            }
+        }));
     }
 
 
@@ -197,17 +490,316 @@ public class SocialMediaController {
     /**
      * Retrieve all messages posted by the account with the given account ID
      * 
+     * The ETag and Last-Modified come from the account's change counter in memory, so a conditional request for a
+     * timeline that hasn't changed is answered with a 304 before any query runs.
+     * 
      * @param context
-     * @throws JsonProcessingException
      */
-    private void getAllMessagesForUserHandler(Context context) throws JsonProcessingException {
+    private void getAllMessagesForUserHandler(Context context) {
         // Get Account ID
         String accountIdParam = context.pathParam("account_id");
         int accountId = Integer.parseInt(accountIdParam);
+        admissionControl.checkAccountRead(accountId);
+        MessageFields fields;
+        try {
+            fields = messageFields(context);
+        } catch (IllegalArgumentException e) {
+            context.status(400);
+            return;
+        }
+        // A projection is a different representation, so it needs its own ETag
+        String fieldsTag = fields.isAll() ? "" : "-" + String.join(".", fields.getNames());
+
+        if (isPageRequest(context)) {
+            MessageCursor cursor;
+            int limit;
+            try {
+                cursor = pageCursor(context);
+                limit = pageLimit(context);
+            } catch (IllegalArgumentException e) {
+                context.status(400);
+                return;
+            }
+            String pageTag = timelineTag(accountId) + "-" + limit + (cursor == null ? "" : "-" + cursor.encode())
+                    + fieldsTag;
+            if (notModified(context, "\"" + pageTag + "\"", lastModified(accountId))) {
+                return;
+            }
+            context.future(() -> messageService.getMessagesPageByAccountIdAsync(accountId, cursor, limit, fields)
+                    .thenAccept(page -> json(context, page, JsonUtil.MESSAGE_PAGE_TYPE, fields)));
+            return;
+        }
+
+        if (notModified(context, "\"" + timelineTag(accountId) + fieldsTag + "\"", lastModified(accountId))) {
+            return;
+        }
+        if (fields.isAll() && messageService.getMessageStore() != null) {
+            context.future(() -> messageService.getAllMessagesByAccountIdJsonAsync(accountId).thenAccept(json -> {
+                if (json == null) {
+                    json(context, null, JsonUtil.MESSAGE_LIST_TYPE, fields);
+                } else {
+                    context.contentType(ContentType.APPLICATION_JSON).result(json);
+                }
+            }));
+            return;
+        }
+        context.future(() -> messageService.getAllMessagesByAccountIdAsync(accountId, fields)
+                .thenAccept(messages -> json(context, messages, JsonUtil.MESSAGE_LIST_TYPE, fields)));
+    }
+
+
+
+    /**
+     * Write the value as the JSON response, with only the requested fields of its messages.
+     * 
+     * @param context
+     * @param value a message, list of messages or page
+     * @param type the type of value
+     * @param fields the message fields to write
+     */
+    private void json(Context context, Object value, JavaType type, MessageFields fields) {
+        if (fields.isAll()) {
+            context.json(value, type);
+            return;
+        }
+        try {
+            context.contentType(ContentType.APPLICATION_JSON)
+                    .result(JsonUtil.projectionWriter(fields).forType(type).writeValueAsBytes(value));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Could not serialize " + type, e);
+        }
+    }
+
+
+    /**
+     * Gzip with the configured level, plus brotli in front of it if configured and the jvm-brotli library is on the
+     * classpath. Javalin fails to start when asked for brotli without it, so fall back to gzip alone instead.
+     */
+    private static CompressionStrategy compressionStrategy() {
+        CompressionStrategy strategy = null;
+        switch (COMPRESSION) {
+            case "none":
+                return CompressionStrategy.NONE;
+            case "brotli":
+                if (brotliAvailable()) {
+                    strategy = new CompressionStrategy(new Brotli(BROTLI_LEVEL), new Gzip(GZIP_LEVEL));
+                } else {
+                    System.out.println("jvm-brotli is not on the classpath, using gzip compression only");
+                }
+                break;
+            default:
+                break;
+        }
+        if (strategy == null) {
+            strategy = new CompressionStrategy(null, new Gzip(GZIP_LEVEL));
+        }
+        strategy.setMinSizeForCompression(COMPRESSION_MIN_SIZE);
+        return strategy;
+    }
+
+    private static boolean brotliAvailable() {
+        try {
+            Class.forName("com.nixxcode.jvmbrotli.common.BrotliLoader");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+
+
+    /**
+     * Stream message created/updated/deleted events as server-sent events, optionally only for the messages of
+     * one account (account_id query parameter). Each event's data is the message as JSON and its id is the event
+     * number, so a client that reconnects with Last-Event-ID (or the lastEventId query parameter) first gets the
+     * events it missed. If those are no longer available it gets a "reset" event and should reload.
+     * 
+     * A client that reads too slowly to keep up is disconnected; it can reconnect from its last event id.
+     * 
+     * Javalin runs this on its async thread pool, and the stream holds its thread until the client goes away.
+     * AdmissionControl caps the number of open streams (socialmedia.events.maxSubscribers), so they can't take an
+     * unbounded number of threads; a stream beyond the cap gets a 503 before it starts.
+     * 
+     * @param client
+     */
+    private void messageEventsHandler(SseClient client) {
+        Integer accountId;
+        long lastEventId;
+        try {
+            String accountIdParam = client.ctx.queryParam("account_id");
+            accountId = accountIdParam == null ? null : Integer.valueOf(accountIdParam);
+            String lastEventIdParam = client.ctx.header("Last-Event-ID");
+            if (lastEventIdParam == null) {
+                lastEventIdParam = client.ctx.queryParam("lastEventId");
+            }
+            lastEventId = lastEventIdParam == null ? -1 : Long.parseLong(lastEventIdParam.trim());
+        } catch (NumberFormatException e) {
+            // The event stream has already been started, so the status can't be changed; just end it
+            client.sendEvent("error", "invalid account_id or Last-Event-ID");
+            return;
+        }
+
+        AtomicBoolean closed = new AtomicBoolean();
+        client.onClose(() -> closed.set(true));
+        MessageEventBus eventBus = messageService.getEventBus();
+
+        try (MessageEventBus.Subscription subscription = eventBus.subscribe(accountId, lastEventId)) {
+            if (subscription.hasMissedEvents()) {
+                client.sendEvent("reset", "", Long.toString(subscription.getStartEventId()));
+            }
+            while (!closed.get() && !subscription.isDropped()) {
+                MessageEventBus.Event event = subscription.poll(EVENTS_HEARTBEAT_MILLIS);
+                if (event != null) {
+                    client.sendEvent(event.type, event.json, Long.toString(event.id));
+                } else if (!subscription.isDropped()) {
+                    client.sendComment("keep-alive");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+
+    private String timelineTag(int accountId) {
+        return "t" + messageService.getTimelineVersions().tag(accountId);
+    }
+
+    private long lastModified(int accountId) {
+        return messageService.getTimelineVersions().lastModified(accountId);
+    }
+
+
+    /**
+     * @param message
+     * @return a strong ETag for the message: its id and a 64-bit FNV-1a hash of its fields, so it changes whenever
+     * the message does
+     */
+    private static String messageTag(Message message) {
+        long hash = 0xcbf29ce484222325L;
+        String text = message.getMessage_text();
+        for (int i = 0; i < text.length(); i++) {
+            hash = (hash ^ text.charAt(i)) * 0x100000001b3L;
+        }
+        hash = (hash ^ message.getPosted_by()) * 0x100000001b3L;
+        hash = (hash ^ message.getTime_posted_epoch()) * 0x100000001b3L;
+        return "\"m" + message.getMessage_id() + "-" + Long.toHexString(hash) + "\"";
+    }
+
+    /**
+     * @return a strong ETag for a message from the 64-bit FNV-1a hash of its JSON
+     */
+    private static String messageTag(int messageId, byte[] json) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : json) {
+            hash = (hash ^ (b & 0xff)) * 0x100000001b3L;
+        }
+        return "\"m" + messageId + "-" + Long.toHexString(hash) + "\"";
+    }
+
+
+    /**
+     * Set the validators of the response, and answer 304 if the client's copy is still current: If-None-Match is
+     * checked against the ETag, or if it is absent, If-Modified-Since against Last-Modified (to the second).
+     * 
+     * @param context
+     * @param etag the quoted ETag of the current representation
+     * @param lastModifiedMillis when it last changed, or -1 to send no Last-Modified
+     * @return true if a 304 was set and nothing else should be written
+     */
+    private boolean notModified(Context context, String etag, long lastModifiedMillis) {
+        context.header("ETag", etag);
+        // Last-Modified only has whole seconds, so while the second of the last change is still running another
+        // change could land in it unnoticed; leave the header off until then and let the ETag do the work
+        if (lastModifiedMillis / 1000 >= System.currentTimeMillis() / 1000) {
+            lastModifiedMillis = -1;
+        }
+        if (lastModifiedMillis >= 0) {
+            context.header("Last-Modified", DateTimeFormatter.RFC_1123_DATE_TIME.format(
+                    Instant.ofEpochMilli(lastModifiedMillis).atZone(ZoneOffset.UTC)));
+        }
+
+        boolean notModified = false;
+        String ifNoneMatch = context.header("If-None-Match");
+        String ifModifiedSince = context.header("If-Modified-Since");
+        if (ifNoneMatch != null) {
+            for (String candidate : ifNoneMatch.split(",")) {
+                candidate = candidate.trim();
+                if (candidate.startsWith("W/")) {
+                    candidate = candidate.substring(2);
+                }
+                if (candidate.equals(etag) || candidate.equals("*")) {
+                    notModified = true;
+                    break;
+                }
+            }
+        } else if (ifModifiedSince != null && lastModifiedMillis >= 0) {
+            try {
+                long since = ZonedDateTime.parse(ifModifiedSince, DateTimeFormatter.RFC_1123_DATE_TIME)
+                        .toEpochSecond();
+                notModified = lastModifiedMillis / 1000 <= since;
+            } catch (DateTimeParseException e) {
+                // Invalid dates are ignored, as HTTP requires
+            }
+        }
 
-        ObjectMapper mapper = new ObjectMapper();
-        List<Message> messages = messageService.getAllMessagesByAccountId(accountId);
-        context.json(mapper.writeValueAsString(messages));
+        if (notModified) {
+            context.status(304);
+        }
+        return notModified;
+    }
+
+
+    /**
+     * @param context
+     * @return true if the client asked for a single page rather than the whole list
+     */
+    private boolean isPageRequest(Context context) {
+        return context.queryParam("limit") != null || context.queryParam("cursor") != null;
+    }
+
+
+    /**
+     * @param context
+     * @return the fields named by the fields query parameter, or every field if there is none
+     * @throws IllegalArgumentException if it names something that is not a message field
+     */
+    private MessageFields messageFields(Context context) {
+        return MessageFields.parse(context.queryParam("fields"));
+    }
+
+
+    /**
+     * @param context
+     * @return the requested page size, clamped to MAX_PAGE_LIMIT
+     * @throws IllegalArgumentException if the limit is not a positive number
+     */
+    private int pageLimit(Context context) {
+        String limitParam = context.queryParam("limit");
+        if (limitParam == null) {
+            return DEFAULT_PAGE_LIMIT;
+        }
+
+        int limit = Integer.parseInt(limitParam);
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit must be positive");
+        }
+        return Math.min(limit, MAX_PAGE_LIMIT);
+    }
+
+
+    /**
+     * @param context
+     * @return the decoded cursor query parameter, or null for the first page
+     * @throws IllegalArgumentException if the cursor is malformed
+     */
+    private MessageCursor pageCursor(Context context) {
+        String cursorParam = context.queryParam("cursor");
+        if (cursorParam == null || cursorParam.isEmpty()) {
+            return null;
+        }
+        return MessageCursor.decode(cursorParam);
     }
 
 
@@ -5,12 +5,26 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 
 import Model.Account;
 import Util.ConnectionUtil;
+import Util.LatencyHistogram;
 
 public class AccountDAO {
-    
+
+    /**
+     * Query time of each method, see ConnectionUtil.queryTimer().
+     */
+    private static final LatencyHistogram GET_ACCOUNT_BY_USERNAME =
+            ConnectionUtil.queryTimer("AccountDAO", "getAccountByUsername");
+    private static final LatencyHistogram GET_ACCOUNT_BY_ID = ConnectionUtil.queryTimer("AccountDAO", "getAccountById");
+    private static final LatencyHistogram GET_ACCOUNTS_BY_IDS =
+            ConnectionUtil.queryTimer("AccountDAO", "getAccountsByIds");
+    private static final LatencyHistogram UPDATE_PASSWORD = ConnectionUtil.queryTimer("AccountDAO", "updatePassword");
+    private static final LatencyHistogram INSERT_ACCOUNT = ConnectionUtil.queryTimer("AccountDAO", "insertAccount");
 
     /**
      * Get an account from the Account table given an account_id
@@ -19,24 +33,22 @@ public class AccountDAO {
      * @return The account object if it exists, otherwise null
      */
     public Account getAccountByUsername(String username) {
-        Connection connection = ConnectionUtil.getConnection();
-
-        try {
-
-            String sql = "SELECT * FROM account WHERE username = ?;";
-            PreparedStatement ps = connection.prepareStatement(sql);
+        String sql = "SELECT * FROM account WHERE username = ?;";
+        try (Connection connection = ConnectionUtil.getConnection(GET_ACCOUNT_BY_USERNAME);
+                PreparedStatement ps = connection.prepareStatement(sql)) {
 
             ps.setString(1, username);
 
             // If the account exists, return the account
-            ResultSet rs = ps.executeQuery();
-            if (rs.next()) {
-                Account account = new Account(
-                    rs.getInt("account_id"),
-                    rs.getString("username"),
-                    rs.getString("password")
-                );
-                return account;
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    Account account = new Account(
+                        rs.getInt("account_id"),
+                        rs.getString("username"),
+                        rs.getString("password")
+                    );
+                    return account;
+                }
             }
             
         } catch (SQLException e) {
@@ -50,35 +62,34 @@ public class AccountDAO {
 
 
     /**
-     * Query the database for the given account. Return object if it exists, else null.
-     * 
-     * @param username
-     * @param password
-     * @return Account object with account_id if it exists, or null
+     * Get an account from the Account table given an account_id. A failed query is thrown rather than answered with
+     * null, so that it can't be mistaken for (and cached as) an account that doesn't exist.
+     *
+     * @param id The account_id of the account to search for
+     * @return The account object if it exists, otherwise null
+     * @throws IllegalStateException if the account could not be read
      */
-    public Account getAccountByUsernamePassword(String username, String password) {
-        Connection connection = ConnectionUtil.getConnection();
-
-        try {
+    public Account getAccountById(int id) {
+        String sql = "SELECT * FROM account WHERE account_id = ?;";
+        try (Connection connection = ConnectionUtil.getConnection(GET_ACCOUNT_BY_ID);
+                PreparedStatement ps = connection.prepareStatement(sql)) {
 
-            String sql = "SELECT * FROM account WHERE username = ? AND password = ?;";
-            PreparedStatement ps = connection.prepareStatement(sql);
+            ps.setInt(1, id);
 
-            ps.setString(1, username);
-            ps.setString(2, password);
-            ResultSet rs = ps.executeQuery();
-
-            if (rs.next()) {
-                Account account = new Account(
-                    rs.getInt(1),
-                    username,
-                    password
-                );
-                return account;
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    Account account = new Account(
+                        id,
+                        rs.getString("username"),
+                        rs.getString("password")
+                    );
+                    return account;
+                }
             }
 
         } catch (SQLException e) {
             System.out.println(e.getMessage());
+            throw new IllegalStateException("Could not read account " + id, e);
         }
 
         return null;
@@ -87,31 +98,72 @@ public class AccountDAO {
 
 
 
-    public Account getAccountById(int id) {
-        Connection connection = ConnectionUtil.getConnection();
 
-        try  {
+    /**
+     * Get every account whose account_id is in the given collection, in a single query.
+     *
+     * @param ids the account_ids to look up
+     * @return the accounts that exist, in no particular order
+     * @throws IllegalStateException if the accounts could not be read
+     */
+    public List<Account> getAccountsByIds(Collection<Integer> ids) {
+        List<Account> accounts = new ArrayList<Account>();
+        if (ids.isEmpty()) {
+            return accounts;
+        }
 
-            String sql = "SELECT * FROM account WHERE account_id = ?;";
-            PreparedStatement ps = connection.prepareStatement(sql);
+        String sql = "SELECT * FROM account WHERE account_id = ANY(?);";
+        try (Connection connection = ConnectionUtil.getConnection(GET_ACCOUNTS_BY_IDS);
+                PreparedStatement ps = connection.prepareStatement(sql)) {
 
-            ps.setInt(1, id);
-            ResultSet rs = ps.executeQuery();
-
-            if (rs.next()) {
-                Account account = new Account(
-                    id,
-                    rs.getString("username"),
-                    rs.getString("password")
-                );
-                return account;
+            ps.setArray(1, connection.createArrayOf("INTEGER", ids.toArray()));
+
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    accounts.add(new Account(
+                        rs.getInt("account_id"),
+                        rs.getString("username"),
+                        rs.getString("password")
+                    ));
+                }
             }
 
         } catch (SQLException e) {
             System.out.println(e.getMessage());
+            throw new IllegalStateException("Could not read accounts " + ids, e);
         }
 
-        return null;
+        return accounts;
+    }
+
+
+
+
+
+    /**
+     * Replace an account's stored password, but only if it is still the one the caller read, so two requests
+     * re-hashing the same password at once can't overwrite each other with an older value.
+     * 
+     * @param accountId the account to update
+     * @param oldPassword the stored password (hash) the caller read
+     * @param newPassword the new stored password (hash)
+     * @return true if the password was replaced
+     */
+    public boolean updatePassword(int accountId, String oldPassword, String newPassword) {
+        String sql = "UPDATE account SET password = ? WHERE account_id = ? AND password = ?;";
+        try (Connection connection = ConnectionUtil.getConnection(UPDATE_PASSWORD);
+                PreparedStatement ps = connection.prepareStatement(sql)) {
+
+            ps.setString(1, newPassword);
+            ps.setInt(2, accountId);
+            ps.setString(3, oldPassword);
+            return ps.executeUpdate() == 1;
+
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        }
+
+        return false;
     }
 
 
@@ -126,22 +178,20 @@ public class AccountDAO {
      * @return The created account if succesful, otherwise null
      */
     public Account insertAccount(Account account) {
-        Connection connection = ConnectionUtil.getConnection();
-
-        try {
-
-            // Create prepared statement with RETURN_GENERATED_KEYS flag in order to retrieve auto-generated account ID
-            String sql = "INSERT INTO account(username, password) VALUES(?, ?);";
-            PreparedStatement ps = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+        // Create prepared statement with RETURN_GENERATED_KEYS flag in order to retrieve auto-generated account ID
+        String sql = "INSERT INTO account(username, password) VALUES(?, ?);";
+        try (Connection connection = ConnectionUtil.getConnection(INSERT_ACCOUNT);
+                PreparedStatement ps = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
 
             ps.setString(1, account.getUsername());
             ps.setString(2, account.getPassword());
             ps.executeUpdate();
 
-            ResultSet pkResultSet = ps.getGeneratedKeys();
-            if(pkResultSet.next()){
-                int generated_account_id = (int) pkResultSet.getLong(1);
-                return new Account(generated_account_id, account.getUsername(), account.getPassword());
+            try (ResultSet pkResultSet = ps.getGeneratedKeys()) {
+                if(pkResultSet.next()){
+                    int generated_account_id = (int) pkResultSet.getLong(1);
+                    return new Account(generated_account_id, account.getUsername(), account.getPassword());
+                }
             }
 
         } catch (SQLException e) {
@@ -1,5 +1,6 @@
 package DAO;
 
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.Statement;
 import java.sql.PreparedStatement;
@@ -8,32 +9,63 @@ import java.sql.SQLException;
 import java.util.*;
 
 import Model.Message;
+import Model.MessageCursor;
+import Model.MessageFields;
 import Util.ConnectionUtil;
+import Util.LatencyHistogram;
 
 public class MessageDAO {
 
+    /**
+     * Query time of each method, see ConnectionUtil.queryTimer().
+     */
+    private static final LatencyHistogram GET_MESSAGE_BY_ID = ConnectionUtil.queryTimer("MessageDAO", "getMessageById");
+    private static final LatencyHistogram GET_MESSAGES_BY_IDS =
+            ConnectionUtil.queryTimer("MessageDAO", "getMessagesByIds");
+    private static final LatencyHistogram INSERT_MESSAGE = ConnectionUtil.queryTimer("MessageDAO", "insertMessage");
+    private static final LatencyHistogram INSERT_MESSAGES = ConnectionUtil.queryTimer("MessageDAO", "insertMessages");
+    private static final LatencyHistogram GET_ALL_MESSAGES = ConnectionUtil.queryTimer("MessageDAO", "getAllMessages");
+    private static final LatencyHistogram STREAM_ALL_MESSAGES =
+            ConnectionUtil.queryTimer("MessageDAO", "streamAllMessages");
+    private static final LatencyHistogram GET_MESSAGES_AFTER =
+            ConnectionUtil.queryTimer("MessageDAO", "getMessagesAfter");
+    private static final LatencyHistogram GET_MESSAGES_BY_ACCOUNT_ID_BEFORE =
+            ConnectionUtil.queryTimer("MessageDAO", "getMessagesByAccountIdBefore");
+    private static final LatencyHistogram DELETE_MESSAGE_BY_ID =
+            ConnectionUtil.queryTimer("MessageDAO", "deleteMessageById");
+    private static final LatencyHistogram UPDATE_MESSAGE_BY_ID =
+            ConnectionUtil.queryTimer("MessageDAO", "updateMessageById");
+    private static final LatencyHistogram GET_ALL_MESSAGES_BY_ACCOUNT_ID =
+            ConnectionUtil.queryTimer("MessageDAO", "getAllMessagesByAccountId");
+
+    /**
+     * Receives the messages of a streamed query one at a time, see streamAllMessages().
+     */
+    public interface MessageHandler {
+        void handle(Message message) throws IOException;
+    }
+
     /**
      * @param id the message_id of the message to retrieve
      * @return the message if found, or null
      */
     public Message getMessageById(int id) {
-        Connection connection = ConnectionUtil.getConnection();
-
-        try {
+        String sql = "SELECT * FROM message WHERE message_id = ?;";
+        try (Connection connection = ConnectionUtil.getConnection(GET_MESSAGE_BY_ID);
+                PreparedStatement ps = connection.prepareStatement(sql)) {
 
-            String sql = "SELECT * FROM message WHERE message_id = ?;";
-            PreparedStatement ps = connection.prepareStatement(sql);
             ps.setInt(1, id);
             
-            ResultSet rs = ps.executeQuery();
-            if (rs.next()) {
-                Message message = new Message(
-                    id,
-                    rs.getInt("posted_by"),
-                    rs.getString("message_text"),
-                    rs.getLong("time_posted_epoch")
-                );
-                return message;
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    Message message = new Message(
+                        id,
+                        rs.getInt("posted_by"),
+                        rs.getString("message_text"),
+                        rs.getLong("time_posted_epoch")
+                    );
+                    return message;
+                }
             }
         } catch (SQLException e) {
             System.out.println(e.getMessage());
@@ -45,6 +77,38 @@ public class MessageDAO {
 
 
 
+    /**
+     * @param ids the message_ids to look up
+     * @return the messages that exist, in no particular order
+     */
+    public List<Message> getMessagesByIds(Collection<Integer> ids) {
+        List<Message> messages = new ArrayList<Message>();
+        if (ids.isEmpty()) {
+            return messages;
+        }
+
+        String sql = "SELECT * FROM message WHERE message_id = ANY(?);";
+        try (Connection connection = ConnectionUtil.getConnection(GET_MESSAGES_BY_IDS);
+                PreparedStatement ps = connection.prepareStatement(sql)) {
+
+            ps.setArray(1, connection.createArrayOf("INTEGER", ids.toArray()));
+
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    messages.add(mapMessage(rs));
+                }
+            }
+
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        }
+
+        return messages;
+    }
+
+
+
+
     /**
      * Persist a new message into the database.
      * 
@@ -52,22 +116,72 @@ public class MessageDAO {
      * @return the message object with the generated message_id, or null
      */
     public Message insertMessage(Message message) {
-        Connection connection = ConnectionUtil.getConnection();
-
-        try {
-
-            String sql = "INSERT INTO message (posted_by, message_text, time_posted_epoch) VALUES (?, ?, ?);";
-            PreparedStatement ps = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+        String sql = "INSERT INTO message (posted_by, message_text, time_posted_epoch) VALUES (?, ?, ?);";
+        try (Connection connection = ConnectionUtil.getConnection(INSERT_MESSAGE);
+                PreparedStatement ps = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
 
             ps.setInt(1, message.posted_by);
             ps.setString(2, message.message_text);
             ps.setLong(3, message.time_posted_epoch);
             ps.executeUpdate();
 
-            ResultSet rs = ps.getGeneratedKeys();
-            if(rs.next()){
-                int generated_message_id = (int) rs.getLong(1);
-                return new Message(generated_message_id, message.posted_by, message.message_text, message.time_posted_epoch);
+            try (ResultSet rs = ps.getGeneratedKeys()) {
+                if(rs.next()){
+                    int generated_message_id = (int) rs.getLong(1);
+                    return new Message(generated_message_id, message.posted_by, message.message_text, message.time_posted_epoch);
+                }
+            }
+
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Persist several messages in one transaction, sending the inserts to the database as a single JDBC batch.
+     * Either all of the messages are inserted or none are.
+     * 
+     * @param messages the message objects to be persisted
+     * @return the message objects with their generated message_ids, in the same order, or null if the insert failed
+     */
+    public List<Message> insertMessages(List<Message> messages) {
+        List<Message> insertedMessages = new ArrayList<Message>(messages.size());
+        if (messages.isEmpty()) {
+            return insertedMessages;
+        }
+
+        try (Connection connection = ConnectionUtil.getConnection(INSERT_MESSAGES)) {
+            connection.setAutoCommit(false);
+
+            String sql = "INSERT INTO message (posted_by, message_text, time_posted_epoch) VALUES (?, ?, ?);";
+            try (PreparedStatement ps = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+
+                for (Message message : messages) {
+                    ps.setInt(1, message.posted_by);
+                    ps.setString(2, message.message_text);
+                    ps.setLong(3, message.time_posted_epoch);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+
+                try (ResultSet rs = ps.getGeneratedKeys()) {
+                    for (Message message : messages) {
+                        if (!rs.next()) {
+                            throw new SQLException("Missing generated key for batch insert");
+                        }
+                        int generated_message_id = (int) rs.getLong(1);
+                        insertedMessages.add(new Message(generated_message_id, message.posted_by, message.message_text, message.time_posted_epoch));
+                    }
+                }
+
+                connection.commit();
+                return insertedMessages;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
             }
 
         } catch (SQLException e) {
@@ -82,15 +196,13 @@ public class MessageDAO {
      * @return List of all messages
      */
     public List<Message> getAllMessages() {
-        Connection connection = ConnectionUtil.getConnection();
         List<Message> messages = new ArrayList<Message>();
 
-        try {
-
-            String sql = "SELECT * FROM message;";
-            Statement st = connection.createStatement();
+        String sql = "SELECT * FROM message;";
+        try (Connection connection = ConnectionUtil.getConnection(GET_ALL_MESSAGES);
+                Statement st = connection.createStatement();
+                ResultSet rs = st.executeQuery(sql)) {
 
-            ResultSet rs = st.executeQuery(sql);
             while (rs.next()) {
                 Message message = new Message(
                     rs.getInt("message_id"),
@@ -111,42 +223,233 @@ public class MessageDAO {
 
 
     /**
-     * Delete a message given an ID
-     * @param messageId ID of the message to delete
+     * Hand every message to the handler as it is read from the database, without collecting them in a list.
+     * The query runs with H2's lazy query execution so the database does not materialize the whole result either;
+     * memory use stays the same whatever the size of the table.
+     *
+     * @param fetchSize number of rows the driver fetches per round trip
+     * @param handler called once per message, in message_id order
+     * @throws IOException if the handler fails, eg because the client went away, or the query fails. The handler
+     * may already have been given some of the messages, so the caller must not treat them as the full list.
+     */
+    public void streamAllMessages(int fetchSize, MessageHandler handler) throws IOException {
+        streamAllMessages(fetchSize, MessageFields.ALL, handler);
+    }
+
+    /**
+     * Like streamAllMessages(fetchSize, handler), reading only the given columns; the fields that weren't read
+     * are left at their defaults in the messages handed to the handler.
      */
-    public void deleteMessageById(int messageId) {
-        Connection connection = ConnectionUtil.getConnection();
+    public void streamAllMessages(int fetchSize, MessageFields fields, MessageHandler handler) throws IOException {
+        try (Connection connection = ConnectionUtil.getConnection(STREAM_ALL_MESSAGES);
+                Statement settings = connection.createStatement()) {
+
+            settings.execute("SET LAZY_QUERY_EXECUTION TRUE");
+            String sql = "SELECT " + fields.columns() + " FROM message ORDER BY message_id;";
+            try (Statement st = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                st.setFetchSize(fetchSize);
+
+                try (ResultSet rs = st.executeQuery(sql)) {
+                    while (rs.next()) {
+                        handler.handle(mapMessage(rs, fields));
+                    }
+                }
+            } finally {
+                // The connection goes back to the pool, so leave the session the way we found it
+                settings.execute("SET LAZY_QUERY_EXECUTION FALSE");
+            }
+
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+            // Unlike the other queries there is no empty result to fall back on: rows may already have been handed out
+            throw new IOException("Streaming all messages failed", e);
+        }
+    }
+
+
+
+    /**
+     * Get one page of all messages, in message_id order. Uses the primary key index to seek straight to the
+     * start of the page, so the cost does not depend on how deep into the table the page is.
+     *
+     * @param afterMessageId only messages with a greater message_id are returned, 0 for the first page
+     * @param limit the maximum number of messages to return
+     * @return List of at most limit messages
+     */
+    public List<Message> getMessagesAfter(int afterMessageId, int limit) {
+        return getMessagesAfter(afterMessageId, limit, MessageFields.ALL);
+    }
+
+    /**
+     * Like getMessagesAfter(afterMessageId, limit), reading only the given columns. message_id is always read,
+     * since the next page starts from it.
+     */
+    public List<Message> getMessagesAfter(int afterMessageId, int limit, MessageFields fields) {
+        try {
+            return queryMessagesAfter(afterMessageId, limit, fields);
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        }
+
+        return new ArrayList<Message>();
+    }
 
+    /**
+     * Like getMessagesAfter(afterMessageId, limit, fields), but a failed query throws instead of returning no
+     * messages, for callers that must not mistake a failure for the end of the table, such as a streamed list
+     * that has already sent its earlier pages.
+     *
+     * @throws IOException if the query fails
+     */
+    public List<Message> getMessagesAfterOrThrow(int afterMessageId, int limit, MessageFields fields)
+            throws IOException {
         try {
-            String sql = "DELETE FROM message WHERE message_id = ?;";
-            PreparedStatement ps = connection.prepareStatement(sql);
+            return queryMessagesAfter(afterMessageId, limit, fields);
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+            throw new IOException("Reading messages after " + afterMessageId + " failed", e);
+        }
+    }
+
+    private List<Message> queryMessagesAfter(int afterMessageId, int limit, MessageFields fields)
+            throws SQLException {
+        List<Message> messages = new ArrayList<Message>();
+        MessageFields selected = fields.with("message_id");
+
+        String sql = "SELECT " + selected.columns() + " FROM message WHERE message_id > ? ORDER BY message_id LIMIT ?;";
+        try (Connection connection = ConnectionUtil.getConnection(GET_MESSAGES_AFTER);
+                PreparedStatement ps = connection.prepareStatement(sql)) {
+
+            ps.setInt(1, afterMessageId);
+            ps.setInt(2, limit);
+
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    messages.add(mapMessage(rs, selected));
+                }
+            }
+        }
+
+        return messages;
+    }
+
+
+
+    /**
+     * Get one page of the messages posted by an account, newest first (by time_posted_epoch, then message_id).
+     *
+     * @param accountId The ID of the account for which we are retrieving messages
+     * @param cursor the position of the last message of the previous page, or null for the first page
+     * @param limit the maximum number of messages to return
+     * @return List of at most limit messages
+     */
+    public List<Message> getMessagesByAccountIdBefore(int accountId, MessageCursor cursor, int limit) {
+        return getMessagesByAccountIdBefore(accountId, cursor, limit, MessageFields.ALL);
+    }
+
+    /**
+     * Like getMessagesByAccountIdBefore(accountId, cursor, limit), reading only the given columns.
+     * time_posted_epoch and message_id are always read, since the next page's cursor is made from them.
+     */
+    public List<Message> getMessagesByAccountIdBefore(int accountId, MessageCursor cursor, int limit,
+            MessageFields fields) {
+        List<Message> messages = new ArrayList<Message>();
+        MessageFields selected = fields.with("message_id", "time_posted_epoch");
+
+        try (Connection connection = ConnectionUtil.getConnection(GET_MESSAGES_BY_ACCOUNT_ID_BEFORE)) {
+
+            // H2 would otherwise pick the foreign key's index on posted_by alone and sort every message of the
+            // account. The timeline index is already in page order, so it reads only the rows of the page; the
+            // redundant posted_by in ORDER BY is what lets H2 see that. time_posted_epoch <= ? lets the cursor
+            // seek into the index instead of filtering from the newest message.
+            String sql;
+            if (cursor == null) {
+                sql = "SELECT " + selected.columns() + " FROM message USE INDEX (message_posted_by_time_idx) "
+                        + "WHERE posted_by = ? ORDER BY posted_by, time_posted_epoch DESC, message_id DESC LIMIT ?;";
+            } else {
+                sql = "SELECT " + selected.columns() + " FROM message USE INDEX (message_posted_by_time_idx) "
+                        + "WHERE posted_by = ? AND time_posted_epoch <= ? AND (time_posted_epoch < ? OR message_id < ?) "
+                        + "ORDER BY posted_by, time_posted_epoch DESC, message_id DESC LIMIT ?;";
+            }
+
+            try (PreparedStatement ps = connection.prepareStatement(sql)) {
+                ps.setInt(1, accountId);
+                if (cursor == null) {
+                    ps.setInt(2, limit);
+                } else {
+                    ps.setLong(2, cursor.time_posted_epoch);
+                    ps.setLong(3, cursor.time_posted_epoch);
+                    ps.setInt(4, cursor.message_id);
+                    ps.setInt(5, limit);
+                }
+
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        messages.add(mapMessage(rs, selected));
+                    }
+                }
+            }
+
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        }
+
+        return messages;
+    }
+
+
+
+    /**
+     * Delete a message given an ID, and return the row as it was before the delete. Reading the row out of the
+     * DELETE itself (H2's OLD TABLE) takes one round trip, and the returned row is exactly the one deleted even if
+     * another request is changing the message at the same time.
+     * @param messageId ID of the message to delete
+     * @return the deleted message, or null if there was none
+     */
+    public Message deleteMessageById(int messageId) {
+        String sql = "SELECT * FROM OLD TABLE (DELETE FROM message WHERE message_id = ?);";
+        try (Connection connection = ConnectionUtil.getConnection(DELETE_MESSAGE_BY_ID);
+                PreparedStatement ps = connection.prepareStatement(sql)) {
             ps.setInt(1, messageId);
-            ps.executeUpdate();
+
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    return mapMessage(rs);
+                }
+            }
         } catch (SQLException e) {
             System.out.println(e.getMessage());
         }
+
+        return null;
     }
 
 
 
     /**
-     * Update the text of the message with the given ID
+     * Update the text of the message with the given ID, and return the row as it is after the update (H2's
+     * FINAL TABLE), in one statement.
      * @param messageId Id of the message to update
      * @param messageText New text to update the message with
+     * @return the updated message, or null if there was none
      */
-    public void updateMessageById(int messageId, String messageText) {
-        Connection connection = ConnectionUtil.getConnection();
-
-        try {
-            String sql = "UPDATE message SET message_text = ? WHERE message_id = ?;";
-            PreparedStatement ps = connection.prepareStatement(sql);
+    public Message updateMessageById(int messageId, String messageText) {
+        String sql = "SELECT * FROM FINAL TABLE (UPDATE message SET message_text = ? WHERE message_id = ?);";
+        try (Connection connection = ConnectionUtil.getConnection(UPDATE_MESSAGE_BY_ID);
+                PreparedStatement ps = connection.prepareStatement(sql)) {
             ps.setString(1, messageText);
             ps.setInt(2, messageId);
-            ps.executeUpdate();
 
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    return mapMessage(rs);
+                }
+            }
         } catch (SQLException e) {
             System.out.println(e.getMessage());
         }
+
+        return null;
     }
 
 
@@ -155,24 +458,28 @@ public class MessageDAO {
      * @return A list of Message objects associated with the account
      */
     public List<Message> getAllMessagesByAccountId(int accountId) {
-        Connection connection = ConnectionUtil.getConnection();
+        return getAllMessagesByAccountId(accountId, MessageFields.ALL);
+    }
+
+    /**
+     * @param accountId The ID of the account for which we are retrieving messages
+     * @param fields the columns to read; the other fields are left at their defaults
+     * @return A list of Message objects associated with the account, in message_id order like the timeline cache
+     * and the read model return them
+     */
+    public List<Message> getAllMessagesByAccountId(int accountId, MessageFields fields) {
         List<Message> messages = new ArrayList<Message>();
 
-        try {
+        String sql = "SELECT " + fields.columns() + " FROM message WHERE posted_by = ? ORDER BY message_id;";
+        try (Connection connection = ConnectionUtil.getConnection(GET_ALL_MESSAGES_BY_ACCOUNT_ID);
+                PreparedStatement ps = connection.prepareStatement(sql)) {
 
-            String sql = "SELECT * FROM message WHERE posted_by = ?;";
-            PreparedStatement ps = connection.prepareStatement(sql);
             ps.setInt(1, accountId);
 
-            ResultSet rs = ps.executeQuery();
-            while (rs.next()) {
-                Message message = new Message(
-                    rs.getInt("message_id"),
-                    rs.getInt("posted_by"),
-                    rs.getString("message_text"),
-                    rs.getLong("time_posted_epoch")
-                );
-                messages.add(message);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    messages.add(mapMessage(rs, fields));
+                }
             }
 
             return messages;
@@ -184,5 +491,39 @@ public class MessageDAO {
     }
 
 
-    
+
+    /**
+     * Build a Message from the current row of a result set that selected every column of the message table.
+     */
+    private Message mapMessage(ResultSet rs) throws SQLException {
+        return new Message(
+            rs.getInt("message_id"),
+            rs.getInt("posted_by"),
+            rs.getString("message_text"),
+            rs.getLong("time_posted_epoch")
+        );
+    }
+
+    /**
+     * Build a Message from the current row of a result set that selected only the given columns.
+     */
+    private Message mapMessage(ResultSet rs, MessageFields fields) throws SQLException {
+        if (fields.isAll()) {
+            return mapMessage(rs);
+        }
+        Message message = new Message();
+        if (fields.contains("message_id")) {
+            message.setMessage_id(rs.getInt("message_id"));
+        }
+        if (fields.contains("posted_by")) {
+            message.setPosted_by(rs.getInt("posted_by"));
+        }
+        if (fields.contains("message_text")) {
+            message.setMessage_text(rs.getString("message_text"));
+        }
+        if (fields.contains("time_posted_epoch")) {
+            message.setTime_posted_epoch(rs.getLong("time_posted_epoch"));
+        }
+        return message;
+    }
 }
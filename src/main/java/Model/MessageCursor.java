@@ -0,0 +1,79 @@
+package Model;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * This is a class that models a position in a list of messages, used for keyset (cursor) pagination. A cursor points
+ * at the last message of a page; the next page starts right after it. Clients only ever see the opaque encoded form.
+ */
+public class MessageCursor {
+    /**
+     * The time_posted_epoch of the last message on the previous page.
+     */
+    public final long time_posted_epoch;
+    /**
+     * The message_id of the last message on the previous page.
+     */
+    public final int message_id;
+
+    public MessageCursor(long time_posted_epoch, int message_id) {
+        this.time_posted_epoch = time_posted_epoch;
+        this.message_id = message_id;
+    }
+
+    /**
+     * @param message the last message on a page
+     * @return a cursor pointing just after the given message
+     */
+    public static MessageCursor after(Message message) {
+        return new MessageCursor(message.getTime_posted_epoch(), message.getMessage_id());
+    }
+
+    /**
+     * @return the opaque, url-safe form of this cursor that is handed to clients
+     */
+    public String encode() {
+        String raw = time_posted_epoch + ":" + message_id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param encoded a cursor previously produced by encode()
+     * @return the decoded cursor
+     * @throws IllegalArgumentException if the value was not produced by encode()
+     */
+    public static MessageCursor decode(String encoded) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(encoded), StandardCharsets.UTF_8);
+            int separator = raw.indexOf(':');
+            return new MessageCursor(
+                Long.parseLong(raw.substring(0, separator)),
+                Integer.parseInt(raw.substring(separator + 1))
+            );
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + encoded, e);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        MessageCursor cursor = (MessageCursor) o;
+        return time_posted_epoch == cursor.time_posted_epoch && message_id == cursor.message_id;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(time_posted_epoch) * 31 + message_id;
+    }
+
+    @Override
+    public String toString() {
+        return "MessageCursor{" +
+                "time_posted_epoch=" + time_posted_epoch +
+                ", message_id=" + message_id +
+                '}';
+    }
+}
@@ -0,0 +1,104 @@
+package Model;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * This is a class that models which fields of a message a client asked for, with the fields query parameter
+ * (eg fields=message_id,message_text). The field names are the message table's column names, so the same set
+ * decides both which columns are selected and which properties are written to the response.
+ */
+public class MessageFields {
+    /**
+     * Every field of a message, in column order.
+     */
+    public static final List<String> NAMES = List.of("message_id", "posted_by", "message_text", "time_posted_epoch");
+
+    /**
+     * Every field; what clients get when they don't ask for a projection.
+     */
+    public static final MessageFields ALL = new MessageFields(new LinkedHashSet<>(NAMES));
+
+    private final Set<String> names;
+
+    private MessageFields(Set<String> names) {
+        this.names = Collections.unmodifiableSet(names);
+    }
+
+    /**
+     * @param param a comma separated list of field names, or null
+     * @return the fields named, or ALL if param is null or empty
+     * @throws IllegalArgumentException if a name is not a field of a message
+     */
+    public static MessageFields parse(String param) {
+        if (param == null || param.isBlank()) {
+            return ALL;
+        }
+
+        Set<String> requested = new LinkedHashSet<>();
+        for (String name : param.split(",")) {
+            name = name.trim();
+            if (!NAMES.contains(name)) {
+                throw new IllegalArgumentException("Unknown message field: " + name);
+            }
+            requested.add(name);
+        }
+        return of(requested);
+    }
+
+    /**
+     * @return these fields plus the given ones, eg the columns a page query needs for its cursor
+     */
+    public MessageFields with(String... required) {
+        Set<String> combined = new LinkedHashSet<>(names);
+        Collections.addAll(combined, required);
+        return of(combined);
+    }
+
+    private static MessageFields of(Set<String> requested) {
+        // Keep column order whatever order the client listed them in, so equal sets give equal SQL
+        Set<String> ordered = new LinkedHashSet<>();
+        for (String name : NAMES) {
+            if (requested.contains(name)) {
+                ordered.add(name);
+            }
+        }
+        return ordered.size() == NAMES.size() ? ALL : new MessageFields(ordered);
+    }
+
+    public boolean isAll() {
+        return names.size() == NAMES.size();
+    }
+
+    public boolean contains(String name) {
+        return names.contains(name);
+    }
+
+    public Set<String> getNames() {
+        return names;
+    }
+
+    /**
+     * @return the fields as a SELECT column list, eg "message_id, message_text"
+     */
+    public String columns() {
+        return String.join(", ", names);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof MessageFields && names.equals(((MessageFields) o).names);
+    }
+
+    @Override
+    public int hashCode() {
+        return names.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return columns();
+    }
+}
@@ -0,0 +1,148 @@
+package Service;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+import Model.Account;
+
+/**
+ * An in-memory cache of accounts by account_id and by username, kept in front of AccountDAO by AccountService.
+ *
+ * Ids that were looked up and not found are remembered for a short time too (negative caching), so repeated posts
+ * with an unknown posted_by don't each cost a query. Accounts are never deleted. The writes that have to be
+ * reflected are a new account and a re-hashed password, which put() adds or replaces; it also replaces any
+ * remembered miss for the id.
+ *
+ * Cached Account objects are shared between callers and must not be modified.
+ */
+public class AccountCache {
+
+    /**
+     * Accounts by id. An empty Optional records an id that was not found; those entries expire after the negative
+     * TTL, while found accounts stay until they are evicted for size.
+     */
+    private final Cache<Integer, Optional<Account>> accountsById;
+    private final Cache<String, Account> accountsByUsername;
+
+    /**
+     * @param maximumSize maximum number of entries kept in each of the by-id and by-username caches
+     * @param negativeTtl how long an id that was not found is remembered as missing
+     */
+    public AccountCache(long maximumSize, Duration negativeTtl) {
+        this.accountsById = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfter(new NegativeEntryExpiry(negativeTtl.toNanos()))
+                .recordStats()
+                .build();
+        this.accountsByUsername = Caffeine.newBuilder().maximumSize(maximumSize).recordStats().build();
+    }
+
+    /**
+     * @param accountId the account_id to look up
+     * @param loader loads the account on a miss, returning null if it does not exist; if it throws, nothing is
+     * cached and the exception is passed on
+     * @return the account, or null if it does not exist
+     */
+    public Account getById(int accountId, IntFunction<Account> loader) {
+        Optional<Account> account = accountsById.get(accountId, id -> Optional.ofNullable(loader.apply(id)));
+        return account.orElse(null);
+    }
+
+    /**
+     * @param accountId the account_id to look up
+     * @return the cached account, an empty Optional if the id is cached as missing, or null if the cache
+     * doesn't know about the id
+     */
+    public Optional<Account> getIfPresent(int accountId) {
+        return accountsById.getIfPresent(accountId);
+    }
+
+    /**
+     * @param username the username to look up
+     * @param loader loads the account on a miss; a null result is returned but not cached
+     * @return the account, or null if it does not exist
+     */
+    public Account getByUsername(String username, Function<String, Account> loader) {
+        Account account = accountsByUsername.get(username, loader);
+        if (account != null) {
+            accountsById.put(account.getAccount_id(), Optional.of(account));
+        }
+        return account;
+    }
+
+    /**
+     * @param account an account as it now exists in the database
+     */
+    public void put(Account account) {
+        accountsById.put(account.getAccount_id(), Optional.of(account));
+        accountsByUsername.put(account.getUsername(), account);
+    }
+
+    /**
+     * @param account an account whose cached copy may be stale
+     */
+    public void invalidate(Account account) {
+        accountsById.invalidate(account.getAccount_id());
+        accountsByUsername.invalidate(account.getUsername());
+    }
+
+    /**
+     * @param accountId an account_id that was looked up and not found
+     */
+    public void putMissing(int accountId) {
+        accountsById.asMap().putIfAbsent(accountId, Optional.empty());
+    }
+
+    public void invalidateAll() {
+        accountsById.invalidateAll();
+        accountsByUsername.invalidateAll();
+    }
+
+    /**
+     * @return hit and miss counts of lookups by account_id; a hit on a remembered missing id counts as a hit
+     */
+    public CacheStats idStats() {
+        return accountsById.stats();
+    }
+
+    /**
+     * @return hit and miss counts of lookups by username
+     */
+    public CacheStats usernameStats() {
+        return accountsByUsername.stats();
+    }
+
+
+    /**
+     * Keeps found accounts indefinitely and missing ids for the negative TTL.
+     */
+    private static class NegativeEntryExpiry implements Expiry<Integer, Optional<Account>> {
+        private final long negativeTtlNanos;
+
+        NegativeEntryExpiry(long negativeTtlNanos) {
+            this.negativeTtlNanos = negativeTtlNanos;
+        }
+
+        @Override
+        public long expireAfterCreate(Integer key, Optional<Account> value, long currentTime) {
+            return value.isPresent() ? Long.MAX_VALUE : negativeTtlNanos;
+        }
+
+        @Override
+        public long expireAfterUpdate(Integer key, Optional<Account> value, long currentTime, long currentDuration) {
+            return expireAfterCreate(key, value, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(Integer key, Optional<Account> value, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
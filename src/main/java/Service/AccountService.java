@@ -2,6 +2,18 @@ package Service;
 
 import Model.Account;
 import DAO.AccountDAO;
+import Util.ConfigUtil;
+import Util.CpuExecutor;
+import Util.DatabaseExecutor;
+import Util.PasswordHasher;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 
 /*
@@ -12,15 +24,57 @@ import DAO.AccountDAO;
  */
 
 public class AccountService {
+    /**
+     * Maximum number of accounts kept in the account cache.
+     */
+    private static final long ACCOUNT_CACHE_MAX_SIZE = ConfigUtil.getLong("socialmedia.cache.accounts.maxSize", 100000);
+    /**
+     * How long an account_id that was not found is remembered as missing.
+     */
+    private static final Duration ACCOUNT_CACHE_NEGATIVE_TTL =
+            Duration.ofSeconds(ConfigUtil.getLong("socialmedia.cache.accounts.negativeTtlSeconds", 30));
+    /**
+     * How long a verified password is remembered, so logging in again within this time skips the password hash.
+     * 0 disables it.
+     */
+    private static final Duration CREDENTIAL_CACHE_TTL =
+            Duration.ofSeconds(ConfigUtil.getLong("socialmedia.auth.credentialCacheSeconds", 60));
+
     private AccountDAO accountDAO;
+    private AccountCache accountCache;
+    private CredentialCache credentialCache;
+    private PasswordHasher passwordHasher;
+    /**
+     * Checked against when a username doesn't exist, so that takes as long as a wrong password.
+     */
+    private String unknownUserHash;
+    private DatabaseExecutor databaseExecutor;
+    private CpuExecutor cpuExecutor;
 
     public AccountService() {
-        accountDAO = new AccountDAO();
+        this(new AccountDAO());
     }
 
     // Constructor for the service when an authorDAO is provided.
     public AccountService(AccountDAO accountDAO){
+        this(accountDAO, DatabaseExecutor.getShared());
+    }
+
+    // Constructor for the service when the executor running the *Async variants is provided.
+    public AccountService(AccountDAO accountDAO, DatabaseExecutor databaseExecutor) {
+        this(accountDAO, databaseExecutor, CpuExecutor.getShared());
+    }
+
+    // Constructor for the service when the executor hashing passwords for the *Async variants is provided too.
+    public AccountService(AccountDAO accountDAO, DatabaseExecutor databaseExecutor, CpuExecutor cpuExecutor) {
         this.accountDAO = accountDAO;
+        this.accountCache = new AccountCache(ACCOUNT_CACHE_MAX_SIZE, ACCOUNT_CACHE_NEGATIVE_TTL);
+        this.credentialCache = CREDENTIAL_CACHE_TTL.isZero() ? null
+                : new CredentialCache(ACCOUNT_CACHE_MAX_SIZE, CREDENTIAL_CACHE_TTL);
+        this.passwordHasher = PasswordHasher.fromConfig();
+        this.unknownUserHash = passwordHasher.hash("unknown user");
+        this.databaseExecutor = databaseExecutor;
+        this.cpuExecutor = cpuExecutor;
     }
 
 
@@ -28,46 +82,231 @@ public class AccountService {
      * Uses the AccountDAO to persist an account.
      * Checks for valid username and password.
      * Checks that the account doesn't already exist.
+     * Only a salted hash of the password is stored.
      * 
      * @param account The object of the account to be created
-     * @return the Account object created if successful, or null
+     * @return the Account object created if successful, with the password as given, or null
      */
     public Account addAccount(Account account) {
+        if (!canAdd(account)) {
+            return null;
+        }
+        return insertAccount(account, passwordHasher.hash(account.getPassword()));
+    }
+
+    /**
+     * @param account the account to be created
+     * @return true if its username and password are valid and the username is not taken
+     */
+    private boolean canAdd(Account account) {
 
         // Check for validity of password (must be greater than 4 characters)
         if (account.getPassword().length() <= 4) {
-            return null;
+            return false;
         }
 
         // Check for valid username (not blank)
         if (account.getUsername().length() == 0) {
-            return null;
+            return false;
         }
 
         // Check if the account w/ given username already exists.
         // If we get an Account back, we return null which triggers the Controller to throw a 400.
-        if (accountDAO.getAccountByUsername(account.getUsername()) != null) {
+        return accountCache.getByUsername(account.getUsername(), accountDAO::getAccountByUsername) == null;
+    }
+
+    /**
+     * @param account the account to be created, with the password as given
+     * @param passwordHash the hash of its password to store
+     * @return the Account object created if successful, with the password as given, or null
+     */
+    private Account insertAccount(Account account, String passwordHash) {
+        Account insertedAccount = accountDAO.insertAccount(new Account(account.getUsername(), passwordHash));
+        if (insertedAccount == null) {
             return null;
         }
+        accountCache.put(insertedAccount);
+        return new Account(insertedAccount.getAccount_id(), account.getUsername(), account.getPassword());
+    }
+
 
-        // Checks have passed so we create the account.
-        return accountDAO.insertAccount(account);
+
+    /**
+     * Served from the account cache when possible, including for ids that are known not to exist.
+     * 
+     * @param accountId the ID of the account
+     * @return the Account object if it exists, or null
+     * @throws IllegalStateException if the account could not be read; nothing is cached for the id
+     */
+    public Account getAccountById(int accountId) {
+        return accountCache.getById(accountId, accountDAO::getAccountById);
     }
 
 
 
 
     /**
-     * Uses the AccountDAO to check if the account credentials map to an existing account.
+     * Check that every one of the given account ids belongs to an existing account. Ids the account cache knows
+     * about are answered from it, and all of the others are looked up together in a single query.
+     * 
+     * @param accountIds the account_ids to check
+     * @return true if all of them exist
+     * @throws IllegalStateException if the accounts could not be read; none of them are cached as missing
+     */
+    public boolean allAccountsExist(Collection<Integer> accountIds) {
+        Set<Integer> uncachedIds = new HashSet<>();
+        for (int accountId : new HashSet<>(accountIds)) {
+            Optional<Account> cached = accountCache.getIfPresent(accountId);
+            if (cached == null) {
+                uncachedIds.add(accountId);
+            } else if (cached.isEmpty()) {
+                return false;
+            }
+        }
+
+        if (uncachedIds.isEmpty()) {
+            return true;
+        }
+
+        List<Account> found = accountDAO.getAccountsByIds(uncachedIds);
+        for (Account account : found) {
+            accountCache.put(account);
+            uncachedIds.remove(account.getAccount_id());
+        }
+        for (int missingId : uncachedIds) {
+            accountCache.putMissing(missingId);
+        }
+        return uncachedIds.isEmpty();
+    }
+
+
+
+    /**
+     * Check a username and password. The account is looked up by username (usually in the account cache) and the
+     * password is verified against its stored hash here, not compared in SQL.
+     * 
+     * A password that was verified within the last few seconds is recognised by the credential cache without
+     * hashing it again. A password stored in plaintext (from before hashing) or hashed with an older cost is
+     * re-hashed once it has been verified.
      * 
      * @param account Account object containing username and password to be checked
-     * @return the Account object with account_id if it exists, or null
+     * @return the Account object with account_id and the password as given, or null if they don't match
      */
     public Account loginAccount(Account account) {
-        return accountDAO.getAccountByUsernamePassword(account.getUsername(), account.getPassword());
+        String username = account.getUsername();
+        String password = account.getPassword();
+        if (username == null || password == null) {
+            return null;
+        }
+
+        Account stored = accountCache.getByUsername(username, accountDAO::getAccountByUsername);
+        String hash = checkPassword(stored, username, password);
+        if (hash == null) {
+            return null;
+        }
+        if (!hash.equals(stored.getPassword())) {
+            storeRehash(stored, username, password, hash);
+        }
+        return new Account(stored.getAccount_id(), username, password);
+    }
+
+
+    /**
+     * Verify a password against an account's stored hash, and hash it again with the current cost if the stored
+     * hash is out of date. This is the CPU-bound part of a login; it doesn't touch the database.
+     * 
+     * @param stored the account found for the username, or null if there is none
+     * @return the hash the account should have stored: its current one, or a new one to replace it with; null if
+     * the password doesn't match
+     */
+    private String checkPassword(Account stored, String username, String password) {
+        if (stored == null) {
+            passwordHasher.verify(password, unknownUserHash);
+            return null;
+        }
+        String storedHash = stored.getPassword();
+
+        if (credentialCache != null && credentialCache.matches(username, storedHash, password)) {
+            return storedHash;
+        }
+        if (!passwordHasher.verify(password, storedHash)) {
+            return null;
+        }
+        if (credentialCache != null) {
+            credentialCache.put(username, storedHash, password);
+        }
+        return passwordHasher.needsRehash(storedHash) ? passwordHasher.hash(password) : storedHash;
+    }
+
+
+    /**
+     * Store a new hash of a verified password, made with the current cost.
+     */
+    private void storeRehash(Account stored, String username, String password, String newHash) {
+        if (!accountDAO.updatePassword(stored.getAccount_id(), stored.getPassword(), newHash)) {
+            // Someone else changed it first; the cached account is stale, so reload it next time
+            accountCache.invalidate(stored);
+            return;
+        }
+        accountCache.put(new Account(stored.getAccount_id(), stored.getUsername(), newHash));
+        if (credentialCache != null) {
+            credentialCache.put(username, newHash, password);
+        }
+    }
+
+
+
+    /*
+     * addAccount and loginAccount for the controller's non-blocking handlers. The lookups and writes run on the
+     * database executor and the password hashing on the CPU executor, so a login doesn't hold a database thread
+     * for the ~50 ms of a hash.
+     */
+
+    public CompletableFuture<Account> addAccountAsync(Account account) {
+        return databaseExecutor.supplyAsync(() -> canAdd(account))
+                .thenCompose(valid -> !valid ? CompletableFuture.completedFuture(null)
+                        : cpuExecutor.supplyAsync(() -> passwordHasher.hash(account.getPassword()))
+                                .thenCompose(hash -> databaseExecutor.supplyAsync(() -> insertAccount(account, hash))));
     }
 
+    public CompletableFuture<Account> loginAccountAsync(Account account) {
+        String username = account.getUsername();
+        String password = account.getPassword();
+        if (username == null || password == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return databaseExecutor
+                .supplyAsync(() -> accountCache.getByUsername(username, accountDAO::getAccountByUsername))
+                .thenCompose(stored -> cpuExecutor.supplyAsync(() -> checkPassword(stored, username, password))
+                        .thenCompose(hash -> {
+                            if (hash == null) {
+                                return CompletableFuture.completedFuture(null);
+                            }
+                            Account loggedIn = new Account(stored.getAccount_id(), username, password);
+                            if (hash.equals(stored.getPassword())) {
+                                return CompletableFuture.completedFuture(loggedIn);
+                            }
+                            return databaseExecutor.supplyAsync(() -> {
+                                storeRehash(stored, username, password, hash);
+                                return loggedIn;
+                            });
+                        }));
+    }
 
 
 
+    /**
+     * @return the cache in front of AccountDAO, for reading its statistics
+     */
+    public AccountCache getAccountCache() {
+        return accountCache;
+    }
+
+    /**
+     * @return the cache of recently verified passwords, for reading its statistics; null if disabled
+     */
+    public CredentialCache getCredentialCache() {
+        return credentialCache;
+    }
 }
@@ -0,0 +1,93 @@
+package Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.time.Duration;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+/**
+ * Remembers for a short time which password was last verified for a username, so a client that logs in again soon
+ * after is checked with one SHA-256 instead of the slow password hash.
+ *
+ * The password itself is never kept: each entry holds a SHA-256 of the password keyed with a random secret that only
+ * lives in this instance's memory, together with the stored hash it was verified against. If the stored hash
+ * changes (eg it is re-hashed with a new cost), the entry no longer matches.
+ */
+public class CredentialCache {
+
+    private final Cache<String, Entry> cache;
+    private final byte[] secret = new byte[32];
+
+    /**
+     * @param maximumSize maximum number of usernames remembered
+     * @param ttl how long after a successful login the password is remembered
+     */
+    public CredentialCache(long maximumSize, Duration ttl) {
+        new SecureRandom().nextBytes(secret);
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * @param username the username logging in
+     * @param storedHash the account's stored password hash
+     * @param password the password given
+     * @return true if this password was verified against this stored hash within the TTL
+     */
+    public boolean matches(String username, String storedHash, String password) {
+        Entry entry = cache.getIfPresent(username);
+        return entry != null && entry.storedHash.equals(storedHash)
+                && MessageDigest.isEqual(entry.digest, digest(password));
+    }
+
+    /**
+     * @param username a username whose password was just verified
+     * @param storedHash the stored hash it was verified against
+     * @param password the password that was verified
+     */
+    public void put(String username, String storedHash, String password) {
+        cache.put(username, new Entry(storedHash, digest(password)));
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    /**
+     * @return hit and miss counts of lookups; a hit whose password doesn't match still counts as a hit
+     */
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+
+    private byte[] digest(String password) {
+        try {
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            sha256.update(secret);
+            return sha256.digest(password.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java runtime has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+
+    private static class Entry {
+        final String storedHash;
+        final byte[] digest;
+
+        Entry(String storedHash, byte[] digest) {
+            this.storedHash = storedHash;
+            this.digest = digest;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package Service;
+
+import java.util.function.IntFunction;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+import Model.Message;
+
+/**
+ * An in-memory cache of messages keyed by message_id, kept in front of MessageDAO by MessageService.
+ *
+ * The cache is bounded by an estimate of the memory its messages take, and uses Caffeine's W-TinyLFU eviction, so
+ * frequently read messages stay cached even when a burst of one-off reads passes through. MessageService keeps it
+ * coherent by writing through on every insert, and invalidating on every update and delete.
+ *
+ * Cached Message objects are shared between callers and must not be modified.
+ */
+public class MessageCache {
+
+    /**
+     * Rough per-entry overhead in bytes of the Message object, its String and the cache entry itself.
+     */
+    private static final int ENTRY_OVERHEAD = 120;
+
+    private final Cache<Integer, Message> cache;
+
+    /**
+     * @param maximumWeightBytes approximate upper bound on the memory used by cached messages
+     */
+    public MessageCache(long maximumWeightBytes) {
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maximumWeightBytes)
+                .weigher((Integer id, Message message) -> ENTRY_OVERHEAD + 2 * message.getMessage_text().length())
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * @param messageId the message_id to look up
+     * @param loader loads the message on a miss; a null result is returned but not cached
+     * @return the message, or null if it does not exist
+     */
+    public Message get(int messageId, IntFunction<Message> loader) {
+        return cache.get(messageId, id -> loader.apply(id));
+    }
+
+    /**
+     * Misses are not loaded here: MessageService loads them in one query and puts those that no update or delete
+     * raced with, which Caffeine's bulk getAll() can't guard against.
+     *
+     * @param messageId the message_id to look up
+     * @return the cached message, or null if it isn't cached
+     */
+    public Message getIfPresent(int messageId) {
+        return cache.getIfPresent(messageId);
+    }
+
+    /**
+     * @param message a message as it now exists in the database
+     */
+    public void put(Message message) {
+        cache.put(message.getMessage_id(), message);
+    }
+
+    /**
+     * @param messageId the message_id of a message that no longer exists, or whose cached copy is stale
+     */
+    public void invalidate(int messageId) {
+        cache.invalidate(messageId);
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    /**
+     * @return hit, miss, load and eviction counts since the cache was created
+     */
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    /**
+     * @return the approximate number of cached messages
+     */
+    public long size() {
+        return cache.estimatedSize();
+    }
+}
@@ -0,0 +1,237 @@
+package Service;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+import Model.Message;
+import Util.JsonUtil;
+
+/**
+ * Publishes message created, updated and deleted events to live subscribers, eg the clients of GET /events.
+ * MessageService publishes an event after every change it makes.
+ *
+ * Events are numbered from 1 in the order they are published. The most recent events are kept, so a subscriber
+ * that reconnects with the id of the last event it saw is first sent the ones it missed. If some of those are no
+ * longer kept, the subscription says so (see Subscription.hasMissedEvents()) and the client should reload.
+ *
+ * publish() never waits for a subscriber. Each subscriber has a bounded buffer; one that falls so far behind that
+ * its buffer fills is dropped, and can reconnect from its last event id once it has caught up.
+ *
+ * Listeners (see addListener()) are different: they are called synchronously by publish(), for in-process consumers
+ * such as MessageReadModel that must see every change, in order, before the writer's request completes.
+ */
+public class MessageEventBus {
+
+    public static final String CREATED = "created";
+    public static final String UPDATED = "updated";
+    public static final String DELETED = "deleted";
+
+    private final int historySize;
+    private final int bufferSize;
+    private final ArrayDeque<Event> history;
+    private final Set<Subscription> subscriptions = new CopyOnWriteArraySet<>();
+    private final List<Consumer<Event>> listeners = new CopyOnWriteArrayList<>();
+    private long lastEventId;
+
+    private final LongAdder droppedSubscriptions = new LongAdder();
+
+    /**
+     * @param historySize how many recent events are kept for subscribers that reconnect
+     * @param bufferSize how many events a subscriber may fall behind before it is dropped
+     */
+    public MessageEventBus(int historySize, int bufferSize) {
+        this.historySize = Math.max(0, historySize);
+        this.bufferSize = Math.max(1, bufferSize);
+        this.history = new ArrayDeque<>(this.historySize);
+    }
+
+
+    /**
+     * @param type CREATED, UPDATED or DELETED
+     * @param message the message as it is after the change, or as it was before it was deleted
+     */
+    public void publish(String type, Message message) {
+        String json;
+        try {
+            json = JsonUtil.MESSAGE_WRITER.writeValueAsString(message);
+        } catch (JsonProcessingException e) {
+            System.out.println(e.getMessage());
+            return;
+        }
+
+        // Numbering, history and delivery happen together so every subscriber sees events in id order, and one
+        // that subscribes concurrently gets each event exactly once: from the history or from delivery
+        synchronized (this) {
+            Event event = new Event(++lastEventId, type, message, json);
+            if (historySize > 0) {
+                if (history.size() == historySize) {
+                    history.removeFirst();
+                }
+                history.addLast(event);
+            }
+            for (Consumer<Event> listener : listeners) {
+                listener.accept(event);
+            }
+            for (Subscription subscription : subscriptions) {
+                subscription.offer(event);
+            }
+        }
+    }
+
+
+    /**
+     * Call the listener with every event published from now on, in order, on the publishing thread. It must be quick
+     * and must not throw, as publish() holds the bus's lock while it runs.
+     */
+    public void addListener(Consumer<Event> listener) {
+        listeners.add(listener);
+    }
+
+
+    /**
+     * @param accountId only events for messages posted by this account are delivered, or null for all messages
+     * @param lastEventId the id of the last event the subscriber saw; the kept events after it are delivered
+     * first. -1 to start with the next event published.
+     * @return the new subscription, to be closed when the subscriber goes away
+     */
+    public synchronized Subscription subscribe(Integer accountId, long lastEventId) {
+        Subscription subscription = new Subscription(accountId, this.lastEventId);
+        if (lastEventId >= 0) {
+            Event oldest = history.peekFirst();
+            long firstKept = oldest == null ? this.lastEventId + 1 : oldest.id;
+            // Ids start again from 1 when the application restarts, so an id from the future also means a gap
+            subscription.missedEvents = lastEventId + 1 < firstKept || lastEventId > this.lastEventId;
+            if (!subscription.missedEvents) {
+                for (Event event : history) {
+                    if (event.id > lastEventId) {
+                        subscription.offer(event);
+                    }
+                }
+            }
+        }
+        if (!subscription.overflowed) {
+            subscriptions.add(subscription);
+        }
+        return subscription;
+    }
+
+
+    /**
+     * @return the number of subscriptions currently receiving events
+     */
+    public int getSubscriptionCount() {
+        return subscriptions.size();
+    }
+
+    /**
+     * @return the number of subscriptions dropped because their buffer filled up
+     */
+    public long getDroppedSubscriptions() {
+        return droppedSubscriptions.sum();
+    }
+
+    /**
+     * @return the id of the most recently published event, 0 if there hasn't been one
+     */
+    public synchronized long getLastEventId() {
+        return lastEventId;
+    }
+
+
+    /**
+     * One published event. The message must not be modified.
+     */
+    public static final class Event {
+        public final long id;
+        public final String type;
+        public final Message message;
+        /**
+         * The message as JSON, serialized once for every subscriber.
+         */
+        public final String json;
+
+        Event(long id, String type, Message message, String json) {
+            this.id = id;
+            this.type = type;
+            this.message = message;
+            this.json = json;
+        }
+    }
+
+
+    /**
+     * The events waiting for one subscriber.
+     */
+    public final class Subscription implements AutoCloseable {
+        private final Integer accountId;
+        private final long startEventId;
+        private final BlockingQueue<Event> buffer = new ArrayBlockingQueue<>(bufferSize);
+        private volatile boolean overflowed;
+        private boolean missedEvents;
+
+        private Subscription(Integer accountId, long startEventId) {
+            this.accountId = accountId;
+            this.startEventId = startEventId;
+        }
+
+        /**
+         * @param timeout how long to wait for an event, in milliseconds
+         * @return the next event, or null if none arrived in time or the subscription was dropped
+         */
+        public Event poll(long timeout) throws InterruptedException {
+            if (overflowed) {
+                return null;
+            }
+            return buffer.poll(timeout, TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * @return true if the subscriber fell too far behind and no longer receives events
+         */
+        public boolean isDropped() {
+            return overflowed;
+        }
+
+        /**
+         * @return true if some events after the requested lastEventId were no longer kept, so the subscriber
+         * can't rely on having seen every change
+         */
+        public boolean hasMissedEvents() {
+            return missedEvents;
+        }
+
+        /**
+         * @return the id of the last event published before the subscription started; later events are delivered
+         */
+        public long getStartEventId() {
+            return startEventId;
+        }
+
+        @Override
+        public void close() {
+            subscriptions.remove(this);
+        }
+
+        private void offer(Event event) {
+            if (overflowed || (accountId != null && accountId != event.message.getPosted_by())) {
+                return;
+            }
+            if (!buffer.offer(event)) {
+                overflowed = true;
+                buffer.clear();
+                subscriptions.remove(this);
+                droppedSubscriptions.increment();
+            }
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package Service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import DAO.MessageDAO;
+import Model.Message;
+import Model.MessageCursor;
+import Model.MessageFields;
+
+/**
+ * Every message, held in memory and indexed for the reads the API serves, so that with socialmedia.readModel.enabled
+ * the GETs don't touch H2 (and don't wait behind its writes) at all.
+ *
+ * It is built from the database once, by load(), and then kept up to date by applying the message change events
+ * MessageService publishes. Events are applied synchronously inside MessageEventBus.publish(), in the order they
+ * were published, so a write is visible here before the request that made it gets its response. Changes made to
+ * the database by anything other than MessageService are not seen.
+ *
+ * MessageService publishes the updates and the delete of a message in the order they were committed (it holds a
+ * lock on the message from the DAO call to the publish), but a message's creation can be published after them: the
+ * id is only known once the insert has committed, and another request can update or delete it straight away.
+ * apply() therefore never lets a CREATED event replace a newer version of the message, or bring back one that was
+ * deleted.
+ *
+ * All indexes are concurrent skip lists: readers never block, and a message being replaced is swapped in one put().
+ * A reader iterating while a message is created or deleted may or may not see it, as with a READ COMMITTED query.
+ */
+public class MessageReadModel {
+
+    /**
+     * Newest first, by time_posted_epoch then message_id, the order of account timeline pages.
+     */
+    private static final Comparator<MessageCursor> NEWEST_FIRST = Comparator
+            .comparingLong((MessageCursor cursor) -> cursor.time_posted_epoch)
+            .thenComparingInt(cursor -> cursor.message_id)
+            .reversed();
+
+    private final ConcurrentSkipListMap<Integer, Message> byId = new ConcurrentSkipListMap<>();
+    private final Map<Integer, AccountMessages> byAccount = new ConcurrentHashMap<>();
+    /**
+     * Messages that were updated, or deleted, before the event of their creation was applied. That event is
+     * skipped when it arrives, and takes the id out of the set. Only touched by apply(), under its lock.
+     */
+    private final Set<Integer> updatedBeforeCreated = new HashSet<>();
+    private final Set<Integer> deletedBeforeCreated = new HashSet<>();
+
+
+    /**
+     * Replace the contents with every message in the database.
+     *
+     * @param fetchSize rows fetched per round trip while reading
+     * @return the number of messages loaded
+     */
+    public int load(MessageDAO messageDAO, int fetchSize) throws IOException {
+        byId.clear();
+        byAccount.clear();
+        messageDAO.streamAllMessages(fetchSize, MessageFields.ALL, this::put);
+        return byId.size();
+    }
+
+    /**
+     * Apply a change published on the MessageEventBus.
+     */
+    public synchronized void apply(MessageEventBus.Event event) {
+        int messageId = event.message.message_id;
+        if (MessageEventBus.CREATED.equals(event.type)) {
+            boolean superseded = updatedBeforeCreated.remove(messageId);
+            boolean deleted = deletedBeforeCreated.remove(messageId);
+            if (!superseded && !deleted) {
+                put(event.message);
+            }
+        } else if (MessageEventBus.UPDATED.equals(event.type)) {
+            if (!byId.containsKey(messageId)) {
+                updatedBeforeCreated.add(messageId);
+            }
+            put(event.message);
+        } else {
+            if (!byId.containsKey(messageId) || updatedBeforeCreated.remove(messageId)) {
+                deletedBeforeCreated.add(messageId);
+            }
+            remove(event.message);
+        }
+    }
+
+
+    /**
+     * Add a message, or replace the one with the same message_id.
+     */
+    public void put(Message message) {
+        Message previous = byId.put(message.message_id, message);
+        if (previous != null && (previous.posted_by != message.posted_by
+                || previous.time_posted_epoch != message.time_posted_epoch)) {
+            accountMessages(previous.posted_by).remove(previous);
+        }
+        accountMessages(message.posted_by).put(message);
+    }
+
+    public void remove(Message message) {
+        Message removed = byId.remove(message.message_id);
+        if (removed != null) {
+            accountMessages(removed.posted_by).remove(removed);
+        }
+    }
+
+
+    /**
+     * @return the message, or null if there is none with this id
+     */
+    public Message getMessageById(int messageId) {
+        return byId.get(messageId);
+    }
+
+    /**
+     * @return every message, in message_id order
+     */
+    public List<Message> getAllMessages() {
+        return new ArrayList<>(byId.values());
+    }
+
+    /**
+     * Pass every message to the handler, in message_id order.
+     */
+    public void streamAllMessages(MessageDAO.MessageHandler handler) throws IOException {
+        for (Message message : byId.values()) {
+            handler.handle(message);
+        }
+    }
+
+    /**
+     * @return at most limit messages with a message_id greater than afterMessageId, in message_id order
+     */
+    public List<Message> getMessagesAfter(int afterMessageId, int limit) {
+        List<Message> messages = new ArrayList<>(Math.min(limit, 1024));
+        for (Message message : byId.tailMap(afterMessageId, false).values()) {
+            if (messages.size() == limit) {
+                break;
+            }
+            messages.add(message);
+        }
+        return messages;
+    }
+
+    /**
+     * @return the messages posted by the account, in message_id order
+     */
+    public List<Message> getAllMessagesByAccountId(int accountId) {
+        AccountMessages account = byAccount.get(accountId);
+        return account == null ? new ArrayList<>() : new ArrayList<>(account.byId.values());
+    }
+
+    /**
+     * @param cursor the position of the last message of the previous page, or null for the first page
+     * @return at most limit messages posted by the account, newest first, starting after the cursor
+     */
+    public List<Message> getMessagesByAccountIdBefore(int accountId, MessageCursor cursor, int limit) {
+        List<Message> messages = new ArrayList<>();
+        AccountMessages account = byAccount.get(accountId);
+        if (account == null) {
+            return messages;
+        }
+        NavigableMap<MessageCursor, Message> page = cursor == null
+                ? account.newestFirst
+                : account.newestFirst.tailMap(cursor, false);
+        for (Message message : page.values()) {
+            if (messages.size() == limit) {
+                break;
+            }
+            messages.add(message);
+        }
+        return messages;
+    }
+
+    /**
+     * @return the number of messages held
+     */
+    public int size() {
+        return byId.size();
+    }
+
+
+    private AccountMessages accountMessages(int accountId) {
+        return byAccount.computeIfAbsent(accountId, id -> new AccountMessages());
+    }
+
+
+    /**
+     * The messages of one account, by message_id and newest first.
+     */
+    private static class AccountMessages {
+        final ConcurrentSkipListMap<Integer, Message> byId = new ConcurrentSkipListMap<>();
+        final ConcurrentSkipListMap<MessageCursor, Message> newestFirst = new ConcurrentSkipListMap<>(NEWEST_FIRST);
+
+        void put(Message message) {
+            byId.put(message.message_id, message);
+            newestFirst.put(MessageCursor.after(message), message);
+        }
+
+        void remove(Message message) {
+            byId.remove(message.message_id);
+            newestFirst.remove(MessageCursor.after(message));
+        }
+    }
+}
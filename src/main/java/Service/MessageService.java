@@ -1,34 +1,225 @@
 package Service;
 
 import Model.Message;
-import DAO.AccountDAO;
+import Model.MessageCursor;
+import Model.MessageFields;
+import Model.MessagePage;
 import DAO.MessageDAO;
+import Util.ConfigUtil;
+import Util.DatabaseExecutor;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 
 public class MessageService {
+    /**
+     * Number of rows the JDBC driver fetches per round trip when streaming all messages.
+     */
+    private static final int STREAM_FETCH_SIZE = ConfigUtil.getInt("socialmedia.jdbc.fetchSize", 500);
+    /**
+     * Number of messages streamAllMessages reads with each query. The connection goes back to the pool between
+     * chunks, so a client that reads slowly holds one only while a chunk is read, not while it is written.
+     */
+    private static final int STREAM_CHUNK_SIZE = Math.max(1, ConfigUtil.getInt("socialmedia.stream.chunkSize", 500));
+    /**
+     * Largest number of messages accepted by createMessages.
+     */
+    private static final int MAX_BATCH_SIZE = ConfigUtil.getInt("socialmedia.batch.maxMessages", 1000);
+    /**
+     * Approximate memory budget of the message cache in bytes. 0 disables caching.
+     */
+    private static final long MESSAGE_CACHE_MAX_WEIGHT =
+            ConfigUtil.getLong("socialmedia.cache.messages.maxWeightBytes", 32L * 1024 * 1024);
+    /**
+     * Most messages held across all cached account timelines (12 bytes each). 0 disables the timeline cache.
+     */
+    private static final long TIMELINE_CACHE_MAX_MESSAGES =
+            ConfigUtil.getLong("socialmedia.cache.timelines.maxMessages", 1_000_000);
+    /**
+     * Accounts that have posted more messages than this are read from the database instead.
+     */
+    private static final int TIMELINE_CACHE_MAX_PER_ACCOUNT =
+            ConfigUtil.getInt("socialmedia.cache.timelines.maxPerAccount", 10_000);
+    /**
+     * How many recent message events are kept for live subscribers that reconnect.
+     */
+    private static final int EVENT_HISTORY_SIZE = ConfigUtil.getInt("socialmedia.events.history", 1000);
+    /**
+     * How many events a live subscriber may fall behind before it is disconnected.
+     */
+    private static final int EVENT_SUBSCRIBER_BUFFER = ConfigUtil.getInt("socialmedia.events.subscriberBuffer", 256);
+    /**
+     * Size of the off-heap message store's buffer, when socialmedia.offHeap.enabled.
+     */
+    private static final int OFF_HEAP_CAPACITY_BYTES =
+            ConfigUtil.getInt("socialmedia.offHeap.capacityBytes", 64 * 1024 * 1024);
+    /**
+     * Number of locks the messages are hashed into, see lockFor().
+     */
+    private static final int MESSAGE_LOCK_STRIPES = 256;
+    /**
+     * The columns a timeline is built from.
+     */
+    private static final MessageFields TIMELINE_FIELDS = MessageFields.parse("message_id,time_posted_epoch");
+
+    /**
+     * Whether createMessage queues inserts for a MessageWriteCoalescer (group commit) instead of inserting directly.
+     */
+    private static final boolean GROUP_COMMIT_ENABLED = ConfigUtil.getBoolean("socialmedia.groupCommit.enabled", false);
+    private static final int GROUP_COMMIT_MAX_BATCH_SIZE = ConfigUtil.getInt("socialmedia.groupCommit.maxBatchSize", 64);
+    private static final long GROUP_COMMIT_MAX_LINGER_MILLIS = ConfigUtil.getLong("socialmedia.groupCommit.maxLingerMillis", 2);
+
     private MessageDAO messageDAO;
-    private AccountDAO accountDAO;
+    private AccountService accountService;
+    private MessageCache messageCache;
+    private TimelineVersions timelineVersions;
+    private TimelineCache timelineCache;
+    private MessageEventBus eventBus;
+    private MessageWriteCoalescer writeCoalescer;
+    private DatabaseExecutor databaseExecutor;
+    private MessageReadModel readModel;
+    private OffHeapMessageStore messageStore;
+    private final ReentrantLock[] messageLocks = new ReentrantLock[MESSAGE_LOCK_STRIPES];
+    /**
+     * Count of the updates and deletes made under each of messageLocks, see holdIfUnchanged().
+     */
+    private final AtomicLongArray messageWrites = new AtomicLongArray(MESSAGE_LOCK_STRIPES);
 
     public MessageService() {
-        messageDAO = new MessageDAO();
-        accountDAO = new AccountDAO();
+        this(new MessageDAO(), new AccountService());
+    }
+
+    // Constructor for the service when the DAO is provided. The AccountService is shared with the controller so
+    // both services see the same account cache.
+    public MessageService(MessageDAO messageDAO, AccountService accountService) {
+        this(messageDAO, accountService, GROUP_COMMIT_ENABLED
+                ? new MessageWriteCoalescer(messageDAO, GROUP_COMMIT_MAX_BATCH_SIZE, GROUP_COMMIT_MAX_LINGER_MILLIS)
+                : null);
+    }
+
+    // Constructor for the service when the group commit writer is provided, or null to insert directly.
+    public MessageService(MessageDAO messageDAO, AccountService accountService, MessageWriteCoalescer writeCoalescer) {
+        this(messageDAO, accountService, writeCoalescer, DatabaseExecutor.getShared());
+    }
+
+    // Constructor for the service when the executor running the *Async variants is provided.
+    public MessageService(MessageDAO messageDAO, AccountService accountService, MessageWriteCoalescer writeCoalescer,
+            DatabaseExecutor databaseExecutor) {
+        this.messageDAO = messageDAO;
+        this.accountService = accountService;
+        this.messageCache = new MessageCache(MESSAGE_CACHE_MAX_WEIGHT);
+        this.timelineVersions = new TimelineVersions();
+        this.timelineCache = TIMELINE_CACHE_MAX_MESSAGES > 0
+                ? new TimelineCache(TIMELINE_CACHE_MAX_MESSAGES, TIMELINE_CACHE_MAX_PER_ACCOUNT)
+                : null;
+        this.eventBus = new MessageEventBus(EVENT_HISTORY_SIZE, EVENT_SUBSCRIBER_BUFFER);
+        this.writeCoalescer = writeCoalescer;
+        this.databaseExecutor = databaseExecutor;
+        for (int i = 0; i < messageLocks.length; i++) {
+            messageLocks[i] = new ReentrantLock();
+        }
+        // Whether the GETs are served from an in-memory MessageReadModel instead of the database. Read per service
+        // rather than once per class, so tests can build services with and without it.
+        if (ConfigUtil.getBoolean("socialmedia.readModel.enabled", false)) {
+            this.readModel = loadReadModel();
+        } else if (ConfigUtil.getBoolean("socialmedia.offHeap.enabled", false)) {
+            // Holds message bodies in place of messageCache; the read model already holds every message
+            this.messageStore = new OffHeapMessageStore(OFF_HEAP_CAPACITY_BYTES);
+        }
     }
 
     public Message createMessage(Message message) {
+        if (!canCreate(message)) {
+            return null;
+        }
+
+        Message insertedMessage = writeCoalescer != null
+                ? writeCoalescer.submit(message).join()
+                : messageDAO.insertMessage(message);
+        return afterCreate(insertedMessage);
+    }
+
+    /**
+     * @param message a message to be created
+     * @return true if its text is valid and it is posted by an existing account
+     */
+    private boolean canCreate(Message message) {
 
         // Ensure message_text is not blank, and is not over 255 characters
-        if (message.message_text.length() <= 0 || message.message_text.length() > 255) {
+        if (!isValidMessageText(message.message_text)) {
+            return false;
+        }
+
+        // Ensure posted_by refers to a real, existing user (usually answered by the account cache)
+        return accountService.getAccountById(message.posted_by) != null;
+    }
+
+    /**
+     * @param insertedMessage the message as inserted, or null if the insert failed
+     * @return insertedMessage, once it is cached and published
+     */
+    private Message afterCreate(Message insertedMessage) {
+        if (insertedMessage != null) {
+            afterInsert(insertedMessage);
+        }
+        return insertedMessage;
+    }
+
+    /**
+     * Create several messages at once. The same rules as createMessage apply to every message, the accounts they
+     * are posted by are checked together, and the messages are inserted in a single transaction: either all of
+     * them are created or none are.
+     * 
+     * @param messages the messages to create
+     * @return the created messages with their message_ids, in the same order, or null if any message is invalid
+     */
+    public List<Message> createMessages(List<Message> messages) {
+        if (messages.size() > MAX_BATCH_SIZE) {
             return null;
         }
 
-        // Ensure posted_by refers to a real, existing user
-        
-        if (accountDAO.getAccountById(message.posted_by) == null) {
+        Set<Integer> accountIds = new HashSet<>();
+        for (Message message : messages) {
+            if (message == null || !isValidMessageText(message.message_text)) {
+                return null;
+            }
+            accountIds.add(message.posted_by);
+        }
+
+        // Ensure every posted_by refers to a real, existing user
+        if (!accountService.allAccountsExist(accountIds)) {
             return null;
         }
 
-        return messageDAO.insertMessage(message);
+        List<Message> insertedMessages = messageDAO.insertMessages(messages);
+        if (insertedMessages != null) {
+            for (Message insertedMessage : insertedMessages) {
+                afterInsert(insertedMessage);
+            }
+        }
+        return insertedMessages;
+    }
+
+
+    /**
+     * @param messageText
+     * @return true if the text is not blank and not over 255 characters
+     */
+    private boolean isValidMessageText(String messageText) {
+        return messageText != null && messageText.length() > 0 && messageText.length() <= 255;
     }
 
     /**
@@ -36,16 +227,118 @@ public class MessageService {
      * @return List of all messages retrieved by the DAO
      */
     public List<Message> getAllMessages() {
+        if (readModel != null) {
+            return readModel.getAllMessages();
+        }
         return messageDAO.getAllMessages();
     }
 
 
     /**
+     * Pass every message to the handler as it is read, without holding the full list in memory.
+     *
+     * @param handler called once per message, in message_id order
+     * @throws IOException if the handler or the query fails, possibly after some messages were handled
+     */
+    public void streamAllMessages(MessageDAO.MessageHandler handler) throws IOException {
+        streamAllMessages(MessageFields.ALL, handler);
+    }
+
+    /**
+     * Without the read model, the messages are read STREAM_CHUNK_SIZE at a time, each chunk a keyset query run on
+     * the database executor; the handler is given a chunk once its connection is back in the pool. A message
+     * changed while the list is being streamed is sent as it was when its chunk was read.
+     *
+     * @param fields the fields to read; the rest are left at their defaults
+     * @param handler called once per message, in message_id order
+     * @throws IOException if the handler or the query fails, possibly after some messages were handled
+     * @throws RejectedExecutionException if the database executor's queue is full, possibly after some messages
+     * were handled
+     */
+    public void streamAllMessages(MessageFields fields, MessageDAO.MessageHandler handler) throws IOException {
+        if (readModel != null) {
+            // Every field is already in memory; the caller writes only the ones it asked for
+            readModel.streamAllMessages(handler);
+            return;
+        }
+
+        int afterMessageId = 0;
+        List<Message> chunk;
+        do {
+            chunk = readChunk(afterMessageId, fields);
+            for (Message message : chunk) {
+                handler.handle(message);
+            }
+            if (!chunk.isEmpty()) {
+                afterMessageId = chunk.get(chunk.size() - 1).message_id;
+            }
+        } while (chunk.size() == STREAM_CHUNK_SIZE);
+    }
+
+    /**
+     * @return the next chunk of messages for streamAllMessages, read on the database executor
+     */
+    private List<Message> readChunk(int afterMessageId, MessageFields fields) throws IOException {
+        try {
+            return databaseExecutor.supplyAsync(() -> {
+                try {
+                    return messageDAO.getMessagesAfterOrThrow(afterMessageId, STREAM_CHUNK_SIZE, fields);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            if (e.getCause() instanceof RejectedExecutionException) {
+                throw (RejectedExecutionException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+
+    /**
+     * @param cursor where the previous page ended, or null for the first page
+     * @param limit the maximum number of messages on the page
+     * @return one page of all messages, in message_id order
+     */
+    public MessagePage getMessagesPage(MessageCursor cursor, int limit) {
+        return getMessagesPage(cursor, limit, MessageFields.ALL);
+    }
+
+    /**
+     * @param cursor where the previous page ended, or null for the first page
+     * @param limit the maximum number of messages on the page
+     * @param fields the fields to read; the rest are left at their defaults
+     * @return one page of all messages, in message_id order
+     */
+    public MessagePage getMessagesPage(MessageCursor cursor, int limit, MessageFields fields) {
+        int afterMessageId = cursor == null ? 0 : cursor.message_id;
+        if (readModel != null) {
+            return toPage(readModel.getMessagesAfter(afterMessageId, limit + 1), limit);
+        }
+        // Ask for one extra row to find out whether there is a next page
+        return toPage(messageDAO.getMessagesAfter(afterMessageId, limit + 1, fields), limit);
+    }
+
+
+    /**
+     * Served from the read model or the off-heap store if enabled, otherwise from the message cache when possible.
+     * 
      * @param messageId
      * @return The message if it exists.
      */
     public Message getMessageById(int messageId) {
-        return messageDAO.getMessageById(messageId);
+        if (readModel != null) {
+            return readModel.getMessageById(messageId);
+        }
+        if (messageStore != null) {
+            Message message = messageStore.get(messageId);
+            return message != null ? message : loadIntoStore(messageId);
+        }
+        return messageCache.get(messageId, messageDAO::getMessageById);
     }
 
 
@@ -55,15 +348,29 @@ public class MessageService {
      * @return The deleted message if it existed, otherwise null
      */
     public Message deleteMessageById(int messageId) {
-        // Check if the message exists and store for returning
-        Message message = messageDAO.getMessageById(messageId);
-        if (message == null) {
-            return null;
+        ReentrantLock lock = lockFor(messageId);
+        lock.lock();
+        try {
+            // The DAO deletes and returns the deleted row in one statement, so there is no separate existence check
+            Message message = messageDAO.deleteMessageById(messageId);
+            if (messageStore != null) {
+                messageStore.remove(messageId);
+            } else {
+                messageCache.invalidate(messageId);
+            }
+            messageWrites.incrementAndGet(stripe(messageId));
+            if (message != null) {
+                if (timelineCache != null) {
+                    timelineCache.remove(message);
+                }
+                eventBus.publish(MessageEventBus.DELETED, message);
+                // Only once the read model has applied the change, so a new ETag never goes out with the old body
+                timelineVersions.bump(message.posted_by);
+            }
+            return message;
+        } finally {
+            lock.unlock();
         }
-
-        // Delete the message and return the object
-        messageDAO.deleteMessageById(messageId);
-        return message;
     }
 
 
@@ -76,30 +383,457 @@ public class MessageService {
      */
     public Message updateMessageById(int messageId, String messageText) {
         // Check if message text is valid
-        int messageLen = messageText.length();
-        if (messageLen <= 0 || messageLen > 255) {
+        if (!isValidMessageText(messageText)) {
             return null;
         }
 
-        // Check if the message exists
-        Message existingMessage = messageDAO.getMessageById(messageId);
-        if (existingMessage == null) {
-            return null;
+        ReentrantLock lock = lockFor(messageId);
+        lock.lock();
+        try {
+            // Update the message and get the new row back in one statement; null if the message doesn't exist
+            Message updatedMessage = messageDAO.updateMessageById(messageId, messageText);
+            if (updatedMessage != null) {
+                // Only the text changed, so the cached timeline still holds; its readers get the text from
+                // messageCache. Invalidated rather than replaced: a put could land after a later update's or a
+                // delete's, and would then keep the stale row.
+                if (messageStore != null) {
+                    messageStore.put(updatedMessage);
+                } else {
+                    messageCache.invalidate(messageId);
+                }
+                messageWrites.incrementAndGet(stripe(messageId));
+                eventBus.publish(MessageEventBus.UPDATED, updatedMessage);
+                timelineVersions.bump(updatedMessage.posted_by);
+            }
+            return updatedMessage;
+        } finally {
+            lock.unlock();
         }
+    }
+
+
+    /**
+     * Updates and deletes hold the lock of their message from the DAO call until the change is published, so the
+     * read model and the off-heap store are given a message's changes in the order they were committed. Messages
+     * share locks by stripe; two writes to messages in the same stripe just wait for each other.
+     * They are ReentrantLocks rather than monitors, like OffHeapMessageStore's: a virtual thread blocked on JDBC
+     * inside a synchronized block pins its carrier thread.
+     */
+    private ReentrantLock lockFor(int messageId) {
+        return messageLocks[stripe(messageId)];
+    }
 
-        // Update the existing message and return the new object
-        messageDAO.updateMessageById(messageId, messageText);
-        return new Message(
-            messageId,
-            existingMessage.getPosted_by(),
-            messageText,
-            existingMessage.getTime_posted_epoch()
-        );
+    private int stripe(int messageId) {
+        return Math.floorMod(messageId, MESSAGE_LOCK_STRIPES);
     }
 
 
 
+    /**
+     * @return the change counters of account timelines, for conditional GETs
+     */
+    public TimelineVersions getTimelineVersions() {
+        return timelineVersions;
+    }
+
+
+    /**
+     * @return the cache in front of MessageDAO.getMessageById, for reading its statistics
+     */
+    public MessageCache getMessageCache() {
+        return messageCache;
+    }
+
+    /**
+     * @return the live feed of message changes made through this service
+     */
+    public MessageEventBus getEventBus() {
+        return eventBus;
+    }
+
+    /**
+     * @return the cache of account timelines, for reading its statistics; null if disabled
+     */
+    public TimelineCache getTimelineCache() {
+        return timelineCache;
+    }
+
+    /**
+     * @return the off-heap store of recently written messages; null if disabled
+     */
+    public OffHeapMessageStore getMessageStore() {
+        return messageStore;
+    }
+
+    /**
+     * @return the in-memory copy of every message the GETs are served from; null if disabled
+     */
+    public MessageReadModel getReadModel() {
+        return readModel;
+    }
+
+
     public List<Message> getAllMessagesByAccountId(int accountId) {
-        return messageDAO.getAllMessagesByAccountId(accountId);
+        return getAllMessagesByAccountId(accountId, MessageFields.ALL);
+    }
+
+    /**
+     * Served from the read model if enabled. Otherwise from the account's cached timeline when possible: the message_ids come from the timeline and the
+     * messages from the message cache, with one query for any that aren't cached. A projection that only asks for
+     * message_id, posted_by and time_posted_epoch is answered from the timeline alone.
+     * 
+     * @param accountId the ID of the account
+     * @param fields the fields to read; the rest are left at their defaults
+     * @return the messages posted by the account, in message_id order, or null if they couldn't be read
+     */
+    public List<Message> getAllMessagesByAccountId(int accountId, MessageFields fields) {
+        if (readModel != null) {
+            return readModel.getAllMessagesByAccountId(accountId);
+        }
+        TimelineCache.Timeline timeline = timelineCache == null ? null
+                : timelineCache.get(accountId, id -> messageDAO.getAllMessagesByAccountId(id, TIMELINE_FIELDS));
+        if (timeline == null) {
+            return messageDAO.getAllMessagesByAccountId(accountId, fields);
+        }
+
+        List<Message> messages = new ArrayList<>(timeline.size());
+        if (!fields.contains("message_text")) {
+            for (int i = 0; i < timeline.size(); i++) {
+                messages.add(new Message(timeline.messageId(i), accountId, null, timeline.timePosted(i)));
+            }
+            return messages;
+        }
+
+        List<Integer> messageIds = new ArrayList<>(timeline.size());
+        for (int i = 0; i < timeline.size(); i++) {
+            messageIds.add(timeline.messageId(i));
+        }
+        Map<Integer, Message> found = getHeld(messageIds);
+        for (Integer messageId : messageIds) {
+            // Missing if it was deleted after the timeline was read
+            Message message = found.get(messageId);
+            if (message != null) {
+                messages.add(message);
+            }
+        }
+        return messages;
+    }
+
+
+    /**
+     * @param accountId the ID of the account
+     * @param cursor where the previous page ended, or null for the first page
+     * @param limit the maximum number of messages on the page
+     * @return one page of the messages posted by the account, newest first
+     */
+    public MessagePage getMessagesPageByAccountId(int accountId, MessageCursor cursor, int limit) {
+        return getMessagesPageByAccountId(accountId, cursor, limit, MessageFields.ALL);
+    }
+
+    /**
+     * @param accountId the ID of the account
+     * @param cursor where the previous page ended, or null for the first page
+     * @param limit the maximum number of messages on the page
+     * @param fields the fields to read; the rest are left at their defaults
+     * @return one page of the messages posted by the account, newest first
+     */
+    public MessagePage getMessagesPageByAccountId(int accountId, MessageCursor cursor, int limit,
+            MessageFields fields) {
+        if (readModel != null) {
+            return toPage(readModel.getMessagesByAccountIdBefore(accountId, cursor, limit + 1), limit);
+        }
+        return toPage(messageDAO.getMessagesByAccountIdBefore(accountId, cursor, limit + 1, fields), limit);
+    }
+
+
+    /**
+     * With the off-heap store enabled, the message's JSON is written straight from the store without building the
+     * Message; a message that isn't held is loaded and stored first.
+     *
+     * @param messageId
+     * @return the message as JSON, or null if it doesn't exist
+     */
+    public byte[] getMessageJsonById(int messageId) {
+        if (messageStore != null) {
+            byte[] json = messageStore.getJson(messageId);
+            if (json != null) {
+                return json;
+            }
+        }
+        Message message = messageStore != null ? loadIntoStore(messageId) : getMessageById(messageId);
+        if (message == null) {
+            return null;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(128);
+        OffHeapMessageStore.writeJson(message, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Like getAllMessagesByAccountId(accountId), as a JSON array. With the off-heap store and the timeline cache
+     * enabled, the messages are written straight from the store; the ones it doesn't hold are read in one query
+     * and stored.
+     *
+     * @param accountId the ID of the account
+     * @return the messages posted by the account as JSON, in message_id order, or null if they couldn't be read
+     */
+    public byte[] getAllMessagesByAccountIdJson(int accountId) {
+        TimelineCache.Timeline timeline = messageStore == null || timelineCache == null ? null
+                : timelineCache.get(accountId, id -> messageDAO.getAllMessagesByAccountId(id, TIMELINE_FIELDS));
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        out.write('[');
+        if (timeline == null) {
+            List<Message> messages = getAllMessagesByAccountId(accountId, MessageFields.ALL);
+            if (messages == null) {
+                return null;
+            }
+            for (int i = 0; i < messages.size(); i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                OffHeapMessageStore.writeJson(messages.get(i), out);
+            }
+            out.write(']');
+            return out.toByteArray();
+        }
+
+        List<Integer> missing = new ArrayList<>();
+        for (int i = 0; i < timeline.size(); i++) {
+            if (!messageStore.contains(timeline.messageId(i))) {
+                missing.add(timeline.messageId(i));
+            }
+        }
+        Map<Integer, Message> loaded = loadAndHold(missing);
+        boolean first = true;
+        for (int i = 0; i < timeline.size(); i++) {
+            int messageId = timeline.messageId(i);
+            int mark = out.size();
+            if (!first) {
+                out.write(',');
+            }
+            if (messageStore.writeJson(messageId, out)) {
+                first = false;
+                continue;
+            }
+            // Overwritten since it was checked, or missing because it was deleted after the timeline was read
+            Message message = loaded.containsKey(messageId) ? loaded.get(messageId) : loadIntoStore(messageId);
+            if (message != null) {
+                OffHeapMessageStore.writeJson(message, out);
+                first = false;
+            } else {
+                // Take back the comma
+                byte[] written = out.toByteArray();
+                out.reset();
+                out.write(written, 0, mark);
+            }
+        }
+        out.write(']');
+        return out.toByteArray();
+    }
+
+
+    /*
+     * Asynchronous variants. Each runs the method of the same name on the database executor, so the calling
+     * thread is free while JDBC works. If the executor's queue is full the future fails with a
+     * RejectedExecutionException. With the read model enabled, the reads don't touch the database, so they run on
+     * the calling thread and never wait in the executor's queue behind writes.
+     */
+
+    /**
+     * With group commit, only the checks run on the database executor; its thread is released while the message
+     * waits for its batch, and afterCreate runs on the coalescer's completion executor, not its writer thread.
+     */
+    public CompletableFuture<Message> createMessageAsync(Message message) {
+        if (writeCoalescer == null) {
+            return databaseExecutor.supplyAsync(() -> createMessage(message));
+        }
+        return databaseExecutor.supplyAsync(() -> canCreate(message))
+                .thenCompose(valid -> valid
+                        ? writeCoalescer.submit(message).thenApply(this::afterCreate)
+                        : CompletableFuture.completedFuture(null));
+    }
+
+    public CompletableFuture<List<Message>> createMessagesAsync(List<Message> messages) {
+        return databaseExecutor.supplyAsync(() -> createMessages(messages));
+    }
+
+    public CompletableFuture<MessagePage> getMessagesPageAsync(MessageCursor cursor, int limit) {
+        return getMessagesPageAsync(cursor, limit, MessageFields.ALL);
+    }
+
+    public CompletableFuture<MessagePage> getMessagesPageAsync(MessageCursor cursor, int limit, MessageFields fields) {
+        return supplyRead(() -> getMessagesPage(cursor, limit, fields));
+    }
+
+    public CompletableFuture<Message> getMessageByIdAsync(int messageId) {
+        return supplyRead(() -> getMessageById(messageId));
+    }
+
+    public CompletableFuture<byte[]> getMessageJsonByIdAsync(int messageId) {
+        return supplyRead(() -> getMessageJsonById(messageId));
+    }
+
+    public CompletableFuture<Message> deleteMessageByIdAsync(int messageId) {
+        return databaseExecutor.supplyAsync(() -> deleteMessageById(messageId));
+    }
+
+    public CompletableFuture<Message> updateMessageByIdAsync(int messageId, String messageText) {
+        return databaseExecutor.supplyAsync(() -> updateMessageById(messageId, messageText));
+    }
+
+    public CompletableFuture<List<Message>> getAllMessagesByAccountIdAsync(int accountId) {
+        return getAllMessagesByAccountIdAsync(accountId, MessageFields.ALL);
+    }
+
+    public CompletableFuture<List<Message>> getAllMessagesByAccountIdAsync(int accountId, MessageFields fields) {
+        return supplyRead(() -> getAllMessagesByAccountId(accountId, fields));
+    }
+
+    public CompletableFuture<byte[]> getAllMessagesByAccountIdJsonAsync(int accountId) {
+        return supplyRead(() -> getAllMessagesByAccountIdJson(accountId));
+    }
+
+    public CompletableFuture<MessagePage> getMessagesPageByAccountIdAsync(int accountId, MessageCursor cursor, int limit) {
+        return getMessagesPageByAccountIdAsync(accountId, cursor, limit, MessageFields.ALL);
+    }
+
+    public CompletableFuture<MessagePage> getMessagesPageByAccountIdAsync(int accountId, MessageCursor cursor, int limit,
+            MessageFields fields) {
+        return supplyRead(() -> getMessagesPageByAccountId(accountId, cursor, limit, fields));
+    }
+
+
+    private <T> CompletableFuture<T> supplyRead(Supplier<T> read) {
+        if (readModel != null) {
+            return CompletableFuture.completedFuture(read.get());
+        }
+        return databaseExecutor.supplyAsync(read);
+    }
+
+    /**
+     * Build the read model from the database and subscribe it to this service's changes. Called from the
+     * constructor, so no change can be published through this service while it loads.
+     *
+     * @return the read model, or null if the messages couldn't be read; the GETs then use the database
+     */
+    private MessageReadModel loadReadModel() {
+        MessageReadModel model = new MessageReadModel();
+        try {
+            int loaded = model.load(messageDAO, STREAM_FETCH_SIZE);
+            eventBus.addListener(model::apply);
+            System.out.println("Read model loaded " + loaded + " messages");
+            return model;
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+            return null;
+        }
+    }
+
+
+    /**
+     * The row is only stored if no update or delete in its lock stripe has been made since before it was read, so
+     * a row read just before a delete (or an update) can't be stored after the delete has removed it.
+     *
+     * @return the message read from the database and added to the off-heap store, or null if it doesn't exist
+     */
+    private Message loadIntoStore(int messageId) {
+        long writes = messageWrites.get(stripe(messageId));
+        Message message = messageDAO.getMessageById(messageId);
+        if (message != null) {
+            holdIfUnchanged(message, writes);
+        }
+        return message;
+    }
+
+    /**
+     * @return the messages that exist, read from the database in one query and added to the off-heap store (or
+     * messageCache) as by loadIntoStore(int)
+     */
+    private Map<Integer, Message> loadAndHold(List<Integer> messageIds) {
+        Map<Integer, Message> loaded = new HashMap<>();
+        if (messageIds.isEmpty()) {
+            return loaded;
+        }
+        long[] writes = new long[MESSAGE_LOCK_STRIPES];
+        for (int stripe = 0; stripe < writes.length; stripe++) {
+            writes[stripe] = messageWrites.get(stripe);
+        }
+        List<Message> messages = messageDAO.getMessagesByIds(messageIds);
+        if (messages != null) {
+            for (Message message : messages) {
+                holdIfUnchanged(message, writes[stripe(message.message_id)]);
+                loaded.put(message.getMessage_id(), message);
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Add a message read from the database to the off-heap store, or to messageCache without it.
+     *
+     * @param writes the message's stripe's count of writes from before the message was read
+     */
+    private void holdIfUnchanged(Message message, long writes) {
+        ReentrantLock lock = lockFor(message.message_id);
+        lock.lock();
+        try {
+            if (messageWrites.get(stripe(message.message_id)) == writes) {
+                if (messageStore != null) {
+                    messageStore.put(message);
+                } else {
+                    messageCache.put(message);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the messages that exist, from the off-heap store (or messageCache) or else the database, keyed by
+     * message_id
+     */
+    private Map<Integer, Message> getHeld(List<Integer> messageIds) {
+        Map<Integer, Message> found = new HashMap<>();
+        List<Integer> missing = new ArrayList<>();
+        for (Integer messageId : messageIds) {
+            Message message = messageStore != null ? messageStore.get(messageId) : messageCache.getIfPresent(messageId);
+            if (message != null) {
+                found.put(messageId, message);
+            } else {
+                missing.add(messageId);
+            }
+        }
+        found.putAll(loadAndHold(missing));
+        return found;
+    }
+
+    private void afterInsert(Message insertedMessage) {
+        // The off-heap store holds the message bodies in place of messageCache, which stays empty
+        if (messageStore != null) {
+            messageStore.put(insertedMessage);
+        } else {
+            messageCache.put(insertedMessage);
+        }
+        if (timelineCache != null) {
+            timelineCache.add(insertedMessage);
+        }
+        eventBus.publish(MessageEventBus.CREATED, insertedMessage);
+        timelineVersions.bump(insertedMessage.posted_by);
+    }
+
+
+    /**
+     * @param messages up to limit + 1 messages fetched for a page
+     * @param limit the page size
+     * @return the first limit messages, with a cursor to the next page if the extra message was found
+     */
+    private MessagePage toPage(List<Message> messages, int limit) {
+        if (messages.size() <= limit) {
+            return new MessagePage(messages, null);
+        }
+
+        List<Message> page = new ArrayList<>(messages.subList(0, limit));
+        return new MessagePage(page, MessageCursor.after(page.get(limit - 1)).encode());
     }
 }
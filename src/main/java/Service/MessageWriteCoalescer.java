@@ -0,0 +1,227 @@
+package Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import DAO.MessageDAO;
+import Model.Message;
+
+/**
+ * Group commit for message inserts. Instead of every request running its own insert transaction, callers queue
+ * their message and a single writer thread inserts whatever has queued up as one JDBC batch in one transaction.
+ * A batch is flushed when it reaches maxBatchSize messages or when maxLingerMillis has passed since its first
+ * message arrived, whichever comes first. Each caller's future completes with its own inserted message.
+ *
+ * Under low load a batch holds one message and the only cost is up to maxLingerMillis of extra latency. Under
+ * concurrent load many inserts share one transaction, so throughput grows with concurrency instead of
+ * serializing on the database's write lock.
+ *
+ * The futures are completed on completionExecutor, not the writer thread, so whatever the callers chain onto them
+ * (eg MessageService publishing the new message) doesn't hold up the next batch. Once close() has been called,
+ * submit() fails with a RejectedExecutionException.
+ */
+public class MessageWriteCoalescer implements AutoCloseable {
+
+    /**
+     * How many inserts may wait for the writer before submit() starts inserting on the caller's thread.
+     */
+    private static final int QUEUE_CAPACITY = 10000;
+
+    private final MessageDAO messageDAO;
+    private final int maxBatchSize;
+    private final long maxLingerNanos;
+    private final Executor completionExecutor;
+    private final BlockingQueue<PendingInsert> queue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    private final LongAdder batchesFlushed = new LongAdder();
+    private final LongAdder messagesFlushed = new LongAdder();
+
+    /**
+     * @param messageDAO used to insert the batches
+     * @param maxBatchSize most messages inserted in one batch
+     * @param maxLingerMillis longest a message waits for others to join its batch
+     */
+    public MessageWriteCoalescer(MessageDAO messageDAO, int maxBatchSize, long maxLingerMillis) {
+        this(messageDAO, maxBatchSize, maxLingerMillis, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param completionExecutor runs the completion of the callers' futures, and so whatever they chain onto them
+     */
+    public MessageWriteCoalescer(MessageDAO messageDAO, int maxBatchSize, long maxLingerMillis,
+            Executor completionExecutor) {
+        this.messageDAO = messageDAO;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.maxLingerNanos = TimeUnit.MILLISECONDS.toNanos(maxLingerMillis);
+        this.completionExecutor = completionExecutor;
+
+        this.writer = new Thread(this::run, "message-write-coalescer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+
+    /**
+     * Queue a validated message for insertion.
+     *
+     * @param message the message to persist
+     * @return completes with the message and its generated message_id, or with null if the insert failed; or
+     * exceptionally with a RejectedExecutionException if the coalescer has been closed
+     */
+    public CompletableFuture<Message> submit(Message message) {
+        if (!running) {
+            return CompletableFuture.failedFuture(closedException());
+        }
+        PendingInsert pending = new PendingInsert(message);
+        if (!queue.offer(pending)) {
+            // Writer is swamped: don't make the caller wait behind it
+            pending.result.complete(messageDAO.insertMessage(message));
+        } else if (!running && queue.remove(pending)) {
+            // close() raced the offer, and the writer may already have stopped without seeing the message. If it
+            // did take it, remove() fails and the writer flushes it with its batch.
+            pending.result.completeExceptionally(closedException());
+        }
+        return pending.result;
+    }
+
+
+    /**
+     * Stop the writer once it has flushed what is already queued. Later submits fail.
+     */
+    @Override
+    public void close() {
+        running = false;
+        writer.interrupt();
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Only left if the writer didn't finish in time; their callers must not wait forever
+        PendingInsert pending;
+        while ((pending = queue.poll()) != null) {
+            pending.result.completeExceptionally(closedException());
+        }
+    }
+
+    private static RejectedExecutionException closedException() {
+        return new RejectedExecutionException("The message write coalescer is closed");
+    }
+
+
+    private void run() {
+        List<PendingInsert> batch = new ArrayList<>(maxBatchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingInsert first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+
+                long deadline = System.nanoTime() + maxLingerNanos;
+                while (batch.size() < maxBatchSize) {
+                    if (queue.drainTo(batch, maxBatchSize - batch.size()) > 0) {
+                        continue;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    PendingInsert next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                // close() was called; flush what we have and let the loop drain the queue
+            }
+
+            if (!batch.isEmpty()) {
+                flush(batch);
+                batch.clear();
+            }
+        }
+    }
+
+
+    private void flush(List<PendingInsert> batch) {
+        List<Message> messages = new ArrayList<>(batch.size());
+        for (PendingInsert pending : batch) {
+            messages.add(pending.message);
+        }
+
+        try {
+            List<Message> inserted = messageDAO.insertMessages(messages);
+            batchesFlushed.increment();
+            messagesFlushed.add(batch.size());
+            if (inserted != null) {
+                for (int i = 0; i < batch.size(); i++) {
+                    complete(batch.get(i), inserted.get(i), null);
+                }
+            } else {
+                // The batch was rolled back; insert one by one so a single bad row only fails its own caller
+                for (PendingInsert pending : batch) {
+                    complete(pending, messageDAO.insertMessage(pending.message), null);
+                }
+            }
+        } catch (RuntimeException e) {
+            for (PendingInsert pending : batch) {
+                complete(pending, null, e);
+            }
+        }
+    }
+
+    /**
+     * Complete a caller's future on the completion executor, or on this thread if the executor refuses.
+     */
+    private void complete(PendingInsert pending, Message inserted, Throwable failure) {
+        Runnable completion = failure == null
+                ? () -> pending.result.complete(inserted)
+                : () -> pending.result.completeExceptionally(failure);
+        try {
+            completionExecutor.execute(completion);
+        } catch (RejectedExecutionException e) {
+            completion.run();
+        }
+    }
+
+
+    /**
+     * @return number of batches written so far
+     */
+    public long getBatchesFlushed() {
+        return batchesFlushed.sum();
+    }
+
+    /**
+     * @return number of messages written by the writer thread so far
+     */
+    public long getMessagesFlushed() {
+        return messagesFlushed.sum();
+    }
+
+
+    /**
+     * A message waiting for the writer, and the future its caller is waiting on.
+     */
+    private static class PendingInsert {
+        final Message message;
+        final CompletableFuture<Message> result = new CompletableFuture<>();
+
+        PendingInsert(Message message) {
+            this.message = message;
+        }
+    }
+}
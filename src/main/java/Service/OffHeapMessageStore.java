@@ -0,0 +1,504 @@
+package Service;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import Model.Message;
+
+/**
+ * The most recently written messages, encoded into one direct (off-heap) ByteBuffer, so that holding millions of
+ * them costs the garbage collector nothing: no Message objects, Strings or cache entries to trace, only the
+ * primitive arrays of the index.
+ *
+ * The buffer is a ring log of records, each
+ *
+ *   int length | int message_id | int posted_by | long time_posted_epoch | int text length | UTF-8 message_text
+ *
+ * appended at the head. When it is full, the oldest records are overwritten, so what is held is the messages most
+ * recently created, updated or loaded (FIFO, not LRU: reading a message doesn't keep it). Positions are kept as ever
+ * increasing logical offsets; a record's place in the buffer is its offset modulo the capacity, and a record that
+ * wouldn't fit before the end of the buffer starts again at the beginning.
+ *
+ * message_id maps to the offset of the message's latest record in an open-addressing int-to-long hash table.
+ * An update appends a new record and repoints the index; a delete just removes the index entry. Either way the old
+ * record stays in the buffer until it is overwritten, and is skipped then.
+ *
+ * writeJson() serializes a record straight from the buffer to the JSON bytes Jackson would write for the Message,
+ * without building the Message.
+ *
+ * Reads share a read lock and writes take the write lock, as a record may be overwritten by a write.
+ */
+public class OffHeapMessageStore {
+
+    /**
+     * length, message_id, posted_by, time_posted_epoch and text length.
+     */
+    private static final int HEADER_SIZE = 24;
+    /**
+     * Well above the largest record (255 chars of up to 3 UTF-8 bytes each), so one always fits.
+     */
+    private static final int MIN_CAPACITY = 64 * 1024;
+
+    private static final byte[] MESSAGE_ID = ascii("{\"message_id\":");
+    private static final byte[] POSTED_BY = ascii(",\"posted_by\":");
+    private static final byte[] MESSAGE_TEXT = ascii(",\"message_text\":\"");
+    private static final byte[] TIME_POSTED_EPOCH = ascii("\",\"time_posted_epoch\":");
+    private static final byte[] UNICODE_ESCAPE = ascii("\\u00");
+    private static final byte[] HEX = ascii("0123456789ABCDEF");
+
+    private final ByteBuffer buffer;
+    /**
+     * A view of the buffer for relative bulk puts, used only under the write lock.
+     */
+    private final ByteBuffer writeView;
+    private final int capacity;
+    private final Index index = new Index(1024);
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    /**
+     * Logical offset the next record is written at.
+     */
+    private long head;
+    /**
+     * Logical offset of the oldest record not yet overwritten.
+     */
+    private long tail;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param capacityBytes size of the direct buffer; at least 64 KB
+     */
+    public OffHeapMessageStore(int capacityBytes) {
+        this.capacity = Math.max(MIN_CAPACITY, capacityBytes);
+        this.buffer = ByteBuffer.allocateDirect(capacity);
+        this.writeView = buffer.duplicate();
+    }
+
+
+    /**
+     * Add a message, or replace the one with the same message_id, possibly overwriting the oldest messages.
+     */
+    public void put(Message message) {
+        byte[] text = message.getMessage_text().getBytes(StandardCharsets.UTF_8);
+        int length = HEADER_SIZE + text.length;
+
+        lock.writeLock().lock();
+        try {
+            long start = head;
+            int position = physical(start);
+            if (position + length > capacity) {
+                // Skip to the start of the buffer
+                start += capacity - position;
+            }
+            evictBefore(start + length - capacity);
+            if (start != head && capacity - position >= 4) {
+                // Mark the skipped end of the buffer so eviction steps over it
+                buffer.putInt(position, -(capacity - position));
+            }
+
+            int at = physical(start);
+            buffer.putInt(at, length);
+            buffer.putInt(at + 4, message.getMessage_id());
+            buffer.putInt(at + 8, message.getPosted_by());
+            buffer.putLong(at + 12, message.getTime_posted_epoch());
+            buffer.putInt(at + 20, text.length);
+            writeView.position(at + HEADER_SIZE);
+            writeView.put(text);
+
+            index.put(message.getMessage_id(), start);
+            head = start + length;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Forget a deleted message. Its record is left to be overwritten.
+     */
+    public void remove(int messageId) {
+        lock.writeLock().lock();
+        try {
+            index.remove(messageId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            index.clear();
+            tail = head;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * @return the message, decoded from its record, or null if it isn't held
+     */
+    public Message get(int messageId) {
+        lock.readLock().lock();
+        try {
+            long offset = index.get(messageId);
+            if (offset < 0) {
+                misses.increment();
+                return null;
+            }
+            hits.increment();
+            int at = physical(offset);
+            byte[] text = new byte[buffer.getInt(at + 20)];
+            for (int i = 0; i < text.length; i++) {
+                text[i] = buffer.get(at + HEADER_SIZE + i);
+            }
+            return new Message(messageId, buffer.getInt(at + 8), new String(text, StandardCharsets.UTF_8),
+                    buffer.getLong(at + 12));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return true if the message is held
+     */
+    public boolean contains(int messageId) {
+        lock.readLock().lock();
+        try {
+            return index.get(messageId) >= 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the message as JSON, written straight from its record, or null if it isn't held
+     */
+    public byte[] getJson(int messageId) {
+        lock.readLock().lock();
+        try {
+            long offset = index.get(messageId);
+            if (offset < 0) {
+                misses.increment();
+                return null;
+            }
+            hits.increment();
+            int at = physical(offset);
+            return toJson(messageId, buffer.getInt(at + 8), buffer.getLong(at + 12),
+                    buffer, at + HEADER_SIZE, buffer.getInt(at + 20));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Append the message as JSON, written straight from its record.
+     *
+     * @return false, with nothing written, if the message isn't held
+     */
+    public boolean writeJson(int messageId, ByteArrayOutputStream out) {
+        byte[] json = getJson(messageId);
+        if (json == null) {
+            return false;
+        }
+        out.write(json, 0, json.length);
+        return true;
+    }
+
+    /**
+     * Append a message that isn't held as JSON, byte for byte as writeJson(int, ...) would.
+     */
+    public static void writeJson(Message message, ByteArrayOutputStream out) {
+        byte[] text = message.getMessage_text().getBytes(StandardCharsets.UTF_8);
+        byte[] json = toJson(message.getMessage_id(), message.getPosted_by(), message.getTime_posted_epoch(),
+                ByteBuffer.wrap(text), 0, text.length);
+        out.write(json, 0, json.length);
+    }
+
+
+    /**
+     * @return the number of messages held
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return index.size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return bytes of the buffer between the oldest record and the head, including superseded records
+     */
+    public long getUsedBytes() {
+        lock.readLock().lock();
+        try {
+            return head - tail;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return lookups that found the message
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return lookups of messages that weren't held
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+
+    private int physical(long offset) {
+        return (int) (offset % capacity);
+    }
+
+    /**
+     * Advance the tail to at least newTail, dropping the index entries of the records it passes.
+     */
+    private void evictBefore(long newTail) {
+        while (tail < newTail && tail < head) {
+            int at = physical(tail);
+            int room = capacity - at;
+            if (room < 4) {
+                // Too little left at the end of the buffer for a skip marker
+                tail += room;
+                continue;
+            }
+            int length = buffer.getInt(at);
+            if (length < 0) {
+                tail += -length;
+                continue;
+            }
+            int messageId = buffer.getInt(at + 4);
+            // Only if this is still the message's latest record
+            if (index.get(messageId) == tail) {
+                index.remove(messageId);
+            }
+            tail += length;
+        }
+        if (tail < newTail) {
+            tail = newTail;
+        }
+    }
+
+
+    /**
+     * Encode a message as the JSON Jackson writes for it, into an array of exactly the right size: the text is
+     * scanned once to measure it and once to copy it.
+     *
+     * @param source holds the UTF-8 message_text at textAt
+     */
+    private static byte[] toJson(int messageId, int postedBy, long timePosted, ByteBuffer source, int textAt,
+            int textLength) {
+        int length = MESSAGE_ID.length + numberLength(messageId) + POSTED_BY.length + numberLength(postedBy)
+                + MESSAGE_TEXT.length + TIME_POSTED_EPOCH.length + numberLength(timePosted) + 1;
+        for (int i = 0; i < textLength; i++) {
+            length += escapedLength(source.get(textAt + i));
+        }
+
+        byte[] json = new byte[length];
+        int position = put(json, 0, MESSAGE_ID);
+        position = putNumber(json, position, messageId);
+        position = put(json, position, POSTED_BY);
+        position = putNumber(json, position, postedBy);
+        position = put(json, position, MESSAGE_TEXT);
+        for (int i = 0; i < textLength; i++) {
+            position = putEscaped(json, position, source.get(textAt + i));
+        }
+        position = put(json, position, TIME_POSTED_EPOCH);
+        position = putNumber(json, position, timePosted);
+        json[position] = '}';
+        return json;
+    }
+
+    private static int put(byte[] json, int position, byte[] bytes) {
+        System.arraycopy(bytes, 0, json, position, bytes.length);
+        return position + bytes.length;
+    }
+
+    private static int numberLength(long value) {
+        if (value == Long.MIN_VALUE) {
+            return 20;
+        }
+        int length = value < 0 ? 2 : 1;
+        for (long rest = Math.abs(value) / 10; rest > 0; rest /= 10) {
+            length++;
+        }
+        return length;
+    }
+
+    private static int putNumber(byte[] json, int position, long value) {
+        if (value == Long.MIN_VALUE) {
+            return put(json, position, ascii(Long.toString(value)));
+        }
+        int end = position + numberLength(value);
+        if (value < 0) {
+            json[position] = '-';
+            value = -value;
+        }
+        for (int i = end - 1; value > 0 || i == end - 1; i--) {
+            json[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        return end;
+    }
+
+    /**
+     * @return how many bytes one byte of UTF-8 message_text takes inside a JSON string, escaped the way Jackson
+     * escapes it. Bytes of multi-byte characters are all 0x80 or above and pass through.
+     */
+    private static int escapedLength(byte b) {
+        int c = b & 0xff;
+        if (c >= 0x20) {
+            return c == '"' || c == '\\' ? 2 : 1;
+        }
+        return c == '\n' || c == '\r' || c == '\t' || c == '\b' || c == '\f' ? 2 : 6;
+    }
+
+    private static int putEscaped(byte[] json, int position, byte b) {
+        int c = b & 0xff;
+        if (c >= 0x20 && c != '"' && c != '\\') {
+            json[position] = b;
+            return position + 1;
+        }
+        json[position] = '\\';
+        switch (c) {
+            case '"':
+            case '\\':
+                json[position + 1] = b;
+                return position + 2;
+            case '\n':
+                json[position + 1] = 'n';
+                return position + 2;
+            case '\r':
+                json[position + 1] = 'r';
+                return position + 2;
+            case '\t':
+                json[position + 1] = 't';
+                return position + 2;
+            case '\b':
+                json[position + 1] = 'b';
+                return position + 2;
+            case '\f':
+                json[position + 1] = 'f';
+                return position + 2;
+            default:
+                put(json, position, UNICODE_ESCAPE);
+                json[position + 4] = HEX[c >> 4];
+                json[position + 5] = HEX[c & 0xf];
+                return position + 6;
+        }
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+
+    /**
+     * message_id to logical offset, in open-addressing arrays with linear probing; -1 marks an empty slot.
+     * Removal shifts the following entries back rather than leaving tombstones, so lookups stay short.
+     */
+    private static final class Index {
+        private int[] keys;
+        private long[] offsets;
+        private int mask;
+        private int size;
+
+        Index(int initialCapacity) {
+            allocate(Integer.highestOneBit(Math.max(2, initialCapacity - 1)) << 1);
+        }
+
+        long get(int key) {
+            for (int slot = slot(key); ; slot = (slot + 1) & mask) {
+                long offset = offsets[slot];
+                if (offset < 0 || keys[slot] == key) {
+                    return offset;
+                }
+            }
+        }
+
+        void put(int key, long offset) {
+            if (2 * (size + 1) > keys.length) {
+                grow();
+            }
+            int slot = slot(key);
+            while (offsets[slot] >= 0 && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            if (offsets[slot] < 0) {
+                size++;
+            }
+            keys[slot] = key;
+            offsets[slot] = offset;
+        }
+
+        void remove(int key) {
+            int slot = slot(key);
+            while (keys[slot] != key || offsets[slot] < 0) {
+                if (offsets[slot] < 0) {
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            size--;
+            int hole = slot;
+            for (int next = (hole + 1) & mask; offsets[next] >= 0; next = (next + 1) & mask) {
+                // Move the entry back into the hole if the hole is between its home slot and where it is
+                int home = slot(keys[next]);
+                if (((next - home) & mask) >= ((next - hole) & mask)) {
+                    keys[hole] = keys[next];
+                    offsets[hole] = offsets[next];
+                    hole = next;
+                }
+            }
+            offsets[hole] = -1;
+        }
+
+        void clear() {
+            Arrays.fill(offsets, -1);
+            size = 0;
+        }
+
+        private int slot(int key) {
+            int h = key * 0x9E3779B9;
+            return (h ^ (h >>> 16)) & mask;
+        }
+
+        private void grow() {
+            int[] oldKeys = keys;
+            long[] oldOffsets = offsets;
+            allocate(oldKeys.length * 2);
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldOffsets[i] >= 0) {
+                    put(oldKeys[i], oldOffsets[i]);
+                }
+            }
+        }
+
+        private void allocate(int tableSize) {
+            keys = new int[tableSize];
+            offsets = new long[tableSize];
+            Arrays.fill(offsets, -1);
+            mask = tableSize - 1;
+        }
+    }
+}
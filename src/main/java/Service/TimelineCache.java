@@ -0,0 +1,170 @@
+package Service;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntFunction;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+import Model.Message;
+
+/**
+ * An in-memory copy of account timelines: for each cached account, the message_ids and time_posted_epochs of every
+ * message it has posted, in two parallel arrays sorted by message_id. MessageService keeps the cached timelines
+ * current as it creates and deletes messages, so reading an account's messages only needs the message bodies,
+ * which usually come from the MessageCache.
+ *
+ * The cache is bounded by the total number of messages across timelines, with the same W-TinyLFU eviction as the
+ * MessageCache, so the timelines that are read most stay. An account with more than maxPerAccount messages is not
+ * held; a small placeholder remembers that, and its reads go to the database.
+ *
+ * Timelines are never changed in place: a write replaces the account's arrays with new ones, so readers need no
+ * locking. Each change copies the account's arrays, which is cheap next to the database write it follows.
+ */
+public class TimelineCache {
+
+    private final Cache<Integer, Timeline> cache;
+    private final int maxPerAccount;
+
+    /**
+     * @param maximumMessages upper bound on the number of messages held across all timelines
+     * @param maxPerAccount accounts with more messages than this are not held
+     */
+    public TimelineCache(long maximumMessages, int maxPerAccount) {
+        this.maxPerAccount = maxPerAccount;
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maximumMessages)
+                .weigher((Integer accountId, Timeline timeline) -> Math.max(1, timeline.size()))
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * @param accountId the account whose timeline to look up
+     * @param loader loads the account's messages on a miss; only message_id and time_posted_epoch are used
+     * @return the account's timeline, or null if it is too large to be held or could not be loaded
+     */
+    public Timeline get(int accountId, IntFunction<List<Message>> loader) {
+        Timeline timeline = cache.get(accountId, id -> build(loader.apply(id)));
+        return timeline == Timeline.TOO_LARGE ? null : timeline;
+    }
+
+    /**
+     * Add a newly created message to its account's timeline, if that timeline is cached. Safe to call for a message
+     * the timeline already holds, eg because it was loaded after the message was inserted.
+     */
+    public void add(Message message) {
+        cache.asMap().computeIfPresent(message.getPosted_by(), (id, timeline) -> {
+            Timeline added = timeline.with(message.getMessage_id(), message.getTime_posted_epoch());
+            return added.size() > maxPerAccount ? Timeline.TOO_LARGE : added;
+        });
+    }
+
+    /**
+     * Remove a deleted message from its account's timeline, if that timeline is cached.
+     */
+    public void remove(Message message) {
+        cache.asMap().computeIfPresent(message.getPosted_by(),
+                (id, timeline) -> timeline.without(message.getMessage_id()));
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    /**
+     * @return hit, miss, load and eviction counts since the cache was created
+     */
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    /**
+     * @return the approximate number of cached timelines
+     */
+    public long size() {
+        return cache.estimatedSize();
+    }
+
+
+    private Timeline build(List<Message> messages) {
+        if (messages == null) {
+            // The load failed; don't remember that as an empty timeline
+            return null;
+        }
+        if (messages.size() > maxPerAccount) {
+            return Timeline.TOO_LARGE;
+        }
+
+        Message[] sorted = messages.toArray(new Message[0]);
+        Arrays.sort(sorted, (a, b) -> Integer.compare(a.getMessage_id(), b.getMessage_id()));
+        int[] ids = new int[sorted.length];
+        long[] times = new long[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            ids[i] = sorted[i].getMessage_id();
+            times[i] = sorted[i].getTime_posted_epoch();
+        }
+        return new Timeline(ids, times);
+    }
+
+
+    /**
+     * The messages of one account, as parallel arrays sorted by message_id. The arrays must not be modified.
+     */
+    public static final class Timeline {
+        static final Timeline TOO_LARGE = new Timeline(new int[0], new long[0]);
+
+        private final int[] messageIds;
+        private final long[] timesPosted;
+
+        Timeline(int[] messageIds, long[] timesPosted) {
+            this.messageIds = messageIds;
+            this.timesPosted = timesPosted;
+        }
+
+        public int size() {
+            return messageIds.length;
+        }
+
+        public int messageId(int index) {
+            return messageIds[index];
+        }
+
+        public long timePosted(int index) {
+            return timesPosted[index];
+        }
+
+        Timeline with(int messageId, long timePosted) {
+            int index = Arrays.binarySearch(messageIds, messageId);
+            if (index >= 0 || this == TOO_LARGE) {
+                return this;
+            }
+            int insertAt = -index - 1;
+            int[] ids = new int[messageIds.length + 1];
+            long[] times = new long[timesPosted.length + 1];
+            System.arraycopy(messageIds, 0, ids, 0, insertAt);
+            System.arraycopy(timesPosted, 0, times, 0, insertAt);
+            ids[insertAt] = messageId;
+            times[insertAt] = timePosted;
+            System.arraycopy(messageIds, insertAt, ids, insertAt + 1, messageIds.length - insertAt);
+            System.arraycopy(timesPosted, insertAt, times, insertAt + 1, timesPosted.length - insertAt);
+            return new Timeline(ids, times);
+        }
+
+        Timeline without(int messageId) {
+            int index = Arrays.binarySearch(messageIds, messageId);
+            if (index < 0) {
+                return this;
+            }
+            int[] ids = new int[messageIds.length - 1];
+            long[] times = new long[timesPosted.length - 1];
+            System.arraycopy(messageIds, 0, ids, 0, index);
+            System.arraycopy(timesPosted, 0, times, 0, index);
+            System.arraycopy(messageIds, index + 1, ids, index, messageIds.length - index - 1);
+            System.arraycopy(timesPosted, index + 1, times, index, timesPosted.length - index - 1);
+            return new Timeline(ids, times);
+        }
+    }
+}
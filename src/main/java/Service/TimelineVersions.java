@@ -0,0 +1,56 @@
+package Service;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Change counters for account timelines, used to answer conditional GETs of an account's messages without
+ * querying the database. MessageService bumps an account's version after every message it creates, updates or
+ * deletes for that account.
+ *
+ * Versions only live in memory, so each instance also has a random epoch that goes into the ETag: after a restart
+ * (or a new service instance) every previously issued ETag stops matching. Writes that bypass MessageService are
+ * not seen.
+ */
+public class TimelineVersions {
+
+    private final String epoch = Long.toHexString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE);
+    private final long createdAt = System.currentTimeMillis();
+    private final ConcurrentHashMap<Integer, Version> versions = new ConcurrentHashMap<>();
+
+    /**
+     * Record a change to the account's timeline.
+     */
+    public void bump(int accountId) {
+        long now = System.currentTimeMillis();
+        versions.compute(accountId, (id, version) -> new Version(version == null ? 1 : version.counter + 1, now));
+    }
+
+    /**
+     * @return an opaque tag that changes whenever the account's timeline changes
+     */
+    public String tag(int accountId) {
+        Version version = versions.get(accountId);
+        return epoch + "-" + accountId + "-" + (version == null ? 0 : version.counter);
+    }
+
+    /**
+     * @return when the account's timeline last changed, in epoch milliseconds; the creation time of this instance
+     * if it hasn't changed since
+     */
+    public long lastModified(int accountId) {
+        Version version = versions.get(accountId);
+        return version == null ? createdAt : version.modifiedAt;
+    }
+
+
+    private static class Version {
+        final long counter;
+        final long modifiedAt;
+
+        Version(long counter, long modifiedAt) {
+            this.counter = counter;
+            this.modifiedAt = modifiedAt;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package Util;
+
+/**
+ * The ConfigUtil class reads tunable settings for the application. A setting is looked up first as a JVM system
+ * property (eg -Dsocialmedia.pool.maxSize=20) and then as an environment variable, where the key is upper-cased and
+ * dots are replaced with underscores (eg SOCIALMEDIA_POOL_MAXSIZE=20). If neither is present the default is used.
+ */
+public class ConfigUtil {
+
+    private ConfigUtil() {
+    }
+
+    /**
+     * @param key the name of the setting
+     * @return the raw value of the setting, or null if it is not set
+     */
+    public static String get(String key) {
+        String value = System.getProperty(key);
+        if (value == null) {
+            value = System.getenv(key.toUpperCase().replace('.', '_'));
+        }
+        return value;
+    }
+
+    public static String getString(String key, String defaultValue) {
+        String value = get(key);
+        return value == null || value.isBlank() ? defaultValue : value.trim();
+    }
+
+    public static int getInt(String key, int defaultValue) {
+        String value = get(key);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            System.out.println("Ignoring invalid value for " + key + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    public static long getLong(String key, long defaultValue) {
+        String value = get(key);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            System.out.println("Ignoring invalid value for " + key + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    public static boolean getBoolean(String key, boolean defaultValue) {
+        String value = get(key);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        return Boolean.parseBoolean(value.trim());
+    }
+}
@@ -0,0 +1,645 @@
+package Util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.sql.DataSource;
+
+/**
+ * A bounded pool of JDBC connections.
+ *
+ * At most maxSize connections can be borrowed at once; further callers wait up to acquireTimeoutMillis and then get
+ * an SQLTimeoutException. Connections handed out are proxies, calling close() on them returns the physical connection
+ * to the pool instead of closing it. Every connection is validated before it is handed out.
+ *
+ * A background housekeeper closes connections that have been idle longer than idleTimeoutMillis (never going below
+ * minIdle), tops the pool back up to minIdle, and reports connections that have been borrowed for longer than
+ * leakDetectionThresholdMillis together with the stack trace of the code that borrowed them. That trace is captured
+ * on every borrow, so leak detection costs a stack walk per getConnection(); a threshold of 0 turns both off.
+ *
+ * Each physical connection keeps its last statementCacheSize prepared statements open. When a borrower prepares
+ * SQL it (or an earlier borrower of the same physical connection) has prepared before, it gets the already parsed
+ * and planned statement back, and closing it only clears its parameters. Statements are evicted least recently used
+ * first, and are closed for real when evicted or when their connection is.
+ */
+public class ConnectionPool implements ConnectionPoolMXBean, AutoCloseable {
+
+    private static final long HOUSEKEEPING_PERIOD_MILLIS = 1000;
+
+    private final DataSource dataSource;
+    private final int minIdle;
+    private final int maxSize;
+    private final long acquireTimeoutMillis;
+    private final long idleTimeoutMillis;
+    private final long leakDetectionThresholdMillis;
+    private final int validationTimeoutSeconds;
+    private final int statementCacheSize;
+
+    /**
+     * One permit per connection that may be borrowed; waiting on it is what bounds the pool.
+     */
+    private final Semaphore permits;
+    /**
+     * Idle connections, most recently returned first, so the tail holds the ones that are candidates for eviction.
+     */
+    private final LinkedBlockingDeque<PhysicalConnection> idle = new LinkedBlockingDeque<>();
+    private final Set<PooledConnection> borrowed = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger totalConnections = new AtomicInteger();
+    private final ScheduledExecutorService housekeeper;
+    private volatile boolean closed;
+    private volatile StatementProfiler statementProfiler;
+
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder acquireNanos = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder created = new LongAdder();
+    private final LongAdder destroyed = new LongAdder();
+    private final LongAdder leaks = new LongAdder();
+    private final LongAdder statementCacheHits = new LongAdder();
+    private final LongAdder statementCacheMisses = new LongAdder();
+    private final LatencyHistogram acquireTimes = new LatencyHistogram();
+
+    /**
+     * @param dataSource where physical connections come from
+     * @param minIdle number of connections kept open even when the pool is quiet
+     * @param maxSize maximum number of connections that can be borrowed at the same time
+     * @param acquireTimeoutMillis how long getConnection() waits for a free connection
+     * @param idleTimeoutMillis how long a connection may sit unused before it is closed
+     * @param leakDetectionThresholdMillis how long a connection may be borrowed before it is reported, 0 to disable
+     * @param validationTimeoutSeconds timeout given to Connection.isValid() when validating on borrow
+     */
+    public ConnectionPool(DataSource dataSource, int minIdle, int maxSize, long acquireTimeoutMillis,
+            long idleTimeoutMillis, long leakDetectionThresholdMillis, int validationTimeoutSeconds) {
+        this(dataSource, minIdle, maxSize, acquireTimeoutMillis, idleTimeoutMillis, leakDetectionThresholdMillis,
+                validationTimeoutSeconds, 0);
+    }
+
+    /**
+     * @param statementCacheSize number of prepared statements kept open per physical connection, 0 to disable
+     */
+    public ConnectionPool(DataSource dataSource, int minIdle, int maxSize, long acquireTimeoutMillis,
+            long idleTimeoutMillis, long leakDetectionThresholdMillis, int validationTimeoutSeconds,
+            int statementCacheSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be positive");
+        }
+        this.dataSource = dataSource;
+        this.maxSize = maxSize;
+        this.minIdle = Math.max(0, Math.min(minIdle, maxSize));
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.leakDetectionThresholdMillis = leakDetectionThresholdMillis;
+        this.validationTimeoutSeconds = validationTimeoutSeconds;
+        this.statementCacheSize = Math.max(0, statementCacheSize);
+        this.permits = new Semaphore(maxSize, true);
+
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "connection-pool-housekeeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        housekeeper.scheduleWithFixedDelay(this::housekeep, 0, HOUSEKEEPING_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+
+    /**
+     * Borrow a connection, waiting up to the acquire timeout if all of them are in use.
+     * The caller must close() the returned connection to give it back.
+     *
+     * @return a validated connection
+     * @throws SQLTimeoutException if no connection became available in time
+     */
+    public Connection getConnection() throws SQLException {
+        return getConnection(null);
+    }
+
+    /**
+     * Borrow a connection like getConnection(), and when it is given back record for how long it was held, from the
+     * moment it was handed out to close(). DAOs pass one histogram per method, which gives each method's query time
+     * without timing code in the method itself.
+     *
+     * @param heldTimes where to record the time the connection was held, or null
+     */
+    public Connection getConnection(LatencyHistogram heldTimes) throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool has been closed");
+        }
+
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                timeouts.increment();
+                throw new SQLTimeoutException("Timed out after " + acquireTimeoutMillis
+                        + "ms waiting for a database connection (" + getActiveConnections() + " active, "
+                        + getThreadsAwaitingConnection() + " waiting)");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+
+        try {
+            PhysicalConnection physical = takeValidIdleConnection();
+            if (physical == null) {
+                physical = openConnection();
+            }
+
+            Throwable acquiredAt = leakDetectionThresholdMillis > 0
+                    ? new Exception("Connection acquired by thread " + Thread.currentThread().getName())
+                    : null;
+            PooledConnection pooled = new PooledConnection(physical, acquiredAt, heldTimes);
+            long borrowedAtNanos = System.nanoTime();
+            pooled.borrowedAtNanos = borrowedAtNanos;
+            borrowed.add(pooled);
+
+            acquired.increment();
+            acquireNanos.add(borrowedAtNanos - start);
+            acquireTimes.record(borrowedAtNanos - start);
+            return pooled.proxy;
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+
+    /**
+     * Forcefully take back every borrowed connection and close all physical connections. Proxies that were still
+     * borrowed behave as closed afterwards. Meant for tests, which reset the database between cases.
+     */
+    public void evictAll() {
+        for (PooledConnection pooled : borrowed) {
+            if (borrowed.remove(pooled)) {
+                pooled.closed = true;
+                destroy(pooled.physical);
+                permits.release();
+            }
+        }
+
+        PhysicalConnection physical;
+        while ((physical = idle.pollFirst()) != null) {
+            destroy(physical);
+        }
+    }
+
+
+    /**
+     * Close the pool. Idle connections are closed immediately, borrowed ones when they are returned.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        housekeeper.shutdownNow();
+
+        PhysicalConnection physical;
+        while ((physical = idle.pollFirst()) != null) {
+            destroy(physical);
+        }
+    }
+
+
+    private PhysicalConnection takeValidIdleConnection() {
+        PhysicalConnection physical;
+        while ((physical = idle.pollFirst()) != null) {
+            if (isValid(physical.connection)) {
+                return physical;
+            }
+            destroy(physical);
+        }
+        return null;
+    }
+
+
+    private boolean isValid(Connection connection) {
+        try {
+            return connection.isValid(validationTimeoutSeconds);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+
+    private PhysicalConnection openConnection() throws SQLException {
+        Connection connection = dataSource.getConnection();
+        totalConnections.incrementAndGet();
+        created.increment();
+        return new PhysicalConnection(connection);
+    }
+
+
+    private void destroy(PhysicalConnection physical) {
+        try {
+            physical.connection.close();
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        }
+        totalConnections.decrementAndGet();
+        destroyed.increment();
+    }
+
+
+    /**
+     * Called when a borrower closes its proxy. Undoes any transaction state left behind and puts the physical
+     * connection back at the head of the idle queue.
+     */
+    private void release(PooledConnection pooled) {
+        if (!borrowed.remove(pooled)) {
+            // Already taken back by evictAll()
+            return;
+        }
+        if (pooled.heldTimes != null) {
+            pooled.heldTimes.record(System.nanoTime() - pooled.borrowedAtNanos);
+        }
+
+        PhysicalConnection physical = pooled.physical;
+        boolean reusable = !closed && totalConnections.get() <= maxSize;
+        if (reusable) {
+            try {
+                // Statements the borrower forgot to close are reset so the next borrower can have them
+                physical.releaseStatements();
+
+                Connection connection = physical.connection;
+                if (!connection.getAutoCommit()) {
+                    connection.rollback();
+                    connection.setAutoCommit(true);
+                }
+                connection.clearWarnings();
+            } catch (SQLException e) {
+                reusable = false;
+            }
+        }
+
+        if (reusable) {
+            physical.lastReleasedAt = System.currentTimeMillis();
+            idle.offerFirst(physical);
+        } else {
+            destroy(physical);
+        }
+        permits.release();
+    }
+
+
+    private void housekeep() {
+        try {
+            long now = System.currentTimeMillis();
+
+            if (leakDetectionThresholdMillis > 0) {
+                for (PooledConnection pooled : borrowed) {
+                    if (!pooled.leakReported && now - pooled.borrowedAt > leakDetectionThresholdMillis) {
+                        pooled.leakReported = true;
+                        leaks.increment();
+                        System.err.println("Possible connection leak: a connection has been borrowed for more than "
+                                + leakDetectionThresholdMillis + "ms without being closed");
+                        pooled.acquiredAt.printStackTrace();
+                    }
+                }
+            }
+
+            // Evict from the least recently used end while we are above the minimum
+            while (totalConnections.get() > minIdle) {
+                PhysicalConnection oldest = idle.pollLast();
+                if (oldest == null) {
+                    break;
+                }
+                if (now - oldest.lastReleasedAt < idleTimeoutMillis) {
+                    idle.offerLast(oldest);
+                    break;
+                }
+                destroy(oldest);
+            }
+
+            while (!closed && totalConnections.get() < minIdle) {
+                PhysicalConnection physical = openConnection();
+                physical.lastReleasedAt = now;
+                idle.offerLast(physical);
+            }
+        } catch (SQLException | RuntimeException e) {
+            System.out.println("Connection pool housekeeping failed: " + e.getMessage());
+        }
+    }
+
+
+    @Override
+    public int getTotalConnections() {
+        return totalConnections.get();
+    }
+
+    @Override
+    public int getIdleConnections() {
+        return idle.size();
+    }
+
+    @Override
+    public int getActiveConnections() {
+        return borrowed.size();
+    }
+
+    @Override
+    public int getThreadsAwaitingConnection() {
+        return permits.getQueueLength();
+    }
+
+    @Override
+    public int getMinIdle() {
+        return minIdle;
+    }
+
+    @Override
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    @Override
+    public long getConnectionsAcquired() {
+        return acquired.sum();
+    }
+
+    @Override
+    public long getAcquireTimeouts() {
+        return timeouts.sum();
+    }
+
+    @Override
+    public long getConnectionsCreated() {
+        return created.sum();
+    }
+
+    @Override
+    public long getConnectionsDestroyed() {
+        return destroyed.sum();
+    }
+
+    @Override
+    public long getLeaksDetected() {
+        return leaks.sum();
+    }
+
+    @Override
+    public long getStatementCacheHits() {
+        return statementCacheHits.sum();
+    }
+
+    @Override
+    public long getStatementCacheMisses() {
+        return statementCacheMisses.sum();
+    }
+
+    @Override
+    public double getAverageAcquireMillis() {
+        long count = acquired.sum();
+        return count == 0 ? 0 : acquireNanos.sum() / 1_000_000.0 / count;
+    }
+
+    /**
+     * @param statementProfiler times the statements borrowers prepare from now on, or null to stop profiling
+     */
+    public void setStatementProfiler(StatementProfiler statementProfiler) {
+        this.statementProfiler = statementProfiler;
+    }
+
+    public StatementProfiler getStatementProfiler() {
+        return statementProfiler;
+    }
+
+    /**
+     * @return how long each successful getConnection() waited, including validating or opening the connection
+     */
+    public LatencyHistogram getAcquireTimes() {
+        return acquireTimes;
+    }
+
+    @Override
+    public String toString() {
+        return "ConnectionPool{" +
+                "total=" + getTotalConnections() +
+                ", idle=" + getIdleConnections() +
+                ", active=" + getActiveConnections() +
+                ", waiting=" + getThreadsAwaitingConnection() +
+                ", maxSize=" + maxSize +
+                '}';
+    }
+
+
+    /**
+     * A physical connection owned by the pool, with its cache of prepared statements. Only the borrower of the
+     * connection touches the cache, so it needs no locking.
+     */
+    private class PhysicalConnection {
+        final Connection connection;
+        volatile long lastReleasedAt;
+
+        /**
+         * Cached statements keyed by SQL (and generated keys flag), in access order so the eldest is the least
+         * recently used.
+         */
+        final LinkedHashMap<String, CachedStatement> statements = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+                if (size() <= statementCacheSize) {
+                    return false;
+                }
+                eldest.getValue().evict();
+                return true;
+            }
+        };
+
+        PhysicalConnection(Connection connection) {
+            this.connection = connection;
+        }
+
+        /**
+         * @return the cached statement for this SQL, or a newly prepared one that is added to the cache. If the
+         * cached statement is still open (the same SQL prepared twice without closing), an uncached one.
+         */
+        PreparedStatement prepareStatement(String sql, Integer autoGeneratedKeys) throws SQLException {
+            String key = autoGeneratedKeys == null ? sql : autoGeneratedKeys + ":" + sql;
+            CachedStatement cached = statements.get(key);
+            if (cached != null && !cached.inUse) {
+                statementCacheHits.increment();
+                cached.inUse = true;
+                return cached.proxy;
+            }
+
+            statementCacheMisses.increment();
+            PreparedStatement statement = autoGeneratedKeys == null
+                    ? connection.prepareStatement(sql)
+                    : connection.prepareStatement(sql, autoGeneratedKeys);
+            if (cached != null) {
+                return statement;
+            }
+
+            cached = new CachedStatement(statement);
+            cached.inUse = true;
+            statements.put(key, cached);
+            return cached.proxy;
+        }
+
+        void releaseStatements() throws SQLException {
+            for (CachedStatement cached : new ArrayList<>(statements.values())) {
+                if (cached.inUse) {
+                    cached.release();
+                }
+            }
+        }
+    }
+
+
+    /**
+     * A prepared statement kept open in a PhysicalConnection's cache. Its proxy forwards every call to the
+     * statement, except close(), which resets the statement so it can be handed out again.
+     */
+    private static class CachedStatement implements InvocationHandler {
+        final PreparedStatement statement;
+        final PreparedStatement proxy;
+        boolean inUse;
+        boolean evicted;
+
+        CachedStatement(PreparedStatement statement) {
+            this.statement = statement;
+            this.proxy = (PreparedStatement) Proxy.newProxyInstance(
+                    PreparedStatement.class.getClassLoader(), new Class<?>[] { PreparedStatement.class }, this);
+        }
+
+        void release() throws SQLException {
+            inUse = false;
+            if (evicted) {
+                statement.close();
+                return;
+            }
+            ResultSet rs = statement.getResultSet();
+            if (rs != null) {
+                rs.close();
+            }
+            statement.clearParameters();
+            statement.clearBatch();
+        }
+
+        void evict() {
+            evicted = true;
+            if (!inUse) {
+                try {
+                    statement.close();
+                } catch (SQLException e) {
+                    System.out.println(e.getMessage());
+                }
+            }
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (inUse) {
+                        release();
+                    }
+                    return null;
+                case "isClosed":
+                    return !inUse || statement.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    break;
+            }
+
+            if (!inUse) {
+                throw new SQLException("Statement has already been closed");
+            }
+
+            try {
+                return method.invoke(statement, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+
+    /**
+     * One borrowing of a physical connection. The proxy forwards every call to the physical connection, except
+     * close(), which hands it back to the pool.
+     */
+    private class PooledConnection implements InvocationHandler {
+        final PhysicalConnection physical;
+        final Throwable acquiredAt;
+        final long borrowedAt = System.currentTimeMillis();
+        final LatencyHistogram heldTimes;
+        final Connection proxy;
+        long borrowedAtNanos;
+        volatile boolean closed;
+        volatile boolean leakReported;
+
+        PooledConnection(PhysicalConnection physical, Throwable acquiredAt, LatencyHistogram heldTimes) {
+            this.physical = physical;
+            this.acquiredAt = acquiredAt;
+            this.heldTimes = heldTimes;
+            this.proxy = (Connection) Proxy.newProxyInstance(
+                    Connection.class.getClassLoader(), new Class<?>[] { Connection.class }, this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!closed) {
+                        closed = true;
+                        release(this);
+                    }
+                    return null;
+                case "isClosed":
+                    return closed || physical.connection.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "PooledConnection[" + physical.connection + "]";
+                default:
+                    break;
+            }
+
+            if (closed) {
+                throw new SQLException("Connection has already been returned to the pool");
+            }
+
+            Object result;
+            // prepareStatement(sql) and prepareStatement(sql, autoGeneratedKeys) go through the statement cache
+            if (statementCacheSize > 0 && method.getName().equals("prepareStatement")
+                    && (args.length == 1 || (args.length == 2 && args[1] instanceof Integer))) {
+                result = physical.prepareStatement((String) args[0], args.length == 2 ? (Integer) args[1] : null);
+            } else {
+                try {
+                    result = method.invoke(physical.connection, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+
+            StatementProfiler profiler = statementProfiler;
+            if (profiler != null && method.getName().equals("prepareStatement")) {
+                return profiler.wrap((PreparedStatement) result, (String) args[0]);
+            }
+            return result;
+        }
+    }
+}
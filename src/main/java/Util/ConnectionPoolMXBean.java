@@ -0,0 +1,66 @@
+package Util;
+
+/**
+ * Management interface of the ConnectionPool. ConnectionUtil registers the pool with the platform MBeanServer under
+ * "SocialMedia:type=ConnectionPool", so these values can be watched from jconsole/VisualVM or any JMX exporter.
+ */
+public interface ConnectionPoolMXBean {
+
+    /**
+     * @return the number of physical connections currently open, both idle and in use
+     */
+    int getTotalConnections();
+
+    /**
+     * @return the number of open connections sitting in the pool waiting to be borrowed
+     */
+    int getIdleConnections();
+
+    /**
+     * @return the number of connections currently borrowed by callers
+     */
+    int getActiveConnections();
+
+    /**
+     * @return the number of threads currently blocked waiting for a connection
+     */
+    int getThreadsAwaitingConnection();
+
+    int getMinIdle();
+
+    int getMaxSize();
+
+    /**
+     * @return the total number of successful getConnection() calls
+     */
+    long getConnectionsAcquired();
+
+    /**
+     * @return the number of getConnection() calls that gave up after the acquire timeout
+     */
+    long getAcquireTimeouts();
+
+    long getConnectionsCreated();
+
+    long getConnectionsDestroyed();
+
+    /**
+     * @return the number of borrowed connections that were held longer than the leak detection threshold
+     */
+    long getLeaksDetected();
+
+    /**
+     * @return the number of prepareStatement() calls answered with an already prepared statement
+     */
+    long getStatementCacheHits();
+
+    /**
+     * @return the number of prepareStatement() calls that had to have the database parse and plan the SQL
+     */
+    long getStatementCacheMisses();
+
+    /**
+     * @return the mean time in milliseconds a caller waited inside getConnection()
+     */
+    double getAverageAcquireMillis();
+}
@@ -2,9 +2,13 @@ package Util;
 
 import java.io.FileNotFoundException;
 import java.io.FileReader;
+import java.lang.management.ManagementFactory;
 import java.sql.Connection;
 import java.sql.SQLException;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+
 import org.h2.jdbcx.JdbcDataSource;
 import org.h2.tools.RunScript;
 
@@ -13,15 +17,17 @@ import org.h2.tools.RunScript;
  * our database. This class utilizes the singleton design pattern. We will be
  * utilizing an in-memory called h2database for the sql demos.
  *
- * DO NOT CHANGE ANYTHING IN THIS CLASS
+ * Connections are handed out by a bounded ConnectionPool. Callers must close()
+ * the connection they got from getConnection() to return it to the pool.
  */
 public class ConnectionUtil {
 
 	/**
 	 * url will represent our connection string. Since this is an in-memory db, we
-	 * will represent a file location to store the data
+	 * will represent a file location to store the data. It can be pointed somewhere
+	 * else with the socialmedia.db.url setting, eg so benchmarks don't touch ./h2.
 	 */
-	private static String url = "jdbc:h2:./h2/db;";
+	private static String url = ConfigUtil.getString("socialmedia.db.url", "jdbc:h2:./h2/db;");
 	/**
 	 * Default username for connecting to h2
 	 */
@@ -32,21 +38,58 @@ public class ConnectionUtil {
 	private static String password = "sa";
 
 	/**
-	 * DataSource for pooling. Pooling enables the creation of multiple connections when connections are closed.
+	 * DataSource the pool opens its physical connections from.
+	 */
+	private static JdbcDataSource dataSource = new JdbcDataSource();
+
+	/**
+	 * Pool of connections shared by all DAOs. Sizing and timeouts can be tuned with the socialmedia.pool.* settings,
+	 * see ConfigUtil.
 	 */
-	private static JdbcDataSource pool = new JdbcDataSource();
+	private static ConnectionPool pool;
 
 	/**
 	 * static initialization block to establish credentials for DataSoure Pool
 	 */
 	static {
-		pool.setURL(url);
-		pool.setUser(username);
-		pool.setPassword(password);
+		dataSource.setURL(url);
+		dataSource.setUser(username);
+		dataSource.setPassword(password);
+
+		pool = new ConnectionPool(
+				dataSource,
+				ConfigUtil.getInt("socialmedia.pool.minIdle", 2),
+				ConfigUtil.getInt("socialmedia.pool.maxSize", 10),
+				ConfigUtil.getLong("socialmedia.pool.acquireTimeoutMillis", 5000),
+				ConfigUtil.getLong("socialmedia.pool.idleTimeoutMillis", 60000),
+				ConfigUtil.getLong("socialmedia.pool.leakDetectionThresholdMillis", 30000),
+				ConfigUtil.getInt("socialmedia.pool.validationTimeoutSeconds", 1),
+				ConfigUtil.getInt("socialmedia.pool.statementCacheSize", 64));
+		// Off by default: the profiler proxies every statement and result set it hands out
+		if (ConfigUtil.getBoolean("socialmedia.db.profiling.enabled", false)) {
+			pool.setStatementProfiler(new StatementProfiler(
+					ConfigUtil.getLong("socialmedia.db.slowQueryMillis", 100),
+					ConfigUtil.getBoolean("socialmedia.db.slowQueryExplain", true)));
+		}
+
+		try {
+			ManagementFactory.getPlatformMBeanServer()
+					.registerMBean(pool, new ObjectName("SocialMedia:type=ConnectionPool"));
+		} catch (JMException e) {
+			System.out.println("Could not register connection pool MBean: " + e.getMessage());
+		}
+		registerMetrics();
+
+		try (Connection connection = pool.getConnection()) {
+			SchemaMigrator.migrate(connection);
+		} catch (SQLException e) {
+			System.out.println("Could not migrate the database schema: " + e.getMessage());
+		}
 	}
 
 	/**
-	 * @return an active connection to the database
+	 * @return an active connection to the database, which must be closed to return it to the pool,
+	 * or null if none could be obtained
 	 */
 	public static Connection getConnection() {
 		try {
@@ -58,15 +101,89 @@ public class ConnectionUtil {
 		return null;
 	}
 
+	/**
+	 * @param queryTimes a histogram from queryTimer(), which gets how long the connection was held once it is closed
+	 * @return an active connection to the database, which must be closed to return it to the pool,
+	 * or null if none could be obtained
+	 */
+	public static Connection getConnection(LatencyHistogram queryTimes) {
+		try {
+			return pool.getConnection(queryTimes);
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+
+		return null;
+	}
+
+	/**
+	 * @param dao the DAO class, eg MessageDAO
+	 * @param method the DAO method
+	 * @return the histogram of the method's query times, to pass to getConnection()
+	 */
+	public static LatencyHistogram queryTimer(String dao, String method) {
+		return Metrics.getDefault().histogram("socialmedia_dao_query_duration_seconds",
+				"Time a DAO method held its database connection, from acquiring it to closing it.",
+				"dao", dao, "method", method);
+	}
+
+	/**
+	 * @return the statistics of every statement the DAOs ran, or null unless socialmedia.db.profiling.enabled is true
+	 */
+	public static StatementProfiler getStatementProfiler() {
+		return pool.getStatementProfiler();
+	}
+
+	/**
+	 * @return the connection pool, for reading its metrics
+	 */
+	public static ConnectionPool getPool() {
+		return pool;
+	}
+
+	/**
+	 * Expose the pool's state and acquire times on /metrics.
+	 */
+	private static void registerMetrics() {
+		Metrics metrics = Metrics.getDefault();
+		metrics.histogram("socialmedia_db_connection_acquire_duration_seconds",
+				"Time getConnection() waited for a connection, including validating or opening it.",
+				pool.getAcquireTimes());
+		metrics.gauge("socialmedia_db_connections_active", "Connections currently borrowed.",
+				pool::getActiveConnections);
+		metrics.gauge("socialmedia_db_connections_idle", "Open connections waiting to be borrowed.",
+				pool::getIdleConnections);
+		metrics.gauge("socialmedia_db_connections_max", "Maximum number of connections that can be borrowed.",
+				pool::getMaxSize);
+		metrics.gauge("socialmedia_db_connections_pending", "Threads waiting for a connection.",
+				pool::getThreadsAwaitingConnection);
+		metrics.counter("socialmedia_db_connection_timeouts_total",
+				"getConnection() calls that gave up after the acquire timeout.", pool::getAcquireTimeouts);
+		metrics.counter("socialmedia_db_statement_cache_hits_total",
+				"prepareStatement() calls answered with an already prepared statement.", pool::getStatementCacheHits);
+		metrics.counter("socialmedia_db_statement_cache_misses_total",
+				"prepareStatement() calls the database had to parse and plan.", pool::getStatementCacheMisses);
+		if (pool.getStatementProfiler() != null) {
+			metrics.counter("socialmedia_db_slow_statements_total",
+					"Statements that took longer than socialmedia.db.slowQueryMillis.",
+					pool.getStatementProfiler()::getSlowStatements);
+		}
+	}
+
 	/**
 	 * For the purpose of testing, we will need to drop and recreate our database
 	 * tables to keep it consistent across all tests. The method will read the sql
-	 * file in resources. This will be performed before every test.
+	 * file in resources, then apply the schema migrations (indexes etc) on top of it.
+	 * This will be performed before every test.
 	 */
 	public static void resetTestDatabase() {
-		try {
+		// Tests are allowed to leave connections open, so take all of them back before rebuilding the tables
+		pool.evictAll();
+
+		try (Connection connection = getConnection()) {
 			FileReader sqlReader = new FileReader("src/main/resources/SocialMedia.sql");
-			RunScript.execute(getConnection(), sqlReader);
+			RunScript.execute(connection, sqlReader);
+			SchemaMigrator.migrate(connection);
 		} catch (SQLException | FileNotFoundException e) {
 			e.printStackTrace();
 		}
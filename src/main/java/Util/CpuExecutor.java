@@ -0,0 +1,110 @@
+package Util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * A fixed-size pool of threads that run CPU-bound work, such as hashing a password, so it doesn't hold one of the
+ * DatabaseExecutor's threads (and, indirectly, a connection's worth of database capacity) while it computes.
+ *
+ * Like DatabaseExecutor, the queue is bounded and a full queue fails the future with a RejectedExecutionException,
+ * which the controller answers with a 503.
+ *
+ * Sizing: the work never blocks, so more threads than cores only adds context switches.
+ */
+public class CpuExecutor implements AutoCloseable {
+
+    private static CpuExecutor shared;
+
+    private final ThreadPoolExecutor executor;
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * @param threads number of threads running CPU-bound work
+     * @param queueCapacity how much work may wait for a thread before further work is rejected
+     */
+    public CpuExecutor(int threads, int queueCapacity) {
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "cpu-executor-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * @return the executor shared by the services, sized by the socialmedia.cpu.executor.* settings
+     */
+    public static synchronized CpuExecutor getShared() {
+        if (shared == null) {
+            shared = new CpuExecutor(
+                    ConfigUtil.getInt("socialmedia.cpu.executor.threads", Runtime.getRuntime().availableProcessors()),
+                    ConfigUtil.getInt("socialmedia.cpu.executor.queueCapacity", 1000));
+            shared.registerMetrics(Metrics.getDefault());
+        }
+        return shared;
+    }
+
+
+    /**
+     * Run a CPU-bound call on one of the pool's threads.
+     *
+     * @param work the call to run
+     * @return completes with the call's result, or exceptionally with a RejectedExecutionException if the queue
+     * is full
+     */
+    public <T> CompletableFuture<T> supplyAsync(Supplier<T> work) {
+        try {
+            return CompletableFuture.supplyAsync(work, executor);
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+
+    private void registerMetrics(Metrics metrics) {
+        metrics.gauge("socialmedia_cpu_executor_queued", "CPU-bound calls waiting for a thread.",
+                this::getQueuedTasks);
+        metrics.gauge("socialmedia_cpu_executor_active", "Threads running a CPU-bound call.",
+                this::getActiveThreads);
+        metrics.counter("socialmedia_cpu_executor_rejected_total",
+                "CPU-bound calls rejected (503) because the queue was full.", this::getRejectedTasks);
+    }
+
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    /**
+     * @return number of calls waiting for a thread
+     */
+    public int getQueuedTasks() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * @return number of threads currently running a call
+     */
+    public int getActiveThreads() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * @return number of calls rejected because the queue was full
+     */
+    public long getRejectedTasks() {
+        return rejected.sum();
+    }
+}
@@ -0,0 +1,126 @@
+package Util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * A fixed-size pool of threads that run blocking database work, so request threads can hand off a service call and
+ * be freed until it completes.
+ *
+ * The queue in front of the threads is bounded. When it is full, supplyAsync() returns a future that has already
+ * failed with a RejectedExecutionException instead of queueing the work, so an overloaded database sheds load
+ * (the controller answers 503) rather than building an ever longer backlog.
+ *
+ * Sizing: the threads mostly wait on JDBC, so there is no point having more of them than the connection pool has
+ * connections.
+ */
+public class DatabaseExecutor implements AutoCloseable {
+
+    private static DatabaseExecutor shared;
+
+    private final ThreadPoolExecutor executor;
+    private final LongAdder rejected = new LongAdder();
+    private final LatencyHistogram queueWaitTimes = new LatencyHistogram();
+
+    /**
+     * @param threads number of threads running database work
+     * @param queueCapacity how much work may wait for a thread before further work is rejected
+     */
+    public DatabaseExecutor(int threads, int queueCapacity) {
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "database-executor-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * @return the executor shared by the services, sized by the socialmedia.db.executor.* settings
+     */
+    public static synchronized DatabaseExecutor getShared() {
+        if (shared == null) {
+            shared = new DatabaseExecutor(
+                    ConfigUtil.getInt("socialmedia.db.executor.threads", ConnectionUtil.getPool().getMaxSize()),
+                    ConfigUtil.getInt("socialmedia.db.executor.queueCapacity", 1000));
+            shared.registerMetrics(Metrics.getDefault());
+        }
+        return shared;
+    }
+
+
+    /**
+     * Run a blocking call on one of the database threads.
+     *
+     * @param work the call to run
+     * @return completes with the call's result, or exceptionally with a RejectedExecutionException if the queue
+     * is full
+     */
+    public <T> CompletableFuture<T> supplyAsync(Supplier<T> work) {
+        long queuedAt = System.nanoTime();
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                queueWaitTimes.record(System.nanoTime() - queuedAt);
+                return work.get();
+            }, executor);
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+
+    private void registerMetrics(Metrics metrics) {
+        metrics.histogram("socialmedia_db_executor_queue_wait_seconds",
+                "Time a service call waited in the queue for a database thread.", queueWaitTimes);
+        metrics.gauge("socialmedia_db_executor_queued", "Service calls waiting for a database thread.",
+                this::getQueuedTasks);
+        metrics.gauge("socialmedia_db_executor_active", "Database threads running a service call.",
+                this::getActiveThreads);
+        metrics.counter("socialmedia_db_executor_rejected_total",
+                "Service calls rejected (503) because the queue was full.", this::getRejectedTasks);
+    }
+
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    /**
+     * @return number of calls waiting for a database thread
+     */
+    public int getQueuedTasks() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * @return number of database threads currently running a call
+     */
+    public int getActiveThreads() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * @return number of calls rejected because the queue was full
+     */
+    public long getRejectedTasks() {
+        return rejected.sum();
+    }
+
+    /**
+     * @return how long calls waited in the queue before a database thread picked them up
+     */
+    public LatencyHistogram getQueueWaitTimes() {
+        return queueWaitTimes;
+    }
+}
@@ -0,0 +1,77 @@
+package Util;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.fasterxml.jackson.annotation.JsonFilter;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
+
+import Model.Account;
+import Model.Message;
+import Model.MessageFields;
+import Model.MessagePage;
+
+/**
+ * The JsonUtil class holds the one ObjectMapper used by the application, together with readers and writers for the
+ * types we send and receive.
+ *
+ * An ObjectMapper caches the (de)serializers it builds for each class, so it should be created once and shared rather
+ * than created per request. ObjectReader and ObjectWriter are immutable and thread-safe, and building them up front
+ * also skips the type lookup on every call.
+ *
+ * Messages go through a property filter so a response can carry only the fields a client asked for (see
+ * MessageFields); the writers below write every field.
+ */
+public class JsonUtil {
+
+    private static final String MESSAGE_FILTER = "messageFields";
+
+    public static final ObjectMapper MAPPER = new ObjectMapper()
+            .addMixIn(Message.class, MessageFilterMixIn.class)
+            .setFilterProvider(new SimpleFilterProvider().setDefaultFilter(SimpleBeanPropertyFilter.serializeAll()));
+
+    public static final JavaType MESSAGE_LIST_TYPE = MAPPER.getTypeFactory()
+            .constructType(new TypeReference<List<Message>>() {});
+    public static final JavaType MESSAGE_PAGE_TYPE = MAPPER.constructType(MessagePage.class);
+
+    public static final ObjectReader ACCOUNT_READER = MAPPER.readerFor(Account.class);
+    public static final ObjectReader MESSAGE_READER = MAPPER.readerFor(Message.class);
+    public static final ObjectReader MESSAGE_LIST_READER = MAPPER.readerFor(MESSAGE_LIST_TYPE);
+
+    public static final ObjectWriter ACCOUNT_WRITER = MAPPER.writerFor(Account.class);
+    public static final ObjectWriter MESSAGE_WRITER = MAPPER.writerFor(Message.class);
+    public static final ObjectWriter MESSAGE_LIST_WRITER = MAPPER.writerFor(MESSAGE_LIST_TYPE);
+    public static final ObjectWriter MESSAGE_PAGE_WRITER = MAPPER.writerFor(MESSAGE_PAGE_TYPE);
+
+    private static final Map<MessageFields, ObjectWriter> PROJECTION_WRITERS = new ConcurrentHashMap<>();
+
+    private JsonUtil() {
+    }
+
+    /**
+     * @param fields the message fields to write
+     * @return a writer that writes only the given fields of every Message in the value, whatever its type; use
+     * forType() on it like on MAPPER.writer()
+     */
+    public static ObjectWriter projectionWriter(MessageFields fields) {
+        if (fields.isAll()) {
+            return MAPPER.writer();
+        }
+        return PROJECTION_WRITERS.computeIfAbsent(fields, f -> MAPPER.writer(new SimpleFilterProvider()
+                .addFilter(MESSAGE_FILTER, SimpleBeanPropertyFilter.filterOutAllExcept(f.getNames()))));
+    }
+
+    /**
+     * Puts Message behind the message filter without touching the Message class.
+     */
+    @JsonFilter(MESSAGE_FILTER)
+    private static class MessageFilterMixIn {
+    }
+}
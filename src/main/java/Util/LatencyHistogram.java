@@ -0,0 +1,93 @@
+package Util;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts durations into fixed buckets, the way a Prometheus histogram exposes them.
+ *
+ * record() is cheap enough to call on every request and query: it finds the bucket with a short scan over a
+ * constant array and increments two LongAdders, so it never allocates or takes a lock, and threads recording at the
+ * same time don't contend on one counter. Reads (for /metrics) add up the adders and are not atomic with respect to
+ * concurrent records, which is fine for monitoring.
+ */
+public class LatencyHistogram {
+
+    /**
+     * Upper bounds of the buckets in seconds, 100us to 10s; slower durations land in the +Inf bucket.
+     */
+    private static final double[] BOUNDS_SECONDS = {
+            0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10
+    };
+    private static final long[] BOUNDS_NANOS = new long[BOUNDS_SECONDS.length];
+
+    static {
+        for (int i = 0; i < BOUNDS_SECONDS.length; i++) {
+            BOUNDS_NANOS[i] = Math.round(BOUNDS_SECONDS[i] * 1_000_000_000L);
+        }
+    }
+
+    /**
+     * Durations per bucket (not cumulative); the last one is +Inf.
+     */
+    private final LongAdder[] buckets = new LongAdder[BOUNDS_NANOS.length + 1];
+    private final LongAdder sumNanos = new LongAdder();
+
+    public LatencyHistogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+
+    /**
+     * @param nanos a duration in nanoseconds, eg the difference of two System.nanoTime() calls
+     */
+    public void record(long nanos) {
+        int i = 0;
+        while (i < BOUNDS_NANOS.length && nanos > BOUNDS_NANOS[i]) {
+            i++;
+        }
+        buckets[i].increment();
+        sumNanos.add(nanos);
+    }
+
+
+    /**
+     * @return the bucket upper bounds in seconds, without +Inf
+     */
+    public static double[] getBoundsSeconds() {
+        return BOUNDS_SECONDS.clone();
+    }
+
+    /**
+     * @return the cumulative count of each bucket, as in Prometheus' le buckets; the last element is +Inf, ie the
+     * total count
+     */
+    public long[] cumulativeCounts() {
+        long[] counts = new long[buckets.length];
+        long total = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            total += buckets[i].sum();
+            counts[i] = total;
+        }
+        return counts;
+    }
+
+    /**
+     * @return number of durations recorded
+     */
+    public long getCount() {
+        long total = 0;
+        for (LongAdder bucket : buckets) {
+            total += bucket.sum();
+        }
+        return total;
+    }
+
+    /**
+     * @return sum of all durations recorded, in nanoseconds
+     */
+    public long getSumNanos() {
+        return sumNanos.sum();
+    }
+}
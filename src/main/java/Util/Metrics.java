@@ -0,0 +1,185 @@
+package Util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * A registry of counters, gauges and latency histograms, rendered in the Prometheus text format by scrape() for the
+ * GET /metrics endpoint.
+ *
+ * Metrics are registered once, eg into a static final field, and the handle that is returned (a LongAdder or a
+ * LatencyHistogram) is what the hot path updates, so recording never looks anything up or allocates. Registering
+ * the same name and labels again returns the metric already registered; a gauge or function counter registered
+ * again replaces the function, so it reports on the most recently created instance of whatever it observes.
+ *
+ * Labels are given as name, value pairs. Keep their values to a small fixed set (endpoint paths, DAO method names):
+ * every distinct combination is kept forever.
+ */
+public class Metrics {
+
+    private static final Metrics DEFAULT = new Metrics();
+
+    /**
+     * Families by name, in registration order; each maps its rendered label set to the metric.
+     */
+    private final Map<String, Family> families = new LinkedHashMap<>();
+
+    /**
+     * @return the registry the application's metrics are registered in
+     */
+    public static Metrics getDefault() {
+        return DEFAULT;
+    }
+
+
+    /**
+     * @param name metric name, ending in _total
+     * @return a counter for the caller to increment
+     */
+    public LongAdder counter(String name, String help, String... labels) {
+        return (LongAdder) register(name, help, "counter", labels, new LongAdder(), false);
+    }
+
+    /**
+     * A counter whose value is kept elsewhere, eg the hit count of a cache.
+     *
+     * @param name metric name, ending in _total
+     * @param value reads the current count
+     */
+    public void counter(String name, String help, DoubleSupplier value, String... labels) {
+        register(name, help, "counter", labels, value, true);
+    }
+
+    /**
+     * @param value reads the current value, eg the number of connections in use
+     */
+    public void gauge(String name, String help, DoubleSupplier value, String... labels) {
+        register(name, help, "gauge", labels, value, true);
+    }
+
+    /**
+     * @param name metric name, ending in _seconds
+     * @return a histogram for the caller to record durations in
+     */
+    public LatencyHistogram histogram(String name, String help, String... labels) {
+        return (LatencyHistogram) register(name, help, "histogram", labels, new LatencyHistogram(), false);
+    }
+
+    /**
+     * Expose a histogram that is owned by someone else, eg the connection pool's acquire times.
+     */
+    public void histogram(String name, String help, LatencyHistogram histogram, String... labels) {
+        register(name, help, "histogram", labels, histogram, true);
+    }
+
+
+    /**
+     * @return every metric in the Prometheus text exposition format (version 0.0.4)
+     */
+    public synchronized String scrape() {
+        StringBuilder out = new StringBuilder(8192);
+        for (Family family : families.values()) {
+            out.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n');
+            for (Map.Entry<String, Object> series : family.series.entrySet()) {
+                String labels = series.getKey();
+                Object metric = series.getValue();
+                if (metric instanceof LatencyHistogram) {
+                    writeHistogram(out, family.name, labels, (LatencyHistogram) metric);
+                } else {
+                    double value = metric instanceof LongAdder
+                            ? ((LongAdder) metric).sum()
+                            : ((DoubleSupplier) metric).getAsDouble();
+                    writeSample(out, family.name, labels, value);
+                }
+            }
+        }
+        return out.toString();
+    }
+
+
+    private synchronized Object register(String name, String help, String type, String[] labels, Object metric,
+            boolean replace) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be name, value pairs");
+        }
+        Family family = families.computeIfAbsent(name, key -> new Family(name, help, type));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException(name + " is already registered as a " + family.type);
+        }
+
+        String labelText = labelText(labels);
+        Object existing = family.series.get(labelText);
+        if (existing != null && !replace) {
+            return existing;
+        }
+        family.series.put(labelText, metric);
+        return metric;
+    }
+
+    private static String labelText(String[] labels) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                text.append(',');
+            }
+            text.append(labels[i]).append("=\"");
+            String value = labels[i + 1];
+            for (int c = 0; c < value.length(); c++) {
+                char ch = value.charAt(c);
+                if (ch == '\\' || ch == '"') {
+                    text.append('\\').append(ch);
+                } else if (ch == '\n') {
+                    text.append("\\n");
+                } else {
+                    text.append(ch);
+                }
+            }
+            text.append('"');
+        }
+        return text.toString();
+    }
+
+    private static void writeHistogram(StringBuilder out, String name, String labels, LatencyHistogram histogram) {
+        double[] bounds = LatencyHistogram.getBoundsSeconds();
+        long[] counts = histogram.cumulativeCounts();
+        String prefix = labels.isEmpty() ? "" : labels + ",";
+        for (int i = 0; i < bounds.length; i++) {
+            writeSample(out, name + "_bucket", prefix + "le=\"" + bounds[i] + "\"", counts[i]);
+        }
+        long count = counts[counts.length - 1];
+        writeSample(out, name + "_bucket", prefix + "le=\"+Inf\"", count);
+        writeSample(out, name + "_sum", labels, histogram.getSumNanos() / 1e9);
+        writeSample(out, name + "_count", labels, count);
+    }
+
+    private static void writeSample(StringBuilder out, String name, String labels, double value) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ');
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            out.append((long) value);
+        } else {
+            out.append(value);
+        }
+        out.append('\n');
+    }
+
+
+    private static class Family {
+        final String name;
+        final String help;
+        final String type;
+        final Map<String, Object> series = new LinkedHashMap<>();
+
+        Family(String name, String help, String type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+    }
+}
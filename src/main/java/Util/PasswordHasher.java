@@ -0,0 +1,117 @@
+package Util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * Salted, slow password hashes (PBKDF2 with HMAC-SHA256), so a leaked account table doesn't give away passwords.
+ *
+ * A stored hash looks like pbkdf2-sha256$iterations$salt$hash, with salt and hash in base64. The iteration count is
+ * the cost factor: every doubling doubles the time one login takes, for us and for anyone guessing passwords. It
+ * is kept in each hash, so raising it doesn't invalidate existing hashes; needsRehash() tells the caller to
+ * re-hash a password with the current cost the next time it is known to be right.
+ *
+ * Anything not in that format is taken to be a plaintext password stored before hashing was introduced. It is
+ * compared directly, and needsRehash() is true for it.
+ */
+public class PasswordHasher {
+
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final String PREFIX = "pbkdf2-sha256$";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final int iterations;
+
+    /**
+     * @param iterations the PBKDF2 iteration count used for new hashes
+     */
+    public PasswordHasher(int iterations) {
+        this.iterations = Math.max(1, iterations);
+    }
+
+    /**
+     * @return a hasher with the cost set by socialmedia.password.iterations
+     */
+    public static PasswordHasher fromConfig() {
+        return new PasswordHasher(ConfigUtil.getInt("socialmedia.password.iterations", 100_000));
+    }
+
+
+    /**
+     * @param password a plaintext password
+     * @return its salted hash, to be stored
+     */
+    public String hash(String password) {
+        byte[] salt = new byte[SALT_BYTES];
+        RANDOM.nextBytes(salt);
+        byte[] hash = pbkdf2(password, salt, iterations);
+        return PREFIX + iterations + "$" + Base64.getEncoder().encodeToString(salt)
+                + "$" + Base64.getEncoder().encodeToString(hash);
+    }
+
+
+    /**
+     * @param password the password a user gave
+     * @param stored the stored hash, or a legacy plaintext password
+     * @return true if the password is the one stored; the comparison takes the same time however many
+     * characters match
+     */
+    public boolean verify(String password, String stored) {
+        if (password == null || stored == null) {
+            return false;
+        }
+        if (!stored.startsWith(PREFIX)) {
+            return MessageDigest.isEqual(password.getBytes(StandardCharsets.UTF_8),
+                    stored.getBytes(StandardCharsets.UTF_8));
+        }
+
+        String[] parts = stored.substring(PREFIX.length()).split("\\$");
+        if (parts.length != 3) {
+            return false;
+        }
+        try {
+            int storedIterations = Integer.parseInt(parts[0]);
+            byte[] salt = Base64.getDecoder().decode(parts[1]);
+            byte[] expected = Base64.getDecoder().decode(parts[2]);
+            return MessageDigest.isEqual(expected, pbkdf2(password, salt, storedIterations));
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+
+    /**
+     * @param stored a stored hash or legacy plaintext password that a password was just verified against
+     * @return true if it should be replaced by hash() of that password: it is plaintext, or uses a different
+     * iteration count than the current one
+     */
+    public boolean needsRehash(String stored) {
+        return stored == null || !stored.startsWith(PREFIX + iterations + "$");
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+
+    private static byte[] pbkdf2(String password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            // Every Java 8+ runtime has PBKDF2WithHmacSHA256
+            throw new IllegalStateException(ALGORITHM + " is not available", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package Util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A token bucket per key (an account, a client address), allowing ratePerSecond requests on average with bursts of
+ * up to burst requests.
+ *
+ * Implemented as the generic cell rate algorithm: instead of a token count and a refill time, each key has one long,
+ * the time at which its bucket will be full again. A request is allowed if that time is less than the burst
+ * tolerance ahead of now, and moves it one emission interval further. So a check is a read and a compareAndSet on
+ * one AtomicLongArray slot: no lock, no allocation, and no background refill.
+ *
+ * Keys are hashed into a fixed number of stripes rather than kept in a map, so memory doesn't grow with the number
+ * of clients (or with an attacker making up addresses) and nothing needs expiring. Two keys that land in the same
+ * stripe share a bucket; with many more stripes than active keys that is rare, and it can only make the limit
+ * stricter for them, never looser.
+ */
+public class RateLimiter {
+
+    private final int burst;
+    private final long emissionIntervalNanos;
+    private final long burstToleranceNanos;
+    private final AtomicLongArray stripes;
+    private final int mask;
+    /**
+     * System.nanoTime() can be negative; times are kept relative to this so that 0 (an unused stripe) is in the past.
+     */
+    private final long origin = System.nanoTime();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * @param ratePerSecond requests per second allowed per key on average
+     * @param burst requests a key can make at once after being idle
+     * @param stripes number of buckets keys are hashed into, rounded up to a power of two
+     */
+    public RateLimiter(double ratePerSecond, int burst, int stripes) {
+        if (ratePerSecond <= 0) {
+            throw new IllegalArgumentException("ratePerSecond must be positive");
+        }
+        this.burst = Math.max(1, burst);
+        this.emissionIntervalNanos = Math.max(1, (long) (1_000_000_000L / ratePerSecond));
+        this.burstToleranceNanos = emissionIntervalNanos * (this.burst - 1);
+        int size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        this.stripes = new AtomicLongArray(size);
+        this.mask = size - 1;
+    }
+
+
+    /**
+     * @param key eg an account_id, or the hash of a client address
+     * @return 0 if the request is allowed, otherwise how many nanoseconds until it would be
+     */
+    public long tryAcquire(long key) {
+        return tryAcquire(key, 1);
+    }
+
+    /**
+     * More permits than the burst are allowed once the key's bucket is full, and are still charged in full: the
+     * bucket's schedule moves that far into the future, so the key's later requests wait until the whole request
+     * has been paid for at the sustained rate. Otherwise a request bigger than the burst could never succeed.
+     *
+     * @param permits how many requests this counts as, eg the number of messages in a batch
+     * @return 0 if the requests are allowed, otherwise how many nanoseconds until they would be
+     */
+    public long tryAcquire(long key, int permits) {
+        int stripe = stripe(key);
+        long increment = increment(permits);
+        while (true) {
+            long now = System.nanoTime() - origin;
+            long fullAt = stripes.get(stripe);
+            long start = Math.max(fullAt, now);
+            long newFullAt = start + increment;
+            long wait = permits > burst ? fullAt - now : newFullAt - now - burstToleranceNanos - emissionIntervalNanos;
+            if (wait > 0) {
+                rejected.increment();
+                return wait;
+            }
+            if (stripes.compareAndSet(stripe, fullAt, newFullAt)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Give back permits taken by tryAcquire that weren't used after all, eg because another key of the same
+     * request was refused.
+     *
+     * @param permits the number passed to tryAcquire
+     */
+    public void release(long key, int permits) {
+        int stripe = stripe(key);
+        long increment = increment(permits);
+        while (true) {
+            long fullAt = stripes.get(stripe);
+            if (stripes.compareAndSet(stripe, fullAt, fullAt - increment)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return number of requests refused since the limiter was created
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+
+    private long increment(int permits) {
+        return emissionIntervalNanos * Math.max(1, permits);
+    }
+
+    private int stripe(long key) {
+        // Mix the bits (the MurmurHash3 finalizer) so sequential account ids and similar hashes spread out
+        long h = key;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb3f9fe1a85ecL;
+        h ^= h >>> 33;
+        return (int) h & mask;
+    }
+}
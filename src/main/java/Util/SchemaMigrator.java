@@ -0,0 +1,117 @@
+package Util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.h2.tools.RunScript;
+
+/**
+ * The SchemaMigrator class brings a database's schema up to date. Each change to the schema is a script in
+ * src/main/resources/db/migration named V{version}__{description}.sql, and is listed in MIGRATIONS. The versions
+ * already applied to a database are recorded in its schema_version table, so every script runs once, in version
+ * order.
+ *
+ * Scripts are never edited once they have been released: to change the schema, add a new script to the end.
+ * H2 commits DDL as it runs it, so a script that fails halfway can't be fully rolled back; write scripts with
+ * IF NOT EXISTS so they can simply be re-run.
+ */
+public class SchemaMigrator {
+
+    /**
+     * Every migration, in the order they are applied.
+     */
+    static final List<String> MIGRATIONS = List.of(
+            "V1__create_tables.sql",
+            "V2__message_timeline_index.sql",
+            "V3__account_login_index.sql",
+            "V4__drop_account_login_index.sql");
+
+    private static final String MIGRATION_PATH = "db/migration/";
+
+    private SchemaMigrator() {
+    }
+
+    /**
+     * Apply every migration that hasn't been applied to the database yet.
+     *
+     * @param connection a connection to the database to migrate
+     * @return the number of migrations applied
+     * @throws SQLException if a migration fails; later migrations are not attempted
+     */
+    public static int migrate(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE IF NOT EXISTS schema_version ("
+                    + "version int primary key, "
+                    + "script varchar(255), "
+                    + "installed_on timestamp default current_timestamp);");
+        }
+
+        Set<Integer> applied = new HashSet<>();
+        try (Statement statement = connection.createStatement();
+                ResultSet rs = statement.executeQuery("SELECT version FROM schema_version;")) {
+            while (rs.next()) {
+                applied.add(rs.getInt("version"));
+            }
+        }
+
+        int count = 0;
+        for (String script : MIGRATIONS) {
+            int version = versionOf(script);
+            if (applied.contains(version)) {
+                continue;
+            }
+            apply(connection, version, script);
+            count++;
+        }
+        return count;
+    }
+
+    private static void apply(Connection connection, int version, String script) throws SQLException {
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try (Reader reader = open(script)) {
+            RunScript.execute(connection, reader);
+
+            String sql = "INSERT INTO schema_version (version, script) VALUES (?, ?);";
+            try (PreparedStatement ps = connection.prepareStatement(sql)) {
+                ps.setInt(1, version);
+                ps.setString(2, script);
+                ps.executeUpdate();
+            }
+
+            connection.commit();
+        } catch (SQLException | IOException e) {
+            connection.rollback();
+            throw new SQLException("Migration " + script + " failed: " + e.getMessage(), e);
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    private static Reader open(String script) throws IOException {
+        InputStream in = SchemaMigrator.class.getClassLoader().getResourceAsStream(MIGRATION_PATH + script);
+        if (in == null) {
+            throw new IOException("missing resource " + MIGRATION_PATH + script);
+        }
+        return new InputStreamReader(in, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param script a file name like V2__add_index.sql
+     * @return the version number in it, eg 2
+     */
+    static int versionOf(String script) {
+        return Integer.parseInt(script.substring(1, script.indexOf("__")));
+    }
+}
@@ -0,0 +1,320 @@
+package Util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Times every prepared statement the connection pool hands out and keeps statistics per SQL text: how often it ran,
+ * total, mean and max execution time, rows returned (or updated) and errors.
+ *
+ * SQL is normalized before it is counted: literals become ?, whitespace is collapsed and a trailing ; dropped, so
+ * the same query with different constants is one entry. DAO queries already use ? parameters, so in practice there
+ * is one entry per DAO query (and per field projection).
+ *
+ * A statement that takes longer than the slow threshold is logged with its SQL and H2's EXPLAIN plan for it. The
+ * plan is taken on the statement's own connection the first time the statement is slow, and kept for PLAN_TTL_MILLIS
+ * so a hot slow query isn't explained on every execution.
+ *
+ * Time is that of the execute call. For a query H2 reads the result then, except for streamed queries (a fetch
+ * size), whose rows are read as the caller iterates and are not included.
+ */
+public class StatementProfiler {
+
+    private static final long PLAN_TTL_MILLIS = 5 * 60 * 1000;
+    /**
+     * Upper bound on the raw SQL strings remembered for the normalization shortcut; beyond it, SQL built at runtime
+     * is normalized on every execution instead.
+     */
+    private static final int MAX_CACHED_SQL = 10_000;
+
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+    private static final Pattern NUMBER_LITERAL = Pattern.compile("\\b\\d+(?:\\.\\d+)?\\b");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final long slowThresholdNanos;
+    private final boolean explainSlow;
+
+    /**
+     * Stats by normalized SQL, and a shortcut from the SQL as prepared to its stats.
+     */
+    private final ConcurrentHashMap<String, QueryStats> stats = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, QueryStats> bySql = new ConcurrentHashMap<>();
+    private final LongAdder slowStatements = new LongAdder();
+
+    /**
+     * @param slowThresholdMillis statements taking longer than this are logged
+     * @param explainSlow whether the log includes the EXPLAIN plan of slow statements
+     */
+    public StatementProfiler(long slowThresholdMillis, boolean explainSlow) {
+        this.slowThresholdNanos = slowThresholdMillis * 1_000_000;
+        this.explainSlow = explainSlow;
+    }
+
+
+    /**
+     * @param statement a statement the pool is handing out
+     * @param sql the SQL it was prepared with
+     * @return a statement that times its executions
+     */
+    public PreparedStatement wrap(PreparedStatement statement, String sql) {
+        ProfiledStatement profiled = new ProfiledStatement(statement, statsFor(sql));
+        return (PreparedStatement) Proxy.newProxyInstance(
+                PreparedStatement.class.getClassLoader(), new Class<?>[] { PreparedStatement.class }, profiled);
+    }
+
+
+    /**
+     * @return the stats of every statement seen, the one with the most total time first
+     */
+    public List<QueryStats> snapshot() {
+        List<QueryStats> snapshot = new ArrayList<>(stats.values());
+        snapshot.sort(Comparator.comparingLong(QueryStats::getTotalNanos).reversed());
+        return snapshot;
+    }
+
+    /**
+     * Forget all stats and plans.
+     */
+    public void reset() {
+        bySql.clear();
+        stats.clear();
+    }
+
+    /**
+     * @return number of statement executions that took longer than the slow threshold
+     */
+    public long getSlowStatements() {
+        return slowStatements.sum();
+    }
+
+
+    /**
+     * @return the SQL with literals replaced by ?, whitespace collapsed and no trailing semicolon
+     */
+    public static String normalize(String sql) {
+        String normalized = STRING_LITERAL.matcher(sql).replaceAll("?");
+        normalized = NUMBER_LITERAL.matcher(normalized).replaceAll("?");
+        normalized = WHITESPACE.matcher(normalized).replaceAll(" ").trim();
+        while (normalized.endsWith(";")) {
+            normalized = normalized.substring(0, normalized.length() - 1).trim();
+        }
+        return normalized;
+    }
+
+
+    private QueryStats statsFor(String sql) {
+        QueryStats queryStats = bySql.get(sql);
+        if (queryStats != null) {
+            return queryStats;
+        }
+        queryStats = stats.computeIfAbsent(normalize(sql), QueryStats::new);
+        if (bySql.size() < MAX_CACHED_SQL) {
+            bySql.put(sql, queryStats);
+        }
+        return queryStats;
+    }
+
+
+    private void recordSlow(PreparedStatement statement, QueryStats queryStats, long nanos) {
+        slowStatements.increment();
+        queryStats.slow.increment();
+
+        String plan = null;
+        if (explainSlow) {
+            plan = queryStats.plan;
+            long now = System.currentTimeMillis();
+            if (plan == null || now - queryStats.planAt > PLAN_TTL_MILLIS) {
+                plan = explain(statement, queryStats.sql);
+                queryStats.plan = plan;
+                queryStats.planAt = now;
+            }
+        }
+
+        System.out.println("Slow statement (" + nanos / 1_000_000 + " ms): " + queryStats.sql
+                + (plan == null ? "" : "\n" + plan));
+    }
+
+    private static String explain(PreparedStatement statement, String sql) {
+        try {
+            Connection connection = statement.getConnection();
+            try (PreparedStatement explain = connection.prepareStatement("EXPLAIN " + sql);
+                    ResultSet rs = explain.executeQuery()) {
+                StringBuilder plan = new StringBuilder();
+                while (rs.next()) {
+                    plan.append(rs.getString(1));
+                }
+                return plan.toString();
+            }
+        } catch (SQLException e) {
+            return "EXPLAIN failed: " + e.getMessage();
+        }
+    }
+
+
+    /**
+     * The numbers of one normalized statement. Read by Jackson for GET /admin/queries.
+     */
+    public static class QueryStats {
+        final String sql;
+        final LongAdder count = new LongAdder();
+        final LongAdder totalNanos = new LongAdder();
+        final LongAccumulator maxNanos = new LongAccumulator(Long::max, 0);
+        final LongAdder rows = new LongAdder();
+        final LongAdder slow = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        volatile String plan;
+        volatile long planAt;
+
+        QueryStats(String sql) {
+            this.sql = sql;
+        }
+
+        void record(long nanos) {
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+        }
+
+        public String getSql() {
+            return sql;
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        long getTotalNanos() {
+            return totalNanos.sum();
+        }
+
+        public double getTotalMillis() {
+            return totalNanos.sum() / 1e6;
+        }
+
+        public double getMeanMillis() {
+            long executions = count.sum();
+            return executions == 0 ? 0 : totalNanos.sum() / 1e6 / executions;
+        }
+
+        public double getMaxMillis() {
+            return maxNanos.get() / 1e6;
+        }
+
+        /**
+         * @return rows read from the statement's results, plus rows updated by it
+         */
+        public long getRows() {
+            return rows.sum();
+        }
+
+        public long getSlowCount() {
+            return slow.sum();
+        }
+
+        public long getErrors() {
+            return errors.sum();
+        }
+
+        /**
+         * @return the EXPLAIN plan taken when the statement was last slow, or null if it hasn't been
+         */
+        public String getPlan() {
+            return plan;
+        }
+    }
+
+
+    /**
+     * Forwards every call to the statement, timing the execute calls.
+     */
+    private class ProfiledStatement implements InvocationHandler {
+        final PreparedStatement statement;
+        final QueryStats queryStats;
+
+        ProfiledStatement(PreparedStatement statement, QueryStats queryStats) {
+            this.statement = statement;
+            this.queryStats = queryStats;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "executeQuery":
+                case "execute":
+                case "executeUpdate":
+                case "executeLargeUpdate":
+                case "executeBatch":
+                case "executeLargeBatch":
+                    break;
+                default:
+                    try {
+                        return method.invoke(statement, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+            }
+
+            long start = System.nanoTime();
+            Object result;
+            try {
+                result = method.invoke(statement, args);
+            } catch (InvocationTargetException e) {
+                queryStats.errors.increment();
+                throw e.getCause();
+            }
+            long nanos = System.nanoTime() - start;
+            queryStats.record(nanos);
+
+            if (result instanceof ResultSet) {
+                result = countRows((ResultSet) result);
+            } else if (result instanceof Integer || result instanceof Long) {
+                queryStats.rows.add(((Number) result).longValue());
+            } else if (result instanceof int[]) {
+                for (int updated : (int[]) result) {
+                    queryStats.rows.add(Math.max(0, updated));
+                }
+            }
+
+            if (nanos > slowThresholdNanos) {
+                recordSlow(statement, queryStats, nanos);
+            }
+            return result;
+        }
+
+        /**
+         * @return the result set, counting the rows the caller reads from it
+         */
+        private ResultSet countRows(ResultSet rs) {
+            return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(),
+                    new Class<?>[] { ResultSet.class }, (proxy, method, args) -> {
+                        Object value;
+                        try {
+                            value = method.invoke(rs, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                        if (Boolean.TRUE.equals(value) && method.getName().equals("next")) {
+                            queryStats.rows.increment();
+                        }
+                        return value;
+                    });
+        }
+    }
+}
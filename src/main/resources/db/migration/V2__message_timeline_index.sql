@@ -0,0 +1,4 @@
+-- Serves GET /accounts/{account_id}/messages: an equality seek on posted_by, already in the
+-- newest-first order of the timeline pages, so a page reads limit rows and never sorts.
+create index if not exists message_posted_by_time_idx
+    on message (posted_by, time_posted_epoch desc, message_id desc);
@@ -0,0 +1,3 @@
+-- Serves login (username = ? AND password = ?) from the index alone.
+create index if not exists account_username_password_idx
+    on account (username, password);
@@ -0,0 +1,3 @@
+-- Login now looks the account up by username (the unique index) and checks the password hash in
+-- AccountService, so the (username, password) index from V3 is no longer used.
+drop index if exists account_username_password_idx;
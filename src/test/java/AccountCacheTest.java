@@ -0,0 +1,94 @@
+import java.time.Duration;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import DAO.MessageDAO;
+import Model.Account;
+import Model.Message;
+import Service.AccountCache;
+import Service.AccountService;
+import Service.MessageService;
+import Util.ConnectionUtil;
+
+public class AccountCacheTest {
+    AccountService accountService;
+    MessageService messageService;
+
+    /**
+     * Before every test, reset the database and create services sharing one empty account cache.
+     */
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+        accountService = new AccountService();
+        messageService = new MessageService(new MessageDAO(), accountService);
+    }
+
+
+    /**
+     * Only the first post by an account has to check the database for posted_by.
+     */
+    @Test
+    public void postingChecksAccountOnce() {
+        for (int i = 0; i < 5; i++) {
+            Assert.assertNotNull(messageService.createMessage(new Message(1, "message " + i, 1669947800)));
+        }
+
+        Assert.assertEquals(1, accountService.getAccountCache().idStats().missCount());
+        Assert.assertEquals(4, accountService.getAccountCache().idStats().hitCount());
+    }
+
+
+    /**
+     * An unknown account_id is remembered as missing, until an account with that id is registered.
+     */
+    @Test
+    public void registeringOverridesNegativeEntry() {
+        Assert.assertNull(messageService.createMessage(new Message(2, "too early", 1669947800)));
+        Assert.assertNull(messageService.createMessage(new Message(2, "still too early", 1669947800)));
+        Assert.assertEquals(1, accountService.getAccountCache().idStats().missCount());
+
+        Account registered = accountService.addAccount(new Account("testuser2", "password"));
+        Assert.assertEquals(2, registered.account_id);
+
+        Assert.assertNotNull(messageService.createMessage(new Message(2, "now it works", 1669947800)));
+    }
+
+
+    /**
+     * A registered username is cached, so registering it again is rejected without a query.
+     */
+    @Test
+    public void duplicateRegistrationUsesUsernameCache() {
+        Assert.assertNotNull(accountService.addAccount(new Account("testuser2", "password")));
+        Assert.assertNull(accountService.addAccount(new Account("testuser2", "password")));
+
+        Assert.assertEquals(1, accountService.getAccountCache().usernameStats().hitCount());
+        // The account as stored, with the password hashed
+        Account cached = accountService.getAccountById(2);
+        Assert.assertEquals("testuser2", cached.username);
+        Assert.assertTrue(cached.password.startsWith("pbkdf2-sha256$"));
+    }
+
+
+    /**
+     * A lookup that fails is not remembered as a missing account; the next lookup goes to the database again.
+     */
+    @Test
+    public void failedLookupIsNotCachedAsMissing() {
+        AccountCache cache = new AccountCache(100, Duration.ofSeconds(30));
+        try {
+            cache.getById(2, id -> {
+                throw new IllegalStateException("Could not read account " + id);
+            });
+            Assert.fail();
+        } catch (IllegalStateException expected) {
+        }
+
+        Assert.assertNull(cache.getIfPresent(2));
+        Account account = new Account(2, "testuser2", "password");
+        Assert.assertSame(account, cache.getById(2, id -> account));
+    }
+}
@@ -0,0 +1,53 @@
+package Benchmark;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import DAO.AccountDAO;
+import Model.Account;
+
+/**
+ * AccountDAO lookups against a seeded database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = BenchmarkDatabase.BENCH_DB_URL)
+public class AccountDAOBenchmark {
+
+    AccountDAO accountDAO;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        BenchmarkDatabase.seed(1000);
+        accountDAO = new AccountDAO();
+    }
+
+    private int randomAccountId() {
+        return 1 + ThreadLocalRandom.current().nextInt(BenchmarkDatabase.ACCOUNT_COUNT);
+    }
+
+    @Benchmark
+    public Account getAccountById() {
+        return accountDAO.getAccountById(randomAccountId());
+    }
+
+    @Benchmark
+    public Account getAccountByUsername() {
+        return accountDAO.getAccountByUsername("benchuser" + randomAccountId());
+    }
+}
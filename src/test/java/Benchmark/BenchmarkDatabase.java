@@ -0,0 +1,79 @@
+package Benchmark;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import Util.ConnectionUtil;
+
+/**
+ * Builds the database the DAO and service benchmarks, and the load test, run against. Benchmarks fork with
+ * -Dsocialmedia.db.url pointing at target/bench-h2 (see BENCH_DB_URL) so ./h2 is never touched.
+ */
+public class BenchmarkDatabase {
+
+    public static final String BENCH_DB_URL = "-Dsocialmedia.db.url=jdbc:h2:./target/bench-h2/db;";
+
+    /**
+     * Messages are spread evenly over this many accounts.
+     */
+    public static final int ACCOUNT_COUNT = 100;
+
+    private BenchmarkDatabase() {
+    }
+
+    /**
+     * Recreate the tables and fill them with ACCOUNT_COUNT accounts and messageCount messages.
+     *
+     * @param messageCount total number of rows in the message table
+     */
+    public static void seed(int messageCount) throws SQLException {
+        seed(ACCOUNT_COUNT, messageCount);
+    }
+
+    /**
+     * Recreate the tables and fill them with accountCount accounts and messageCount messages, spread evenly over the
+     * accounts. The account with id n has username "benchuser{n}" and password "password{n}".
+     *
+     * @param accountCount total number of rows in the account table
+     * @param messageCount total number of rows in the message table
+     */
+    public static void seed(int accountCount, int messageCount) throws SQLException {
+        ConnectionUtil.resetTestDatabase();
+
+        try (Connection connection = ConnectionUtil.getConnection()) {
+            connection.setAutoCommit(false);
+
+            try (PreparedStatement ps = connection.prepareStatement(
+                    "UPDATE account SET username = 'benchuser1', password = 'password1' WHERE account_id = 1")) {
+                ps.executeUpdate();
+            }
+            try (PreparedStatement ps = connection.prepareStatement(
+                    "INSERT INTO account (username, password) VALUES (?, ?)")) {
+                for (int i = 2; i <= accountCount; i++) {
+                    ps.setString(1, "benchuser" + i);
+                    ps.setString(2, "password" + i);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+
+            // The reset script already inserted message 1
+            try (PreparedStatement ps = connection.prepareStatement(
+                    "INSERT INTO message (posted_by, message_text, time_posted_epoch) VALUES (?, ?, ?)")) {
+                for (int i = 2; i <= messageCount; i++) {
+                    ps.setInt(1, 1 + i % accountCount);
+                    ps.setString(2, "benchmark message number " + i);
+                    ps.setLong(3, 1669947792L + i);
+                    ps.addBatch();
+                    if (i % 10000 == 0) {
+                        ps.executeBatch();
+                    }
+                }
+                ps.executeBatch();
+            }
+
+            connection.commit();
+        }
+    }
+}
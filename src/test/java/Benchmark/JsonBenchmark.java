@@ -0,0 +1,97 @@
+package Benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Model.Message;
+import Util.JsonUtil;
+
+/**
+ * Compares what the controller used to do on every request (create an ObjectMapper, then serialize) with the shared
+ * readers and writers in JsonUtil. Run with -Djmh.include=JsonBenchmark -Djmh.args="-prof gc" and compare the
+ * gc.alloc.rate.norm (bytes allocated per operation) of the perRequestMapper and shared variants.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonBenchmark {
+
+    @Param({"1", "100"})
+    public int listSize;
+
+    Message message;
+    String messageJson;
+    List<Message> messages;
+    String messagesJson;
+
+    @Setup
+    public void setUp() throws Exception {
+        message = new Message(1, 1, "test message 1", 1669947792);
+        messageJson = JsonUtil.MESSAGE_WRITER.writeValueAsString(message);
+
+        messages = new ArrayList<>();
+        for (int i = 1; i <= listSize; i++) {
+            messages.add(new Message(i, 1, "test message " + i, 1669947792L + i));
+        }
+        messagesJson = JsonUtil.MESSAGE_LIST_WRITER.writeValueAsString(messages);
+    }
+
+    @Benchmark
+    public String perRequestMapperWriteMessage() throws Exception {
+        return new ObjectMapper().writeValueAsString(message);
+    }
+
+    @Benchmark
+    public String sharedWriterWriteMessage() throws Exception {
+        return JsonUtil.MESSAGE_WRITER.writeValueAsString(message);
+    }
+
+    @Benchmark
+    public Message perRequestMapperReadMessage() throws Exception {
+        return new ObjectMapper().readValue(messageJson, Message.class);
+    }
+
+    @Benchmark
+    public Message sharedReaderReadMessage() throws Exception {
+        return JsonUtil.MESSAGE_READER.readValue(messageJson);
+    }
+
+    @Benchmark
+    public String perRequestMapperWriteList() throws Exception {
+        return new ObjectMapper().writerFor(new TypeReference<List<Message>>() {}).writeValueAsString(messages);
+    }
+
+    @Benchmark
+    public String sharedWriterWriteList() throws Exception {
+        return JsonUtil.MESSAGE_LIST_WRITER.writeValueAsString(messages);
+    }
+
+    @Benchmark
+    public List<Message> perRequestMapperReadList() throws Exception {
+        return new ObjectMapper().readValue(messagesJson, new TypeReference<List<Message>>() {});
+    }
+
+    @Benchmark
+    public List<Message> sharedReaderReadList() throws Exception {
+        return JsonUtil.MESSAGE_LIST_READER.readValue(messagesJson);
+    }
+}
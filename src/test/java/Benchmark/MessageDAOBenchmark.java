@@ -0,0 +1,113 @@
+package Benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import DAO.MessageDAO;
+import Model.Message;
+
+/**
+ * MessageDAO read and write paths against a seeded database of tableSize messages.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = BenchmarkDatabase.BENCH_DB_URL)
+public class MessageDAOBenchmark {
+
+    @Param({"1000", "100000"})
+    public int tableSize;
+
+    MessageDAO messageDAO;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        BenchmarkDatabase.seed(tableSize);
+        messageDAO = new MessageDAO();
+    }
+
+    private int randomMessageId() {
+        return 1 + ThreadLocalRandom.current().nextInt(tableSize);
+    }
+
+    private int randomAccountId() {
+        return 1 + ThreadLocalRandom.current().nextInt(BenchmarkDatabase.ACCOUNT_COUNT);
+    }
+
+    @Benchmark
+    public Message getMessageById() {
+        return messageDAO.getMessageById(randomMessageId());
+    }
+
+    @Benchmark
+    public List<Message> getAllMessagesByAccountId() {
+        return messageDAO.getAllMessagesByAccountId(randomAccountId());
+    }
+
+    @Benchmark
+    public List<Message> getMessagesAfter() {
+        return messageDAO.getMessagesAfter(randomMessageId(), 100);
+    }
+
+    @Benchmark
+    public List<Message> getMessagesByAccountIdBefore() {
+        return messageDAO.getMessagesByAccountIdBefore(randomAccountId(), null, 100);
+    }
+
+    @Benchmark
+    public Message updateMessageById() {
+        return messageDAO.updateMessageById(randomMessageId(), "updated benchmark message");
+    }
+
+    @Benchmark
+    public Message insertMessage() {
+        return messageDAO.insertMessage(new Message(randomAccountId(), "inserted benchmark message", 1669947792L));
+    }
+
+    /**
+     * 100 messages inserted one insertMessage call at a time; compare with insertMessagesBatch.
+     */
+    @Benchmark
+    public int insertHundredMessagesOneByOne() {
+        int inserted = 0;
+        for (Message message : hundredMessages()) {
+            if (messageDAO.insertMessage(message) != null) {
+                inserted++;
+            }
+        }
+        return inserted;
+    }
+
+    /**
+     * The same 100 messages inserted as one JDBC batch in one transaction.
+     */
+    @Benchmark
+    public List<Message> insertHundredMessagesBatch() {
+        return messageDAO.insertMessages(hundredMessages());
+    }
+
+    private List<Message> hundredMessages() {
+        List<Message> messages = new ArrayList<>(100);
+        for (int i = 0; i < 100; i++) {
+            messages.add(new Message(randomAccountId(), "batched benchmark message " + i, 1669947792L + i));
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,55 @@
+package Benchmark;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import Model.Message;
+import Service.MessageService;
+
+/**
+ * MessageService write paths end to end, including validation and the account existence check.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = BenchmarkDatabase.BENCH_DB_URL)
+public class MessageServiceBenchmark {
+
+    @Param({"1000", "100000"})
+    public int tableSize;
+
+    MessageService messageService;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        BenchmarkDatabase.seed(tableSize);
+        messageService = new MessageService();
+    }
+
+    @Benchmark
+    public Message createMessage() {
+        int accountId = 1 + ThreadLocalRandom.current().nextInt(BenchmarkDatabase.ACCOUNT_COUNT);
+        return messageService.createMessage(new Message(accountId, "created benchmark message", 1669947792L));
+    }
+
+    @Benchmark
+    public Message updateMessageById() {
+        int messageId = 1 + ThreadLocalRandom.current().nextInt(tableSize);
+        return messageService.updateMessageById(messageId, "updated benchmark message");
+    }
+}
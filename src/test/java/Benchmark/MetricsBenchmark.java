@@ -0,0 +1,50 @@
+package Benchmark;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import Util.LatencyHistogram;
+import Util.Metrics;
+
+/**
+ * What recording a request costs: one histogram record and one counter increment, from several threads at once as
+ * under load. Run with -Djmh.include=MetricsBenchmark -Djmh.args="-prof gc"; gc.alloc.rate.norm should be 0 bytes
+ * per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class MetricsBenchmark {
+
+    LatencyHistogram histogram;
+    LongAdder counter;
+
+    @Setup
+    public void setUp() {
+        Metrics metrics = new Metrics();
+        histogram = metrics.histogram("bench_duration_seconds", "Benchmark.", "path", "/messages");
+        counter = metrics.counter("bench_total", "Benchmark.", "path", "/messages", "status", "2xx");
+    }
+
+    @Benchmark
+    public void recordRequest() {
+        counter.increment();
+        histogram.record(System.nanoTime() & 0xFFFFFFFL);
+    }
+}
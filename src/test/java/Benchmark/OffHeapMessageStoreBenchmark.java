@@ -0,0 +1,65 @@
+package Benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import Model.Message;
+import Service.OffHeapMessageStore;
+import Util.JsonUtil;
+
+/**
+ * Compares answering GET /messages/{message_id} from an on-heap Message (Jackson) with writing the JSON straight
+ * from the off-heap store. Run with -Djmh.include=OffHeapMessageStoreBenchmark -Djmh.args="-prof gc".
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OffHeapMessageStoreBenchmark {
+
+    static final int MESSAGES = 100_000;
+
+    Message[] messages;
+    OffHeapMessageStore store;
+    int next;
+
+    @Setup
+    public void setUp() {
+        messages = new Message[MESSAGES];
+        store = new OffHeapMessageStore(64 * 1024 * 1024);
+        for (int i = 0; i < MESSAGES; i++) {
+            messages[i] = new Message(i + 1, i % 100 + 1, "test message " + i, 1669947792L + i);
+            store.put(messages[i]);
+        }
+    }
+
+    @Benchmark
+    public byte[] jacksonFromHeap() throws Exception {
+        next = (next + 1) % MESSAGES;
+        return JsonUtil.MESSAGE_WRITER.writeValueAsBytes(messages[next]);
+    }
+
+    @Benchmark
+    public byte[] jsonFromStore() {
+        next = (next + 1) % MESSAGES;
+        return store.getJson(next + 1);
+    }
+
+    @Benchmark
+    public Message decodeFromStore() {
+        next = (next + 1) % MESSAGES;
+        return store.get(next + 1);
+    }
+}
@@ -0,0 +1,59 @@
+package Benchmark;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import Service.CredentialCache;
+import Util.PasswordHasher;
+
+/**
+ * What one login costs in CPU at different password hash costs (socialmedia.password.iterations), against a login
+ * answered by the credential cache. Sampled, so the output has percentiles: pick the largest iteration count whose
+ * p0.99 still fits the login latency budget, leaving room for the lookup and the request itself.
+ * Run with -Djmh.include=PasswordHasherBenchmark.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class PasswordHasherBenchmark {
+
+    @Param({"50000", "100000", "210000", "600000"})
+    public int iterations;
+
+    PasswordHasher passwordHasher;
+    String storedHash;
+    CredentialCache credentialCache;
+
+    @Setup
+    public void setUp() {
+        passwordHasher = new PasswordHasher(iterations);
+        storedHash = passwordHasher.hash("password1");
+        credentialCache = new CredentialCache(1000, Duration.ofMinutes(1));
+        credentialCache.put("benchuser1", storedHash, "password1");
+    }
+
+    @Benchmark
+    public boolean verify() {
+        return passwordHasher.verify("password1", storedHash);
+    }
+
+    @Benchmark
+    public boolean credentialCacheHit() {
+        return credentialCache.matches("benchuser1", storedHash, "password1");
+    }
+}
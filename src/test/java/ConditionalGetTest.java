@@ -0,0 +1,119 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class ConditionalGetTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient for interacting
+     * locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+
+    /**
+     * GET localhost:8080/messages/1 with the ETag of the previous response gives a 304 until the message changes.
+     */
+    @Test
+    public void messageIsNotModifiedUntilUpdated() throws IOException, InterruptedException {
+        HttpResponse<String> first = get("/messages/1", null, null);
+        Assert.assertEquals(200, first.statusCode());
+        String etag = first.headers().firstValue("ETag").orElseThrow();
+
+        HttpResponse<String> repeat = get("/messages/1", "If-None-Match", etag);
+        Assert.assertEquals(304, repeat.statusCode());
+        Assert.assertEquals("", repeat.body());
+
+        send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/1"))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\": \"updated message\"}"))
+                .build());
+
+        HttpResponse<String> changed = get("/messages/1", "If-None-Match", etag);
+        Assert.assertEquals(200, changed.statusCode());
+        Assert.assertTrue(changed.body().contains("updated message"));
+        Assert.assertNotEquals(etag, changed.headers().firstValue("ETag").orElseThrow());
+    }
+
+
+    /**
+     * GET localhost:8080/accounts/1/messages with the ETag of the previous response gives a 304 until the account
+     * posts again, and pages have ETags of their own.
+     */
+    @Test
+    public void timelineIsNotModifiedUntilAccountPosts() throws IOException, InterruptedException {
+        HttpResponse<String> first = get("/accounts/1/messages", null, null);
+        String etag = first.headers().firstValue("ETag").orElseThrow();
+        Assert.assertEquals(304, get("/accounts/1/messages", "If-None-Match", etag).statusCode());
+
+        String pageEtag = get("/accounts/1/messages?limit=1", null, null).headers().firstValue("ETag").orElseThrow();
+        Assert.assertNotEquals(etag, pageEtag);
+        Assert.assertEquals(304, get("/accounts/1/messages?limit=1", "If-None-Match", pageEtag).statusCode());
+
+        send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString(
+                        "{\"posted_by\":1, \"message_text\": \"new post\", \"time_posted_epoch\": 1669947800}"))
+                .build());
+
+        HttpResponse<String> changed = get("/accounts/1/messages", "If-None-Match", etag);
+        Assert.assertEquals(200, changed.statusCode());
+        Assert.assertTrue(changed.body().contains("new post"));
+        Assert.assertEquals(200, get("/accounts/1/messages?limit=1", "If-None-Match", pageEtag).statusCode());
+    }
+
+
+    /**
+     * If-Modified-Since with the Last-Modified of a timeline that hasn't changed gives a 304.
+     */
+    @Test
+    public void timelineHonorsIfModifiedSince() throws IOException, InterruptedException {
+        HttpResponse<String> first = get("/accounts/1/messages", null, null);
+        String lastModified = first.headers().firstValue("Last-Modified").orElseThrow();
+
+        Assert.assertEquals(304, get("/accounts/1/messages", "If-Modified-Since", lastModified).statusCode());
+        Assert.assertEquals(200, get("/accounts/1/messages", "If-Modified-Since",
+                "Thu, 01 Jan 1970 00:00:00 GMT").statusCode());
+    }
+
+
+    private HttpResponse<String> get(String path, String header, String value) throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder().uri(URI.create("http://localhost:8080" + path));
+        if (header != null) {
+            request.header(header, value);
+        }
+        return send(request.build());
+    }
+
+    private HttpResponse<String> send(HttpRequest request) throws IOException, InterruptedException {
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+}
@@ -0,0 +1,220 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Util.ConnectionPool;
+
+public class ConnectionPoolTest {
+    ConnectionPool pool;
+
+    /**
+     * Before every test, create a small pool over a private in-memory database so the shared pool in
+     * ConnectionUtil is left alone.
+     */
+    @Before
+    public void setUp() {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:pooltest;DB_CLOSE_DELAY=-1");
+        dataSource.setUser("sa");
+        dataSource.setPassword("sa");
+        pool = new ConnectionPool(dataSource, 1, 2, 200, 60000, 100, 1);
+    }
+
+    @After
+    public void tearDown() {
+        pool.close();
+    }
+
+
+    /**
+     * Closing a borrowed connection returns the same physical connection to the pool.
+     */
+    @Test
+    public void closedConnectionsAreReused() throws SQLException {
+        Connection first = pool.getConnection();
+        String physical = first.toString();
+        first.close();
+
+        Connection second = pool.getConnection();
+        Assert.assertEquals(physical, second.toString());
+        Assert.assertTrue(first.isClosed());
+        Assert.assertFalse(second.isClosed());
+        second.close();
+
+        Assert.assertEquals(0, pool.getActiveConnections());
+        Assert.assertEquals(2, pool.getConnectionsAcquired());
+    }
+
+
+    /**
+     * Once maxSize connections are borrowed, the next caller times out instead of opening another one.
+     */
+    @Test
+    public void borrowingBeyondMaxSizeTimesOut() throws SQLException {
+        Connection first = pool.getConnection();
+        Connection second = pool.getConnection();
+
+        try {
+            pool.getConnection();
+            Assert.fail("Expected the pool to time out");
+        } catch (SQLTimeoutException e) {
+            Assert.assertEquals(1, pool.getAcquireTimeouts());
+        }
+
+        first.close();
+        Connection third = pool.getConnection();
+        Assert.assertEquals(2, pool.getActiveConnections());
+        second.close();
+        third.close();
+        Assert.assertTrue(pool.getTotalConnections() <= 2);
+    }
+
+
+    /**
+     * An uncommitted transaction is rolled back when its connection goes back to the pool.
+     */
+    @Test
+    public void returnedConnectionIsRolledBack() throws SQLException {
+        try (Connection connection = pool.getConnection(); Statement st = connection.createStatement()) {
+            st.execute("CREATE TABLE IF NOT EXISTS pool_test (id INT)");
+            st.execute("DELETE FROM pool_test");
+        }
+
+        try (Connection connection = pool.getConnection(); Statement st = connection.createStatement()) {
+            connection.setAutoCommit(false);
+            st.execute("INSERT INTO pool_test VALUES (1)");
+        }
+
+        try (Connection connection = pool.getConnection(); Statement st = connection.createStatement()) {
+            Assert.assertTrue(connection.getAutoCommit());
+            ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM pool_test");
+            rs.next();
+            Assert.assertEquals(0, rs.getInt(1));
+        }
+    }
+
+
+    /**
+     * A connection held past the leak detection threshold is reported, and evictAll() takes it back.
+     */
+    @Test
+    public void leakedConnectionIsDetectedAndReclaimed() throws SQLException, InterruptedException {
+        Connection leaked = pool.getConnection();
+        Thread.sleep(1500);
+        Assert.assertEquals(1, pool.getLeaksDetected());
+
+        pool.evictAll();
+        Assert.assertTrue(leaked.isClosed());
+        Assert.assertEquals(0, pool.getActiveConnections());
+
+        // Both permits are available again
+        pool.getConnection().close();
+        pool.getConnection().close();
+    }
+
+
+    /**
+     * Far more concurrent callers than connections all get served in turn, and never more than maxSize at once.
+     * This is what requests running on virtual threads rely on to wait for the database.
+     */
+    @Test
+    public void manyWaitersAreServedWithinMaxSize() throws Exception {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:pooltest;DB_CLOSE_DELAY=-1");
+        dataSource.setUser("sa");
+        dataSource.setPassword("sa");
+        ConnectionPool patientPool = new ConnectionPool(dataSource, 1, 2, 30000, 60000, 0, 1);
+
+        int callers = 200;
+        AtomicInteger maxActive = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(callers);
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (int i = 0; i < callers; i++) {
+            Callable<Boolean> borrow = () -> {
+                try (Connection connection = patientPool.getConnection()) {
+                    maxActive.accumulateAndGet(patientPool.getActiveConnections(), Math::max);
+                    Thread.sleep(1);
+                    return connection.isValid(1);
+                }
+            };
+            results.add(executor.submit(borrow));
+        }
+
+        for (Future<Boolean> result : results) {
+            Assert.assertTrue(result.get());
+        }
+        executor.shutdown();
+        patientPool.close();
+
+        Assert.assertTrue(maxActive.get() <= 2);
+        Assert.assertEquals(callers, patientPool.getConnectionsAcquired());
+    }
+
+
+    /**
+     * A statement prepared again after being closed, even by a later borrower of the same physical connection,
+     * comes from the cache with its parameters cleared. The least recently used statement is evicted.
+     */
+    @Test
+    public void preparedStatementsAreCachedPerConnection() throws SQLException {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:pooltest;DB_CLOSE_DELAY=-1");
+        dataSource.setUser("sa");
+        dataSource.setPassword("sa");
+        ConnectionPool cachingPool = new ConnectionPool(dataSource, 0, 1, 200, 60000, 0, 1, 2);
+
+        String sql = "SELECT ? + 1";
+        try (Connection connection = cachingPool.getConnection()) {
+            try (PreparedStatement ps = connection.prepareStatement(sql)) {
+                ps.setInt(1, 41);
+                try (ResultSet rs = ps.executeQuery()) {
+                    rs.next();
+                    Assert.assertEquals(42, rs.getInt(1));
+                }
+            }
+
+            // Still open while the same SQL is prepared again: the second one is a separate statement
+            PreparedStatement first = connection.prepareStatement(sql);
+            PreparedStatement second = connection.prepareStatement(sql);
+            Assert.assertNotSame(first, second);
+            first.close();
+            second.close();
+        }
+        Assert.assertEquals(1, cachingPool.getStatementCacheHits());
+
+        try (Connection connection = cachingPool.getConnection();
+                PreparedStatement ps = connection.prepareStatement(sql)) {
+            Assert.assertEquals(2, cachingPool.getStatementCacheHits());
+            try {
+                ps.executeQuery();
+                Assert.fail("parameters of the previous use should have been cleared");
+            } catch (SQLException expected) {
+            }
+        }
+
+        try (Connection connection = cachingPool.getConnection()) {
+            connection.prepareStatement("SELECT 1").close();
+            connection.prepareStatement("SELECT 2").close();
+            long misses = cachingPool.getStatementCacheMisses();
+            connection.prepareStatement(sql).close();
+            Assert.assertEquals(misses + 1, cachingPool.getStatementCacheMisses());
+        }
+        cachingPool.close();
+    }
+}
@@ -0,0 +1,116 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class CreateMessagesBatchTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+
+    /**
+     * Sending an http request to POST localhost:8080/messages/batch with three valid messages
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: JSON array of the created messages, with generated message_ids in request order
+     */
+    @Test
+    public void createMessagesSuccessful() throws IOException, InterruptedException {
+        HttpResponse<String> response = postBatch("[" +
+                "{\"posted_by\":1, \"message_text\": \"first\", \"time_posted_epoch\": 1669947800}," +
+                "{\"posted_by\":1, \"message_text\": \"second\", \"time_posted_epoch\": 1669947801}," +
+                "{\"posted_by\":1, \"message_text\": \"third\", \"time_posted_epoch\": 1669947802}]");
+        Assert.assertEquals(200, response.statusCode());
+
+        List<Message> expected = List.of(
+                new Message(2, 1, "first", 1669947800),
+                new Message(3, 1, "second", 1669947801),
+                new Message(4, 1, "third", 1669947802));
+        List<Message> actual = objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){});
+        Assert.assertEquals(expected, actual);
+
+        HttpResponse<String> stored = webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/4"))
+                .build(), HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(new Message(4, 1, "third", 1669947802), objectMapper.readValue(stored.body(), Message.class));
+    }
+
+
+    /**
+     * Sending an http request to POST localhost:8080/messages/batch where one message is blank
+     * and one is posted by a user that doesn't exist
+     *
+     * Expected Response:
+     *  Status Code: 400
+     *  Response Body:
+     *  and no message from the batch is persisted
+     */
+    @Test
+    public void createMessagesRejectsWholeBatch() throws IOException, InterruptedException {
+        HttpResponse<String> blank = postBatch("[" +
+                "{\"posted_by\":1, \"message_text\": \"fine\", \"time_posted_epoch\": 1669947800}," +
+                "{\"posted_by\":1, \"message_text\": \"\", \"time_posted_epoch\": 1669947801}]");
+        Assert.assertEquals(400, blank.statusCode());
+        Assert.assertEquals("", blank.body());
+
+        HttpResponse<String> unknownUser = postBatch("[" +
+                "{\"posted_by\":1, \"message_text\": \"fine\", \"time_posted_epoch\": 1669947800}," +
+                "{\"posted_by\":3, \"message_text\": \"no such user\", \"time_posted_epoch\": 1669947801}]");
+        Assert.assertEquals(400, unknownUser.statusCode());
+
+        HttpResponse<String> all = webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .build(), HttpResponse.BodyHandlers.ofString());
+        List<Message> messages = objectMapper.readValue(all.body(), new TypeReference<List<Message>>(){});
+        Assert.assertEquals(1, messages.size());
+    }
+
+
+    private HttpResponse<String> postBatch(String body) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/batch"))
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+}
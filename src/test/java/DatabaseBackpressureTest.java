@@ -0,0 +1,124 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import DAO.AccountDAO;
+import DAO.MessageDAO;
+import Model.Message;
+import Service.AccountService;
+import Service.MessageService;
+import Util.ConnectionUtil;
+import Util.DatabaseExecutor;
+import io.javalin.Javalin;
+
+public class DatabaseBackpressureTest {
+    DatabaseExecutor databaseExecutor;
+    CountDownLatch release;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database and start the app with a database executor of one thread and a queue
+     * of one, so two stuck tasks are enough to fill it.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        databaseExecutor = new DatabaseExecutor(1, 1);
+        release = new CountDownLatch(1);
+
+        AccountService accountService = new AccountService(new AccountDAO(), databaseExecutor);
+        MessageService messageService = new MessageService(new MessageDAO(), accountService, null, databaseExecutor);
+        app = new SocialMediaController(accountService, messageService).startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        app.stop();
+        databaseExecutor.close();
+    }
+
+
+    /**
+     * Sending an http request to GET localhost:8080/messages/1 while the database executor is saturated
+     *
+     * Expected Response:
+     *  Status Code: 503 with a Retry-After header, and 200 with the message once the executor has caught up
+     */
+    @Test
+    public void saturatedExecutorRejectsWith503() throws IOException, InterruptedException {
+        databaseExecutor.supplyAsync(this::awaitRelease);
+        databaseExecutor.supplyAsync(this::awaitRelease);
+
+        HttpResponse<String> rejected = getMessage(1);
+        Assert.assertEquals(503, rejected.statusCode());
+        Assert.assertEquals("1", rejected.headers().firstValue("Retry-After").orElse(null));
+        Assert.assertEquals(1, databaseExecutor.getRejectedTasks());
+
+        release.countDown();
+        while (databaseExecutor.getActiveThreads() > 0 || databaseExecutor.getQueuedTasks() > 0) {
+            Thread.sleep(10);
+        }
+        HttpResponse<String> served = getMessage(1);
+        Assert.assertEquals(200, served.statusCode());
+        Assert.assertEquals(new Message(1, 1, "test message 1", 1669947792),
+                objectMapper.readValue(served.body(), Message.class));
+    }
+
+
+    /**
+     * The streamed GET localhost:8080/messages reads through the database executor too, so it is turned away
+     * while the executor is saturated instead of taking a connection on the request thread.
+     *
+     * Expected Response:
+     *  Status Code: 503 with a Retry-After header and no partial list
+     */
+    @Test
+    public void saturatedExecutorRejectsStreamWith503() throws IOException, InterruptedException {
+        databaseExecutor.supplyAsync(this::awaitRelease);
+        databaseExecutor.supplyAsync(this::awaitRelease);
+
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .build();
+        HttpResponse<String> rejected = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(503, rejected.statusCode());
+        Assert.assertEquals("1", rejected.headers().firstValue("Retry-After").orElse(null));
+        Assert.assertEquals("", rejected.body());
+    }
+
+
+    private boolean awaitRelease() {
+        try {
+            release.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return true;
+    }
+
+    private HttpResponse<String> getMessage(int messageId) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/" + messageId))
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+}
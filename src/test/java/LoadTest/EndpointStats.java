@@ -0,0 +1,101 @@
+package LoadTest;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+/**
+ * Latency and outcome counters for one Operation.
+ *
+ * Two histograms are kept. The corrected one measures from the time the request was scheduled to be sent, so a
+ * stalled server is charged for the requests that queued up behind the stall (coordinated omission correction).
+ * The uncorrected one measures from when the request was actually sent, which is what a naive closed-loop client
+ * would report.
+ */
+public class EndpointStats {
+
+    /**
+     * Latencies are recorded in microseconds, up to a minute, with 3 significant digits.
+     */
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(1);
+
+    private final Operation operation;
+    private final Histogram corrected = new ConcurrentHistogram(HIGHEST_TRACKABLE_MICROS, 3);
+    private final Histogram uncorrected = new ConcurrentHistogram(HIGHEST_TRACKABLE_MICROS, 3);
+    private final LongAdder successes = new LongAdder();
+    private final LongAdder clientErrors = new LongAdder();
+    private final LongAdder serverErrors = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    public EndpointStats(Operation operation) {
+        this.operation = operation;
+        corrected.setAutoResize(true);
+        uncorrected.setAutoResize(true);
+    }
+
+    /**
+     * @param intendedStartNanos when the schedule said the request should have gone out
+     * @param actualStartNanos when it was handed to the client
+     * @param endNanos when the response (or failure) arrived
+     * @param status HTTP status, or -1 if the request failed without a response
+     */
+    public void record(long intendedStartNanos, long actualStartNanos, long endNanos, int status) {
+        corrected.recordValue(TimeUnit.NANOSECONDS.toMicros(endNanos - intendedStartNanos));
+        uncorrected.recordValue(TimeUnit.NANOSECONDS.toMicros(endNanos - actualStartNanos));
+
+        if (status < 0) {
+            failures.increment();
+        } else if (status >= 500) {
+            serverErrors.increment();
+        } else if (status >= 400) {
+            clientErrors.increment();
+        } else {
+            successes.increment();
+        }
+    }
+
+    public long getCount() {
+        return corrected.getTotalCount();
+    }
+
+    /**
+     * @param durationSeconds length of the measured part of the run
+     * @return a summary of this endpoint, in a fixed shape so reports of different runs can be diffed
+     */
+    public Map<String, Object> toReport(double durationSeconds) {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("endpoint", operation.getEndpoint());
+        report.put("count", getCount());
+        report.put("throughput_per_second", getCount() / durationSeconds);
+        report.put("successes", successes.sum());
+        report.put("client_errors", clientErrors.sum());
+        report.put("server_errors", serverErrors.sum());
+        report.put("failures", failures.sum());
+        report.put("latency_micros", percentiles(corrected));
+        report.put("uncorrected_latency_micros", percentiles(uncorrected));
+        return report;
+    }
+
+    private static Map<String, Object> percentiles(Histogram histogram) {
+        Map<String, Object> percentiles = new LinkedHashMap<>();
+        percentiles.put("mean", histogram.getMean());
+        percentiles.put("p50", histogram.getValueAtPercentile(50));
+        percentiles.put("p90", histogram.getValueAtPercentile(90));
+        percentiles.put("p99", histogram.getValueAtPercentile(99));
+        percentiles.put("p999", histogram.getValueAtPercentile(99.9));
+        percentiles.put("max", histogram.getMaxValue());
+        return percentiles;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%-36s %8d %6d %6d %10d %10d %10d %10d",
+                operation.getEndpoint(), getCount(), serverErrors.sum() + failures.sum(), clientErrors.sum(),
+                corrected.getValueAtPercentile(50), corrected.getValueAtPercentile(99),
+                corrected.getValueAtPercentile(99.9), corrected.getMaxValue());
+    }
+}
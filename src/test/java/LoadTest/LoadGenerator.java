@@ -0,0 +1,177 @@
+package LoadTest;
+
+import java.io.File;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import Benchmark.BenchmarkDatabase;
+import Controller.SocialMediaController;
+import Util.ConfigUtil;
+import Util.JsonUtil;
+import io.javalin.Javalin;
+
+/**
+ * Open-loop HTTP load generator. It starts the app locally (unless load.target points at a running one), seeds
+ * the database, and sends a weighted mix of requests at a fixed rate. Requests go out on schedule whether or not
+ * earlier ones have completed, and latency is measured from the scheduled send time, so the numbers are not
+ * flattered by a slow server holding back the load (coordinated omission).
+ *
+ * Settings (system properties):
+ *  load.rate             requests per second (default 200)
+ *  load.durationSeconds  length of the measured run (default 30)
+ *  load.warmupSeconds    load sent before measuring starts (default 5)
+ *  load.maxInFlight      cap on outstanding requests (default 512)
+ *  load.mix              weights per operation, eg "read=10,post=3,login=2" (default DEFAULT_MIX)
+ *  load.accounts         number of seeded accounts (default 100)
+ *  load.messages         number of seeded messages (default 10000)
+ *  load.port             port for the local app (default 8080)
+ *  load.target           base uri of an already running, already seeded app, eg http://localhost:8080
+ *  load.report           where to write the JSON report (default target/load-report.json)
+ */
+public class LoadGenerator {
+
+    static final String DEFAULT_MIX = "register=1,login=5,post=10,read=40,read_page=5,timeline=20,update=10,delete=2";
+
+    public static void main(String[] args) throws Exception {
+        int rate = ConfigUtil.getInt("load.rate", 200);
+        int durationSeconds = ConfigUtil.getInt("load.durationSeconds", 30);
+        int warmupSeconds = ConfigUtil.getInt("load.warmupSeconds", 5);
+        int maxInFlight = ConfigUtil.getInt("load.maxInFlight", 512);
+        int accounts = ConfigUtil.getInt("load.accounts", 100);
+        int messages = ConfigUtil.getInt("load.messages", 10000);
+        int port = ConfigUtil.getInt("load.port", 8080);
+        String target = ConfigUtil.getString("load.target", null);
+        String mix = ConfigUtil.getString("load.mix", DEFAULT_MIX);
+        String reportPath = ConfigUtil.getString("load.report", "target/load-report.json");
+
+        List<Operation> weightedOperations = parseMix(mix);
+
+        Javalin app = null;
+        if (target == null) {
+            BenchmarkDatabase.seed(accounts, messages);
+            app = new SocialMediaController().startAPI();
+            app.start(port);
+            target = "http://localhost:" + port;
+        }
+
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .build();
+        Map<Operation, EndpointStats> stats = new EnumMap<>(Operation.class);
+        for (Operation operation : Operation.values()) {
+            stats.put(operation, new EndpointStats(operation));
+        }
+
+        System.out.println("Sending " + rate + " requests/second to " + target + " for " + warmupSeconds
+                + "s warmup + " + durationSeconds + "s measured, mix " + mix);
+
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        long end = measureFrom + TimeUnit.SECONDS.toNanos(durationSeconds);
+
+        for (long i = 0; ; i++) {
+            long intendedStart = start + i * 1_000_000_000L / rate;
+            if (intendedStart >= end) {
+                break;
+            }
+            long wait;
+            while ((wait = intendedStart - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+
+            // If we are at the in-flight cap this blocks, but the time spent here still counts against
+            // the request because latency is taken from intendedStart
+            inFlight.acquire();
+
+            Operation operation = weightedOperations.get(ThreadLocalRandom.current().nextInt(weightedOperations.size()));
+            HttpRequest request = operation.buildRequest(target, accounts, messages);
+            boolean measured = intendedStart >= measureFrom;
+            long actualStart = System.nanoTime();
+
+            client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, error) -> {
+                long now = System.nanoTime();
+                inFlight.release();
+                if (measured) {
+                    stats.get(operation).record(intendedStart, actualStart, now, error == null ? response.statusCode() : -1);
+                }
+            });
+        }
+
+        if (!inFlight.tryAcquire(maxInFlight, 60, TimeUnit.SECONDS)) {
+            System.out.println("Some requests were still outstanding after 60s and are not in the report");
+        }
+
+        writeReport(stats, rate, durationSeconds, mix, target, reportPath);
+
+        if (app != null) {
+            app.stop();
+        }
+        System.exit(0);
+    }
+
+
+    /**
+     * @param mix comma separated operation=weight pairs
+     * @return a list containing each operation as many times as its weight, for picking uniformly at random
+     */
+    static List<Operation> parseMix(String mix) {
+        List<Operation> weighted = new ArrayList<>();
+        for (String entry : mix.split(",")) {
+            String[] parts = entry.trim().split("=");
+            Operation operation = Operation.valueOf(parts[0].trim().toUpperCase());
+            int weight = parts.length > 1 ? Integer.parseInt(parts[1].trim()) : 1;
+            for (int i = 0; i < weight; i++) {
+                weighted.add(operation);
+            }
+        }
+        if (weighted.isEmpty()) {
+            throw new IllegalArgumentException("load.mix has no operations: " + mix);
+        }
+        return weighted;
+    }
+
+
+    private static void writeReport(Map<Operation, EndpointStats> stats, int rate, int durationSeconds, String mix,
+            String target, String reportPath) throws Exception {
+        System.out.println();
+        System.out.println(String.format("%-36s %8s %6s %6s %10s %10s %10s %10s",
+                "endpoint", "count", "errors", "4xx", "p50 us", "p99 us", "p99.9 us", "max us"));
+
+        List<Map<String, Object>> endpoints = new ArrayList<>();
+        for (EndpointStats endpointStats : stats.values()) {
+            if (endpointStats.getCount() > 0) {
+                System.out.println(endpointStats);
+                endpoints.add(endpointStats.toReport(durationSeconds));
+            }
+        }
+
+        Map<String, Object> config = new LinkedHashMap<>();
+        config.put("target_rate_per_second", rate);
+        config.put("duration_seconds", durationSeconds);
+        config.put("mix", mix);
+        config.put("target", target);
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("config", config);
+        report.put("endpoints", endpoints);
+
+        File reportFile = new File(reportPath);
+        if (reportFile.getParentFile() != null) {
+            reportFile.getParentFile().mkdirs();
+        }
+        JsonUtil.MAPPER.writerWithDefaultPrettyPrinter().writeValue(reportFile, report);
+        System.out.println();
+        System.out.println("Report written to " + reportFile.getAbsolutePath());
+    }
+}
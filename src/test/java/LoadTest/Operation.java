@@ -0,0 +1,87 @@
+package LoadTest;
+
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The kinds of request the load generator sends. Each one builds a request against the data set seeded by
+ * BenchmarkDatabase: accounts 1..accounts exist with username "benchuser{n}" and password "password{n}", and
+ * messages 1..messages exist when the run starts.
+ */
+public enum Operation {
+    REGISTER("POST /register"),
+    LOGIN("POST /login"),
+    POST("POST /messages"),
+    READ("GET /messages/{message_id}"),
+    READ_PAGE("GET /messages?limit=100"),
+    TIMELINE("GET /accounts/{account_id}/messages"),
+    UPDATE("PATCH /messages/{message_id}"),
+    DELETE("DELETE /messages/{message_id}");
+
+    /**
+     * Usernames for REGISTER, unique for the whole run.
+     */
+    private static final AtomicInteger registrations = new AtomicInteger();
+
+    private final String endpoint;
+
+    Operation(String endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * @param baseUri eg http://localhost:8080
+     * @param accounts number of seeded accounts
+     * @param messages number of seeded messages
+     * @return a request for this operation with randomly chosen ids
+     */
+    public HttpRequest buildRequest(String baseUri, int accounts, int messages) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int accountId = 1 + random.nextInt(accounts);
+        int messageId = 1 + random.nextInt(messages);
+
+        switch (this) {
+            case REGISTER:
+                return post(baseUri + "/register", "{\"username\": \"loaduser" + registrations.incrementAndGet()
+                        + "-" + System.nanoTime() + "\", \"password\": \"password\"}");
+            case LOGIN:
+                return post(baseUri + "/login",
+                        "{\"username\": \"benchuser" + accountId + "\", \"password\": \"password" + accountId + "\"}");
+            case POST:
+                return post(baseUri + "/messages", "{\"posted_by\": " + accountId
+                        + ", \"message_text\": \"load test message\", \"time_posted_epoch\": 1669947792}");
+            case READ:
+                return get(baseUri + "/messages/" + messageId);
+            case READ_PAGE:
+                return get(baseUri + "/messages?limit=100");
+            case TIMELINE:
+                return get(baseUri + "/accounts/" + accountId + "/messages");
+            case UPDATE:
+                return HttpRequest.newBuilder(URI.create(baseUri + "/messages/" + messageId))
+                        .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\": \"updated by load test\"}"))
+                        .header("Content-Type", "application/json")
+                        .build();
+            case DELETE:
+                return HttpRequest.newBuilder(URI.create(baseUri + "/messages/" + messageId)).DELETE().build();
+            default:
+                throw new IllegalStateException("Unknown operation " + this);
+        }
+    }
+
+    private static HttpRequest get(String uri) {
+        return HttpRequest.newBuilder(URI.create(uri)).GET().build();
+    }
+
+    private static HttpRequest post(String uri, String body) {
+        return HttpRequest.newBuilder(URI.create(uri))
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .build();
+    }
+}
@@ -0,0 +1,91 @@
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import DAO.MessageDAO;
+import Model.Message;
+import Service.AccountService;
+import Service.MessageService;
+import Util.ConnectionUtil;
+
+public class MessageCacheTest {
+    MessageService messageService;
+
+    /**
+     * Before every test, reset the database and create a service with an empty cache.
+     */
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+        messageService = new MessageService();
+    }
+
+
+    /**
+     * The second read of a message is served from the cache.
+     */
+    @Test
+    public void repeatedReadHitsCache() {
+        Message expected = new Message(1, 1, "test message 1", 1669947792);
+
+        Assert.assertEquals(expected, messageService.getMessageById(1));
+        Assert.assertEquals(expected, messageService.getMessageById(1));
+
+        Assert.assertEquals(1, messageService.getMessageCache().stats().missCount());
+        Assert.assertEquals(1, messageService.getMessageCache().stats().hitCount());
+    }
+
+
+    /**
+     * Creating, updating and deleting a message keep the cache in step with the database.
+     */
+    @Test
+    public void writesKeepCacheCoherent() {
+        Message created = messageService.createMessage(new Message(1, "cached message", 1669947800));
+        Assert.assertEquals(created, messageService.getMessageById(created.message_id));
+        Assert.assertEquals(0, messageService.getMessageCache().stats().missCount());
+
+        messageService.updateMessageById(created.message_id, "updated message");
+        Assert.assertEquals("updated message", messageService.getMessageById(created.message_id).message_text);
+
+        messageService.deleteMessageById(created.message_id);
+        Assert.assertNull(messageService.getMessageById(created.message_id));
+    }
+
+
+    /**
+     * A message that doesn't exist is not cached, so it is found once it has been created.
+     */
+    @Test
+    public void missingMessageIsNotCached() {
+        Assert.assertNull(messageService.getMessageById(2));
+
+        Message created = messageService.createMessage(new Message(1, "second message", 1669947800));
+        Assert.assertEquals(2, created.message_id);
+        Assert.assertEquals(created, messageService.getMessageById(2));
+    }
+
+
+    /**
+     * A message deleted after a timeline read its row, but before that row was cached, stays deleted.
+     */
+    @Test
+    public void deleteDuringTimelineLoadIsNotCached() {
+        MessageService[] messageService = new MessageService[1];
+        MessageDAO deletingDAO = new MessageDAO() {
+            @Override
+            public List<Message> getMessagesByIds(Collection<Integer> ids) {
+                List<Message> messages = super.getMessagesByIds(ids);
+                messageService[0].deleteMessageById(1);
+                return messages;
+            }
+        };
+        messageService[0] = new MessageService(deletingDAO, new AccountService());
+
+        Assert.assertEquals(1, messageService[0].getAllMessagesByAccountId(1).size());
+        Assert.assertNull(messageService[0].getMessageById(1));
+    }
+}
@@ -0,0 +1,83 @@
+import org.junit.Assert;
+import org.junit.Test;
+
+import Model.Message;
+import Service.MessageEventBus;
+
+public class MessageEventBusTest {
+
+    /**
+     * Subscribers get the events for their account, in order, and nothing published before they subscribed.
+     */
+    @Test
+    public void subscriberGetsNewEventsForItsAccount() throws InterruptedException {
+        MessageEventBus eventBus = new MessageEventBus(10, 10);
+        eventBus.publish(MessageEventBus.CREATED, new Message(1, 1, "before", 1669947792));
+
+        try (MessageEventBus.Subscription subscription = eventBus.subscribe(1, -1)) {
+            eventBus.publish(MessageEventBus.CREATED, new Message(2, 2, "other account", 1669947793));
+            eventBus.publish(MessageEventBus.UPDATED, new Message(3, 1, "updated", 1669947794));
+            eventBus.publish(MessageEventBus.DELETED, new Message(3, 1, "updated", 1669947794));
+
+            MessageEventBus.Event updated = subscription.poll(0);
+            Assert.assertEquals(3, updated.id);
+            Assert.assertEquals(MessageEventBus.UPDATED, updated.type);
+            Assert.assertTrue(updated.json, updated.json.contains("\"message_text\":\"updated\""));
+            Assert.assertEquals(MessageEventBus.DELETED, subscription.poll(0).type);
+            Assert.assertNull(subscription.poll(0));
+        }
+        Assert.assertEquals(0, eventBus.getSubscriptionCount());
+    }
+
+
+    /**
+     * A subscriber that resumes from an event id is sent the kept events after it first; if they are no longer
+     * kept it is told it missed some.
+     */
+    @Test
+    public void resumeReplaysKeptEvents() throws InterruptedException {
+        MessageEventBus eventBus = new MessageEventBus(3, 10);
+        for (int i = 1; i <= 5; i++) {
+            eventBus.publish(MessageEventBus.CREATED, new Message(i, 1, "message " + i, 1669947792 + i));
+        }
+
+        try (MessageEventBus.Subscription subscription = eventBus.subscribe(null, 3)) {
+            Assert.assertFalse(subscription.hasMissedEvents());
+            Assert.assertEquals(4, subscription.poll(0).id);
+            Assert.assertEquals(5, subscription.poll(0).id);
+            Assert.assertNull(subscription.poll(0));
+        }
+
+        try (MessageEventBus.Subscription subscription = eventBus.subscribe(null, 1)) {
+            Assert.assertTrue(subscription.hasMissedEvents());
+            Assert.assertEquals(5, subscription.getStartEventId());
+            Assert.assertNull(subscription.poll(0));
+        }
+
+        // An id the bus never issued, eg from before a restart
+        try (MessageEventBus.Subscription subscription = eventBus.subscribe(null, 99)) {
+            Assert.assertTrue(subscription.hasMissedEvents());
+        }
+    }
+
+
+    /**
+     * A subscriber whose buffer fills is dropped instead of slowing down publish().
+     */
+    @Test
+    public void slowSubscriberIsDropped() throws InterruptedException {
+        MessageEventBus eventBus = new MessageEventBus(10, 2);
+        MessageEventBus.Subscription slow = eventBus.subscribe(null, -1);
+        MessageEventBus.Subscription other = eventBus.subscribe(2, -1);
+
+        for (int i = 1; i <= 3; i++) {
+            eventBus.publish(MessageEventBus.CREATED, new Message(i, 1, "message " + i, 1669947792 + i));
+        }
+
+        Assert.assertTrue(slow.isDropped());
+        Assert.assertNull(slow.poll(0));
+        Assert.assertFalse(other.isDropped());
+        Assert.assertEquals(1, eventBus.getSubscriptionCount());
+        Assert.assertEquals(1, eventBus.getDroppedSubscriptions());
+    }
+}
@@ -0,0 +1,169 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+/**
+ * The live feed of message changes at GET /events.
+ */
+public class MessageEventsTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient for interacting
+     * locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        System.setProperty("socialmedia.events.maxSubscribers", "2");
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+        System.clearProperty("socialmedia.events.maxSubscribers");
+    }
+
+
+    /**
+     * A subscriber to account 1's events sees its messages being created, updated and deleted.
+     */
+    @Test
+    public void streamsChangesForAccount() throws IOException, InterruptedException {
+        BlockingQueue<String> lines = subscribe("/events?account_id=1", null);
+
+        post("/messages", "{\"posted_by\":1, \"message_text\": \"live message\", \"time_posted_epoch\": 1669947800}");
+        patch("/messages/2", "{\"message_text\": \"live message, edited\"}");
+        send(HttpRequest.newBuilder().uri(URI.create("http://localhost:8080/messages/2")).DELETE().build());
+
+        List<String> created = nextEvent(lines);
+        Assert.assertTrue(created.toString(), created.contains("event: created"));
+        Assert.assertTrue(created.toString(), created.contains("id: 1"));
+        Assert.assertTrue(created.toString(), created.stream().anyMatch(line -> line.contains("\"live message\"")));
+
+        List<String> updated = nextEvent(lines);
+        Assert.assertTrue(updated.toString(), updated.contains("event: updated"));
+        Assert.assertTrue(updated.toString(), updated.stream().anyMatch(line -> line.contains("live message, edited")));
+
+        List<String> deleted = nextEvent(lines);
+        Assert.assertTrue(deleted.toString(), deleted.contains("event: deleted"));
+        Assert.assertTrue(deleted.toString(), deleted.contains("id: 3"));
+    }
+
+
+    /**
+     * Reconnecting with Last-Event-ID replays the events published while the client was away.
+     */
+    @Test
+    public void resumesFromLastEventId() throws IOException, InterruptedException {
+        post("/messages", "{\"posted_by\":1, \"message_text\": \"first\", \"time_posted_epoch\": 1669947800}");
+        post("/messages", "{\"posted_by\":1, \"message_text\": \"second\", \"time_posted_epoch\": 1669947801}");
+
+        BlockingQueue<String> lines = subscribe("/events", "1");
+
+        List<String> replayed = nextEvent(lines);
+        Assert.assertTrue(replayed.toString(), replayed.contains("id: 2"));
+        Assert.assertTrue(replayed.toString(), replayed.stream().anyMatch(line -> line.contains("\"second\"")));
+    }
+
+
+    /**
+     * Streams beyond socialmedia.events.maxSubscribers are refused with a 503 instead of taking another thread.
+     */
+    @Test
+    public void streamsBeyondLimitAreRefused() throws IOException, InterruptedException {
+        subscribe("/events", null);
+        subscribe("/events?account_id=1", null);
+
+        HttpResponse<String> refused = webClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/events"))
+                .header("Accept", "text/event-stream")
+                .build(), HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(503, refused.statusCode());
+        Assert.assertEquals("1", refused.headers().firstValue("Retry-After").orElse(null));
+    }
+
+
+    /**
+     * Open the event stream and read its lines on a background thread.
+     */
+    private BlockingQueue<String> subscribe(String path, String lastEventId) throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .header("Accept", "text/event-stream");
+        if (lastEventId != null) {
+            request.header("Last-Event-ID", lastEventId);
+        }
+        HttpResponse<Stream<String>> response = webClient.send(request.build(), HttpResponse.BodyHandlers.ofLines());
+        Assert.assertEquals(200, response.statusCode());
+
+        BlockingQueue<String> lines = new LinkedBlockingQueue<>();
+        Thread reader = new Thread(() -> response.body().forEach(lines::add));
+        reader.setDaemon(true);
+        reader.start();
+        return lines;
+    }
+
+    /**
+     * @return the lines of the next event, skipping comments
+     */
+    private List<String> nextEvent(BlockingQueue<String> lines) throws InterruptedException {
+        List<String> event = new ArrayList<>();
+        while (true) {
+            String line = lines.poll(5, TimeUnit.SECONDS);
+            Assert.assertNotNull("no event within 5 seconds, got " + event, line);
+            if (line.isEmpty()) {
+                if (!event.isEmpty()) {
+                    return event;
+                }
+            } else if (!line.startsWith(":")) {
+                event.add(line);
+            }
+        }
+    }
+
+    private void post(String path, String body) throws IOException, InterruptedException {
+        send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .build());
+    }
+
+    private void patch(String path, String body) throws IOException, InterruptedException {
+        send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString(body))
+                .build());
+    }
+
+    private void send(HttpRequest request) throws IOException, InterruptedException {
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, response.statusCode());
+    }
+}
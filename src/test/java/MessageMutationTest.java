@@ -0,0 +1,66 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import DAO.MessageDAO;
+import Model.Message;
+import Util.ConnectionUtil;
+
+public class MessageMutationTest {
+    MessageDAO messageDAO;
+
+    /**
+     * Before every test, reset the database.
+     */
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+        messageDAO = new MessageDAO();
+    }
+
+
+    /**
+     * Update and delete return the affected row from the same statement, or null when no row matched.
+     */
+    @Test
+    public void mutationsReturnAffectedRow() {
+        Assert.assertEquals(new Message(1, 1, "updated", 1669947792), messageDAO.updateMessageById(1, "updated"));
+        Assert.assertNull(messageDAO.updateMessageById(2, "no such message"));
+
+        Assert.assertEquals(new Message(1, 1, "updated", 1669947792), messageDAO.deleteMessageById(1));
+        Assert.assertNull(messageDAO.deleteMessageById(1));
+        Assert.assertNull(messageDAO.getMessageById(1));
+    }
+
+
+    /**
+     * When several requests delete the same message at once, exactly one of them gets the message back.
+     */
+    @Test
+    public void concurrentDeletesReturnMessageOnce() throws Exception {
+        int deleters = 16;
+        ExecutorService executor = Executors.newFixedThreadPool(deleters);
+        List<Future<Message>> results = new ArrayList<>();
+        for (int i = 0; i < deleters; i++) {
+            Callable<Message> delete = () -> messageDAO.deleteMessageById(1);
+            results.add(executor.submit(delete));
+        }
+
+        int deleted = 0;
+        for (Future<Message> result : results) {
+            if (result.get() != null) {
+                deleted++;
+            }
+        }
+        executor.shutdown();
+
+        Assert.assertEquals(1, deleted);
+    }
+}
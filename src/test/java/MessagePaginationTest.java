@@ -0,0 +1,147 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Model.MessagePage;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class MessagePaginationTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, add four more messages for testuser1, restart the Javalin app,
+     * and create a new webClient and ObjectMapper for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        insertMessage("test message 2", 1669947800);
+        insertMessage("test message 3", 1669947700);
+        insertMessage("test message 4", 1669947800);
+        insertMessage("test message 5", 1669947900);
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+
+    /**
+     * Walking GET localhost:8080/messages?limit=2 page by page returns every message once, in message_id order.
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: pages of 2, 2 and 1 messages, the last one without a next_cursor
+     */
+    @Test
+    public void getAllMessagesPaginated() throws IOException, InterruptedException {
+        List<Integer> ids = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            MessagePage page = getPage("http://localhost:8080/messages?limit=2" + (cursor == null ? "" : "&cursor=" + cursor));
+            Assert.assertTrue(page.messages.size() <= 2);
+            for (Message message : page.messages) {
+                ids.add(message.message_id);
+            }
+            cursor = page.next_cursor;
+            pages++;
+        } while (cursor != null);
+
+        Assert.assertEquals(3, pages);
+        Assert.assertEquals(List.of(1, 2, 3, 4, 5), ids);
+    }
+
+
+    /**
+     * Walking GET localhost:8080/accounts/1/messages?limit=3 returns the account's messages newest first,
+     * breaking ties on time_posted_epoch by message_id.
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: pages of 3 and 2 messages
+     */
+    @Test
+    public void getAllMessagesForUserPaginated() throws IOException, InterruptedException {
+        MessagePage first = getPage("http://localhost:8080/accounts/1/messages?limit=3");
+        Assert.assertEquals(3, first.messages.size());
+        Assert.assertNotNull(first.next_cursor);
+
+        MessagePage second = getPage("http://localhost:8080/accounts/1/messages?limit=3&cursor=" + first.next_cursor);
+        Assert.assertEquals(2, second.messages.size());
+        Assert.assertNull(second.next_cursor);
+
+        List<Integer> ids = new ArrayList<>();
+        first.messages.forEach(message -> ids.add(message.message_id));
+        second.messages.forEach(message -> ids.add(message.message_id));
+        Assert.assertEquals(List.of(5, 4, 2, 1, 3), ids);
+    }
+
+
+    /**
+     * Sending an http request to GET localhost:8080/messages with a malformed cursor or a non-positive limit
+     *
+     * Expected Response:
+     *  Status Code: 400
+     */
+    @Test
+    public void invalidPageParameters() throws IOException, InterruptedException {
+        Assert.assertEquals(400, get("http://localhost:8080/messages?cursor=not-a-cursor").statusCode());
+        Assert.assertEquals(400, get("http://localhost:8080/messages?limit=0").statusCode());
+        Assert.assertEquals(400, get("http://localhost:8080/accounts/1/messages?limit=abc").statusCode());
+    }
+
+
+    private HttpResponse<String> get(String uri) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(uri))
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private MessagePage getPage(String uri) throws IOException, InterruptedException {
+        HttpResponse<String> response = get(uri);
+        Assert.assertEquals(200, response.statusCode());
+        return objectMapper.readValue(response.body(), MessagePage.class);
+    }
+
+    private void insertMessage(String text, long timePostedEpoch) {
+        try (Connection conn = ConnectionUtil.getConnection()) {
+            PreparedStatement ps = conn.prepareStatement(
+                    "insert into message (posted_by, message_text, time_posted_epoch) values (1, ?, ?)");
+            ps.setString(1, text);
+            ps.setLong(2, timePostedEpoch);
+            ps.executeUpdate();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+}
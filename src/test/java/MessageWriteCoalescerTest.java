@@ -0,0 +1,118 @@
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import DAO.MessageDAO;
+import Model.Message;
+import Service.AccountService;
+import Service.MessageService;
+import Service.MessageWriteCoalescer;
+import Util.ConnectionUtil;
+
+public class MessageWriteCoalescerTest {
+    MessageWriteCoalescer writeCoalescer;
+    MessageService messageService;
+
+    /**
+     * Before every test, reset the database and create a service that inserts through a group commit writer
+     * with a long enough linger for concurrent posts to share batches.
+     */
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+        MessageDAO messageDAO = new MessageDAO();
+        writeCoalescer = new MessageWriteCoalescer(messageDAO, 16, 20);
+        messageService = new MessageService(messageDAO, new AccountService(), writeCoalescer);
+    }
+
+    @After
+    public void tearDown() {
+        writeCoalescer.close();
+    }
+
+
+    /**
+     * Concurrent posts each get their own message back with a distinct id, in fewer transactions than posts.
+     */
+    @Test
+    public void concurrentPostsShareBatches() throws Exception {
+        int posts = 64;
+        ExecutorService executor = Executors.newFixedThreadPool(posts);
+        List<Future<Message>> futures = new ArrayList<>();
+        for (int i = 0; i < posts; i++) {
+            String text = "coalesced message " + i;
+            Callable<Message> post = () -> messageService.createMessage(new Message(1, text, 1669947800));
+            futures.add(executor.submit(post));
+        }
+
+        Set<Integer> ids = new HashSet<>();
+        for (int i = 0; i < posts; i++) {
+            Message created = futures.get(i).get();
+            Assert.assertEquals("coalesced message " + i, created.message_text);
+            Assert.assertEquals(created, messageService.getMessageById(created.message_id));
+            ids.add(created.message_id);
+        }
+        executor.shutdown();
+
+        Assert.assertEquals(posts, ids.size());
+        Assert.assertEquals(posts, writeCoalescer.getMessagesFlushed());
+        Assert.assertTrue(writeCoalescer.getBatchesFlushed() < posts);
+    }
+
+
+    /**
+     * Validation still happens before queueing, so invalid posts never reach the writer.
+     */
+    @Test
+    public void invalidPostIsRejectedBeforeQueueing() {
+        Assert.assertNull(messageService.createMessage(new Message(1, "", 1669947800)));
+        Assert.assertNull(messageService.createMessage(new Message(3, "no such user", 1669947800)));
+        Assert.assertEquals(0, writeCoalescer.getMessagesFlushed());
+
+        Message created = messageService.createMessage(new Message(1, "single post", 1669947800));
+        Assert.assertEquals(new Message(2, 1, "single post", 1669947800), created);
+        Assert.assertEquals(1, writeCoalescer.getBatchesFlushed());
+    }
+
+
+    /**
+     * Callers' futures complete off the writer thread, so what they chain onto them doesn't delay the next batch.
+     */
+    @Test
+    public void futuresCompleteOffWriterThread() {
+        CompletableFuture<String> completedOn = writeCoalescer.submit(new Message(1, "async post", 1669947800))
+                .thenApply(created -> Thread.currentThread().getName());
+        Assert.assertNotEquals("message-write-coalescer", completedOn.join());
+    }
+
+
+    /**
+     * Once the coalescer is closed, a post fails instead of waiting for a writer that has stopped.
+     */
+    @Test
+    public void submitAfterCloseFails() {
+        writeCoalescer.close();
+
+        CompletableFuture<Message> result = writeCoalescer.submit(new Message(1, "too late", 1669947800));
+        try {
+            result.join();
+            Assert.fail("submit after close should fail");
+        } catch (CompletionException e) {
+            Assert.assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        Assert.assertEquals(0, writeCoalescer.getMessagesFlushed());
+    }
+}
@@ -0,0 +1,131 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import Util.LatencyHistogram;
+import Util.Metrics;
+import io.javalin.Javalin;
+
+/**
+ * The Prometheus metrics served at GET /metrics.
+ */
+public class MetricsTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient for interacting
+     * locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+
+    /**
+     * Histograms are rendered with cumulative buckets, a +Inf bucket equal to the count, and the sum in seconds.
+     */
+    @Test
+    public void rendersPrometheusTextFormat() {
+        Metrics metrics = new Metrics();
+        LatencyHistogram histogram = metrics.histogram("test_duration_seconds", "A test.", "name", "a\"b");
+        histogram.record(50_000);
+        histogram.record(2_000_000);
+        histogram.record(60_000_000_000L);
+        LongAdder counter = metrics.counter("test_total", "Counted.");
+        counter.add(3);
+        metrics.gauge("test_gauge", "Measured.", () -> 1.5);
+
+        String text = metrics.scrape();
+        Assert.assertTrue(text, text.contains("# TYPE test_duration_seconds histogram\n"));
+        Assert.assertTrue(text, text.contains("test_duration_seconds_bucket{name=\"a\\\"b\",le=\"1.0E-4\"} 1\n"));
+        Assert.assertTrue(text, text.contains("test_duration_seconds_bucket{name=\"a\\\"b\",le=\"0.0025\"} 2\n"));
+        Assert.assertTrue(text, text.contains("test_duration_seconds_bucket{name=\"a\\\"b\",le=\"10.0\"} 2\n"));
+        Assert.assertTrue(text, text.contains("test_duration_seconds_bucket{name=\"a\\\"b\",le=\"+Inf\"} 3\n"));
+        Assert.assertTrue(text, text.contains("test_duration_seconds_sum{name=\"a\\\"b\"} 60.00205\n"));
+        Assert.assertTrue(text, text.contains("test_duration_seconds_count{name=\"a\\\"b\"} 3\n"));
+        Assert.assertTrue(text, text.contains("test_total 3\n"));
+        Assert.assertTrue(text, text.contains("test_gauge 1.5\n"));
+
+        // Registering the same series again gives back the one already registered
+        Assert.assertSame(histogram, metrics.histogram("test_duration_seconds", "A test.", "name", "a\"b"));
+    }
+
+
+    /**
+     * Requests are counted per endpoint path and status class, and the DAO and connection pool are timed.
+     */
+    @Test
+    public void countsRequestsPerEndpoint() throws IOException, InterruptedException {
+        String before = scrape();
+
+        Assert.assertEquals(200, get("/messages/1").statusCode());
+        Assert.assertEquals(200, get("/messages/1").statusCode());
+        Assert.assertEquals(400, get("/messages?limit=abc").statusCode());
+        Assert.assertEquals(404, get("/no/such/endpoint").statusCode());
+
+        String after = scrape();
+        String messageById = "socialmedia_http_requests_total{method=\"GET\",path=\"/messages/{message_id}\",status=\"2xx\"}";
+        Assert.assertEquals(2, value(after, messageById) - value(before, messageById));
+        String badPage = "socialmedia_http_requests_total{method=\"GET\",path=\"/messages\",status=\"4xx\"}";
+        Assert.assertEquals(1, value(after, badPage) - value(before, badPage));
+        String unmatched = "socialmedia_http_requests_total{method=\"GET\",path=\"unmatched\",status=\"4xx\"}";
+        Assert.assertEquals(1, value(after, unmatched) - value(before, unmatched));
+        String durations = "socialmedia_http_request_duration_seconds_count{method=\"GET\",path=\"/messages/{message_id}\"}";
+        Assert.assertEquals(2, value(after, durations) - value(before, durations));
+
+        // The second GET is answered by the message cache, so only one query
+        String query = "socialmedia_dao_query_duration_seconds_count{dao=\"MessageDAO\",method=\"getMessageById\"}";
+        Assert.assertEquals(1, value(after, query) - value(before, query));
+        Assert.assertTrue(value(after, "socialmedia_db_connection_acquire_duration_seconds_count") > 0);
+        Assert.assertTrue(after, after.contains("socialmedia_cache_hits_total{cache=\"message\"} 1\n"));
+    }
+
+
+    private String scrape() throws IOException, InterruptedException {
+        HttpResponse<String> response = get("/metrics");
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertTrue(response.headers().firstValue("Content-Type").orElse("").startsWith("text/plain"));
+        return response.body();
+    }
+
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder().uri(URI.create("http://localhost:8080" + path)).build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    /**
+     * @return the value of the sample with exactly this name and labels, or 0 if there is none yet
+     */
+    private long value(String text, String series) {
+        for (String line : text.split("\n")) {
+            if (line.startsWith(series + " ")) {
+                return (long) Double.parseDouble(line.substring(series.length() + 1));
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,168 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Controller.SocialMediaController;
+import DAO.MessageDAO;
+import Model.Message;
+import Service.AccountService;
+import Service.MessageService;
+import Service.OffHeapMessageStore;
+import Util.ConnectionUtil;
+import Util.JsonUtil;
+import io.javalin.Javalin;
+
+/**
+ * The off-heap message store (socialmedia.offHeap.enabled), and the GETs served from it.
+ */
+public class OffHeapMessageStoreTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, start the Javalin app with the off-heap store enabled, and create a
+     * new webClient for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        System.setProperty("socialmedia.offHeap.enabled", "true");
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+        System.clearProperty("socialmedia.offHeap.enabled");
+    }
+
+
+    /**
+     * The JSON written from a record is byte for byte what Jackson writes for the Message, escapes included.
+     */
+    @Test
+    public void jsonMatchesJackson() throws IOException {
+        OffHeapMessageStore store = new OffHeapMessageStore(0);
+        List<Message> messages = List.of(
+                new Message(1, 2, "plain", 1669947792),
+                new Message(2, 3, "\"quoted\" back\\slash /slash", 0),
+                new Message(3, 4, "line\nbreak\ttab\r\b\f\u0001\u001f\u007f", -5),
+                new Message(Integer.MAX_VALUE, Integer.MIN_VALUE, "h\u00e9llo \u2713 \ud83d\ude00", Long.MAX_VALUE));
+        for (Message message : messages) {
+            store.put(message);
+            String expected = JsonUtil.MESSAGE_WRITER.writeValueAsString(message);
+            Assert.assertEquals(expected, new String(store.getJson(message.message_id), "UTF-8"));
+            Assert.assertEquals(message, store.get(message.message_id));
+        }
+    }
+
+
+    @Test
+    public void updatesAndRemoves() {
+        OffHeapMessageStore store = new OffHeapMessageStore(0);
+        store.put(new Message(1, 1, "first", 1));
+        store.put(new Message(1, 1, "updated", 1));
+        Assert.assertEquals("updated", store.get(1).message_text);
+        Assert.assertEquals(1, store.size());
+
+        store.remove(1);
+        Assert.assertNull(store.get(1));
+        Assert.assertNull(store.getJson(1));
+        Assert.assertEquals(0, store.size());
+    }
+
+
+    /**
+     * Once the buffer is full, the oldest records are overwritten and their messages forgotten; a message written
+     * again since is kept.
+     */
+    @Test
+    public void overwritesOldestWhenFull() {
+        OffHeapMessageStore store = new OffHeapMessageStore(64 * 1024);
+        String text = "x".repeat(200);
+        for (int id = 1; id <= 1000; id++) {
+            store.put(new Message(id, 1, text, id));
+            if (id % 100 == 0) {
+                // Keep message 1 by rewriting it now and then
+                store.put(new Message(1, 1, "kept", 1));
+            }
+        }
+
+        Assert.assertNull(store.get(2));
+        Assert.assertEquals(text, store.get(1000).message_text);
+        Assert.assertEquals("kept", store.get(1).message_text);
+        Assert.assertTrue(store.getUsedBytes() <= store.getCapacity());
+        // 292 records of 224 bytes, and the short one of message 1
+        Assert.assertTrue(store.size() <= 64 * 1024 / 224 + 1);
+        for (int id = 1000; id > 1000 - store.size() + 1; id--) {
+            Assert.assertNotNull("message " + id, store.get(id));
+        }
+    }
+
+
+    /**
+     * A message deleted after its row was read, but before that row was stored, stays deleted.
+     */
+    @Test
+    public void deleteDuringLoadIsNotUndone() {
+        MessageService[] messageService = new MessageService[1];
+        MessageDAO deletingDAO = new MessageDAO() {
+            @Override
+            public Message getMessageById(int messageId) {
+                Message message = super.getMessageById(messageId);
+                messageService[0].deleteMessageById(messageId);
+                return message;
+            }
+        };
+        messageService[0] = new MessageService(deletingDAO, new AccountService());
+
+        Assert.assertNotNull(messageService[0].getMessageById(1));
+        Assert.assertFalse(messageService[0].getMessageStore().contains(1));
+    }
+
+
+    /**
+     * GET /messages/{message_id} and GET /accounts/{account_id}/messages answer with the same JSON as without the
+     * store, before and after the message is held.
+     */
+    @Test
+    public void servesMessagesFromTheStore() throws IOException, InterruptedException {
+        String message = "{\"message_id\":1,\"posted_by\":1,\"message_text\":\"test message 1\","
+                + "\"time_posted_epoch\":1669947792}";
+        Assert.assertEquals(message, get("/messages/1").body());
+        Assert.assertEquals(message, get("/messages/1").body());
+        Assert.assertEquals("[" + message + "]", get("/accounts/1/messages").body());
+        Assert.assertEquals("[]", get("/accounts/2/messages").body());
+        Assert.assertEquals("", get("/messages/100").body());
+
+        HttpResponse<String> first = get("/messages/1");
+        String etag = first.headers().firstValue("ETag").orElseThrow();
+        HttpRequest conditional = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/1"))
+                .header("If-None-Match", etag)
+                .build();
+        Assert.assertEquals(304, webClient.send(conditional, HttpResponse.BodyHandlers.ofString()).statusCode());
+    }
+
+
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+}
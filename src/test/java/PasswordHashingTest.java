@@ -0,0 +1,135 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Model.Account;
+import Service.AccountService;
+import Util.ConnectionUtil;
+import Util.PasswordHasher;
+
+public class PasswordHashingTest {
+    AccountService accountService;
+
+    /**
+     * Before every test, reset the database and create a service with empty caches.
+     */
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+        accountService = new AccountService();
+    }
+
+
+    @Test
+    public void hashIsSaltedAndVerifies() {
+        PasswordHasher passwordHasher = new PasswordHasher(1000);
+        String first = passwordHasher.hash("password");
+        String second = passwordHasher.hash("password");
+
+        Assert.assertNotEquals(first, second);
+        Assert.assertTrue(passwordHasher.verify("password", first));
+        Assert.assertTrue(passwordHasher.verify("password", second));
+        Assert.assertFalse(passwordHasher.verify("Password", first));
+        Assert.assertFalse(passwordHasher.verify("password", "pbkdf2-sha256$1000$garbage"));
+    }
+
+
+    /**
+     * Plaintext and hashes made with another cost should be re-hashed; hashes with the current cost shouldn't.
+     */
+    @Test
+    public void needsRehashForPlaintextAndOtherCost() {
+        PasswordHasher passwordHasher = new PasswordHasher(1000);
+
+        Assert.assertTrue(passwordHasher.verify("password", "password"));
+        Assert.assertTrue(passwordHasher.needsRehash("password"));
+        Assert.assertTrue(passwordHasher.needsRehash(new PasswordHasher(500).hash("password")));
+        Assert.assertFalse(passwordHasher.needsRehash(passwordHasher.hash("password")));
+    }
+
+
+    /**
+     * A new account's password is stored hashed, and the account can log in with it.
+     */
+    @Test
+    public void registrationStoresHash() throws SQLException {
+        Account registered = accountService.addAccount(new Account("newuser", "secret password"));
+        Assert.assertEquals(new Account(2, "newuser", "secret password"), registered);
+
+        String stored = storedPassword(2);
+        Assert.assertTrue(stored, stored.startsWith("pbkdf2-sha256$"));
+        Assert.assertFalse(stored.contains("secret password"));
+
+        Assert.assertEquals(registered, new AccountService().loginAccount(new Account("newuser", "secret password")));
+        Assert.assertNull(new AccountService().loginAccount(new Account("newuser", "wrong password")));
+    }
+
+
+    /**
+     * testuser1's plaintext password from before hashing still logs in, and is hashed once it has.
+     */
+    @Test
+    public void plaintextPasswordIsUpgradedOnLogin() throws SQLException {
+        Assert.assertEquals("password", storedPassword(1));
+
+        Account expected = new Account(1, "testuser1", "password");
+        Assert.assertEquals(expected, accountService.loginAccount(new Account("testuser1", "password")));
+        Assert.assertTrue(storedPassword(1).startsWith("pbkdf2-sha256$"));
+
+        Assert.assertEquals(expected, new AccountService().loginAccount(new Account("testuser1", "password")));
+        Assert.assertNull(new AccountService().loginAccount(new Account("testuser1", "wrong")));
+    }
+
+
+    /**
+     * The async variants, which hash on the CPU executor between database calls, register, log in and upgrade a
+     * plaintext password like the blocking ones.
+     */
+    @Test
+    public void asyncRegistrationAndLogin() throws SQLException {
+        Account expected = new Account(1, "testuser1", "password");
+        Assert.assertEquals(expected, accountService.loginAccountAsync(new Account("testuser1", "password")).join());
+        Assert.assertTrue(storedPassword(1).startsWith("pbkdf2-sha256$"));
+        Assert.assertNull(accountService.loginAccountAsync(new Account("testuser1", "wrong")).join());
+        Assert.assertNull(accountService.loginAccountAsync(new Account("nobody", "password")).join());
+
+        Account registered = accountService.addAccountAsync(new Account("newuser", "secret password")).join();
+        Assert.assertEquals(new Account(2, "newuser", "secret password"), registered);
+        Assert.assertNull(accountService.addAccountAsync(new Account("newuser", "secret password")).join());
+        Assert.assertEquals(registered,
+                new AccountService().loginAccountAsync(new Account("newuser", "secret password")).join());
+    }
+
+
+    /**
+     * A second login with the same password is answered by the credential cache; a different password isn't.
+     */
+    @Test
+    public void repeatedLoginHitsCredentialCache() {
+        accountService.loginAccount(new Account("testuser1", "password"));
+        Assert.assertEquals(0, accountService.getCredentialCache().stats().hitCount());
+
+        Assert.assertNotNull(accountService.loginAccount(new Account("testuser1", "password")));
+        Assert.assertEquals(1, accountService.getCredentialCache().stats().hitCount());
+
+        Assert.assertNull(accountService.loginAccount(new Account("testuser1", "not the password")));
+        Assert.assertNull(accountService.loginAccount(new Account("nobody", "password")));
+    }
+
+
+    private String storedPassword(int accountId) throws SQLException {
+        try (Connection connection = ConnectionUtil.getConnection();
+                PreparedStatement ps = connection.prepareStatement("SELECT password FROM account WHERE account_id = ?")) {
+            ps.setInt(1, accountId);
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                return rs.getString(1);
+            }
+        }
+    }
+}
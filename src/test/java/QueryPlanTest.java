@@ -0,0 +1,157 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import DAO.AccountDAO;
+import DAO.MessageDAO;
+import Model.MessageCursor;
+import Util.ConnectionUtil;
+import Util.SchemaMigrator;
+import Util.StatementProfiler;
+
+/**
+ * Checks the plans H2 chooses for the statements the DAOs prepare, so a schema or query change that makes a keyed
+ * lookup scan the whole table fails here rather than in production. The SQL is not copied: every hot DAO method is
+ * called with a StatementProfiler on the pool, and the statements it recorded are explained. Queries that are meant
+ * to read every row (eg getAllMessages) and inserts are not checked.
+ */
+public class QueryPlanTest {
+    /**
+     * The data change statements the DAOs wrap in SELECT * FROM OLD/FINAL TABLE (...). The plan of the wrapper only
+     * shows a scan of the delta table, so the statement inside is explained instead.
+     */
+    private static final Pattern DATA_CHANGE_DELTA =
+            Pattern.compile("^SELECT \\* FROM (?:OLD|FINAL) TABLE \\((.*)\\)$");
+
+    Connection connection;
+    StatementProfiler profiler;
+
+    /**
+     * Before every test, reset the database and give it enough rows across enough accounts that the planner's
+     * choices are the ones it would make on a real table, then start recording the statements the DAOs prepare.
+     */
+    @Before
+    public void setUp() throws SQLException {
+        ConnectionUtil.resetTestDatabase();
+        connection = ConnectionUtil.getConnection();
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("INSERT INTO account (username, password) "
+                    + "SELECT 'planuser' || x, 'password' FROM SYSTEM_RANGE(2, 100);");
+            statement.execute("INSERT INTO message (posted_by, message_text, time_posted_epoch) "
+                    + "SELECT MOD(x, 100) + 1, 'plan message', 1669947800 + x FROM SYSTEM_RANGE(1, 5000);");
+            statement.execute("ANALYZE;");
+        }
+        profiler = new StatementProfiler(60_000, false);
+        ConnectionUtil.getPool().setStatementProfiler(profiler);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        ConnectionUtil.getPool().setStatementProfiler(null);
+        connection.close();
+    }
+
+
+    /**
+     * Every migration has been recorded, so migrating again does nothing.
+     */
+    @Test
+    public void migrationsRunOnce() throws SQLException {
+        Assert.assertEquals(0, SchemaMigrator.migrate(connection));
+
+        try (Statement statement = connection.createStatement();
+                ResultSet rs = statement.executeQuery("SELECT MAX(version) FROM schema_version;")) {
+            rs.next();
+            Assert.assertEquals(4, rs.getInt(1));
+        }
+    }
+
+
+    @Test
+    public void accountLookupsUseIndexes() throws SQLException {
+        AccountDAO accountDAO = new AccountDAO();
+        accountDAO.getAccountByUsername("testuser1");
+        accountDAO.getAccountById(1);
+        accountDAO.getAccountsByIds(List.of(1, 2, 3));
+        accountDAO.updatePassword(1, "password", "password");
+
+        Map<String, String> plans = explainRecorded();
+        Assert.assertEquals(plans.keySet().toString(), 4, plans.size());
+        plans.forEach(QueryPlanTest::assertNoTableScan);
+    }
+
+
+    @Test
+    public void messageLookupsUseIndexes() throws SQLException {
+        MessageDAO messageDAO = new MessageDAO();
+        messageDAO.getMessageById(1);
+        messageDAO.getMessagesByIds(List.of(1, 2, 3));
+        messageDAO.getMessagesAfter(100, 10);
+        messageDAO.getAllMessagesByAccountId(1);
+        messageDAO.updateMessageById(1, "updated");
+        messageDAO.deleteMessageById(1);
+
+        Map<String, String> plans = explainRecorded();
+        Assert.assertEquals(plans.keySet().toString(), 6, plans.size());
+        plans.forEach(QueryPlanTest::assertNoTableScan);
+    }
+
+
+    /**
+     * Timeline pages seek into the timeline index and read it in page order, so they never sort.
+     */
+    @Test
+    public void timelinePagesReadIndexInOrder() throws SQLException {
+        MessageDAO messageDAO = new MessageDAO();
+        messageDAO.getMessagesByAccountIdBefore(1, null, 10);
+        messageDAO.getMessagesByAccountIdBefore(1, new MessageCursor(1669950000, 2200), 10);
+
+        Map<String, String> plans = explainRecorded();
+        Assert.assertEquals(plans.keySet().toString(), 2, plans.size());
+        plans.forEach((sql, plan) -> {
+            Assert.assertTrue(plan, plan.contains("MESSAGE_POSTED_BY_TIME_IDX: POSTED_BY = ?"));
+            Assert.assertTrue(plan, plan.contains("index sorted"));
+        });
+    }
+
+
+    /**
+     * @return the EXPLAIN plan of every statement recorded by the profiler, by SQL
+     */
+    private Map<String, String> explainRecorded() throws SQLException {
+        Map<String, String> plans = new HashMap<>();
+        for (StatementProfiler.QueryStats stats : profiler.snapshot()) {
+            String sql = stats.getSql();
+            Matcher delta = DATA_CHANGE_DELTA.matcher(sql);
+            plans.put(sql, explain(delta.matches() ? delta.group(1) : sql));
+        }
+        return plans;
+    }
+
+    private static void assertNoTableScan(String sql, String plan) {
+        Assert.assertFalse(sql + "\n" + plan, plan.contains("tableScan"));
+    }
+
+    /**
+     * Explain a statement without binding its parameters, as the plan doesn't depend on their values.
+     */
+    private String explain(String sql) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("EXPLAIN " + sql);
+                ResultSet rs = statement.executeQuery()) {
+            rs.next();
+            return rs.getString(1);
+        }
+    }
+}
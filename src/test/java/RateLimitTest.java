@@ -0,0 +1,170 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import Util.RateLimiter;
+import io.javalin.Javalin;
+
+/**
+ * The per-account rate limits (429) and the concurrency limit.
+ */
+public class RateLimitTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, start the Javalin app with an account write limit of 2 messages at once
+     * and a concurrency limit of 1 request, and create a new webClient for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        System.setProperty("socialmedia.rateLimit.account.writesPerSecond", "1");
+        System.setProperty("socialmedia.rateLimit.account.writeBurst", "2");
+        System.setProperty("socialmedia.admission.maxConcurrent", "1");
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+        System.clearProperty("socialmedia.rateLimit.account.writesPerSecond");
+        System.clearProperty("socialmedia.rateLimit.account.writeBurst");
+        System.clearProperty("socialmedia.admission.maxConcurrent");
+    }
+
+
+    /**
+     * A key gets its burst at once, then has to wait; other keys are unaffected.
+     */
+    @Test
+    public void limiterAllowsBurstThenRate() {
+        RateLimiter rateLimiter = new RateLimiter(1, 3, 64);
+        Assert.assertEquals(0, rateLimiter.tryAcquire(1));
+        Assert.assertEquals(0, rateLimiter.tryAcquire(1));
+        Assert.assertEquals(0, rateLimiter.tryAcquire(1));
+
+        long wait = rateLimiter.tryAcquire(1);
+        Assert.assertTrue(wait > 0 && wait <= 1_000_000_000L);
+        Assert.assertEquals(1, rateLimiter.getRejected());
+
+        Assert.assertEquals(0, rateLimiter.tryAcquire(2));
+        // More permits than the burst are allowed into a full bucket, and charged in full
+        Assert.assertEquals(0, rateLimiter.tryAcquire(3, 4));
+        Assert.assertTrue(rateLimiter.tryAcquire(3) > 0);
+
+        // Permits given back can be taken again
+        Assert.assertEquals(0, rateLimiter.tryAcquire(4, 3));
+        rateLimiter.release(4, 2);
+        Assert.assertEquals(0, rateLimiter.tryAcquire(4, 2));
+        Assert.assertTrue(rateLimiter.tryAcquire(4) > 0);
+    }
+
+
+    /**
+     * Batches larger than the burst, sent as fast as they are allowed, still only get the sustained rate.
+     */
+    @Test
+    public void oversizedBatchesKeepToTheRate() throws InterruptedException {
+        RateLimiter rateLimiter = new RateLimiter(10, 5, 64);
+        long allowed = 0;
+        long start = System.nanoTime();
+        while (System.nanoTime() - start < 1_500_000_000L) {
+            if (rateLimiter.tryAcquire(1, 20) == 0) {
+                allowed += 20;
+            }
+            Thread.sleep(10);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        // One batch into the full bucket, then 10 per second
+        Assert.assertTrue("allowed " + allowed, allowed <= 20 + 10 * seconds);
+    }
+
+
+    /**
+     * The third message in quick succession from one account is refused with 429 and a Retry-After.
+     */
+    @Test
+    public void accountWriteLimitAnswers429() throws IOException, InterruptedException {
+        String body = "{\"posted_by\":1, \"message_text\": \"hello\", \"time_posted_epoch\": 1669947792}";
+        Assert.assertEquals(200, post("/messages", body).statusCode());
+        Assert.assertEquals(200, post("/messages", body).statusCode());
+
+        HttpResponse<String> refused = post("/messages", body);
+        Assert.assertEquals(429, refused.statusCode());
+        Assert.assertEquals("1", refused.headers().firstValue("Retry-After").orElse(null));
+
+        // A batch counts each of its messages
+        String batch = "[" + body + "]";
+        Assert.assertEquals(429, post("/messages/batch", batch).statusCode());
+    }
+
+
+    /**
+     * A batch refused for one of its accounts isn't charged to the others, and a batch larger than the burst is
+     * allowed into an idle account's bucket.
+     */
+    @Test
+    public void batchIsChargedAllOrNothing() throws IOException, InterruptedException {
+        register("testuser2");
+        register("testuser3");
+
+        Assert.assertEquals(200, post("/messages/batch", "[" + message(2) + "," + message(2) + "]").statusCode());
+        // Account 2 is refused, so account 1 is given its permits back
+        Assert.assertEquals(429, post("/messages/batch", "[" + message(1) + "," + message(2) + "]").statusCode());
+        Assert.assertEquals(200, post("/messages/batch", "[" + message(1) + "," + message(1) + "]").statusCode());
+
+        String overBurst = "[" + message(3) + "," + message(3) + "," + message(3) + "]";
+        Assert.assertEquals(200, post("/messages/batch", overBurst).statusCode());
+        Assert.assertEquals(429, post("/messages", message(3)).statusCode());
+    }
+
+
+    /**
+     * With a concurrency limit of 1, sequential requests all get through: each one's slot is given back once its
+     * (async) response is complete.
+     */
+    @Test
+    public void concurrencySlotIsReleased() throws IOException, InterruptedException {
+        for (int i = 0; i < 5; i++) {
+            HttpRequest request = HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:8080/messages/1"))
+                    .build();
+            Assert.assertEquals(200, webClient.send(request, HttpResponse.BodyHandlers.ofString()).statusCode());
+        }
+    }
+
+
+    private void register(String username) throws IOException, InterruptedException {
+        String body = "{\"username\": \"" + username + "\", \"password\": \"password\"}";
+        Assert.assertEquals(200, post("/register", body).statusCode());
+    }
+
+    private String message(int postedBy) {
+        return "{\"posted_by\":" + postedBy + ", \"message_text\": \"hello\", \"time_posted_epoch\": 1669947792}";
+    }
+
+    private HttpResponse<String> post(String path, String body) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+}
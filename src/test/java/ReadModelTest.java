@@ -0,0 +1,198 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Model.MessagePage;
+import Service.MessageEventBus;
+import Service.MessageReadModel;
+import Service.MessageService;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+/**
+ * The GETs served from the in-memory read model (socialmedia.readModel.enabled).
+ */
+public class ReadModelTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, add four more messages for testuser1, start the Javalin app with the
+     * read model enabled, and create a new webClient and ObjectMapper for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        System.setProperty("socialmedia.readModel.enabled", "true");
+        ConnectionUtil.resetTestDatabase();
+        insertMessage("test message 2", 1669947800);
+        insertMessage("test message 3", 1669947700);
+        insertMessage("test message 4", 1669947800);
+        insertMessage("test message 5", 1669947900);
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+        System.clearProperty("socialmedia.readModel.enabled");
+    }
+
+
+    /**
+     * The messages in the database on startup are loaded, and paged in the same order as the database pages them.
+     */
+    @Test
+    public void loadsAndPagesLikeTheDatabase() throws IOException, InterruptedException {
+        MessagePage first = getPage("http://localhost:8080/accounts/1/messages?limit=3");
+        Assert.assertEquals(3, first.messages.size());
+        MessagePage second = getPage("http://localhost:8080/accounts/1/messages?limit=3&cursor=" + first.next_cursor);
+        Assert.assertNull(second.next_cursor);
+
+        List<Integer> ids = new ArrayList<>();
+        first.messages.forEach(message -> ids.add(message.message_id));
+        second.messages.forEach(message -> ids.add(message.message_id));
+        Assert.assertEquals(List.of(5, 4, 2, 1, 3), ids);
+
+        MessagePage all = getPage("http://localhost:8080/messages?limit=4");
+        Assert.assertEquals(4, all.messages.size());
+        Assert.assertEquals(5, getPage("http://localhost:8080/messages?limit=4&cursor=" + all.next_cursor)
+                .messages.get(0).message_id);
+    }
+
+
+    /**
+     * A message created, updated or deleted through the API is read back straight away.
+     */
+    @Test
+    public void readsItsOwnWrites() throws IOException, InterruptedException {
+        HttpRequest create = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString(
+                        "{\"posted_by\":1, \"message_text\": \"hello\", \"time_posted_epoch\": 1669948000}"))
+                .header("Content-Type", "application/json")
+                .build();
+        Message created = objectMapper.readValue(
+                webClient.send(create, HttpResponse.BodyHandlers.ofString()).body(), Message.class);
+        Assert.assertEquals(created, getMessage(created.message_id));
+        Assert.assertEquals(created.message_id,
+                getPage("http://localhost:8080/accounts/1/messages?limit=1").messages.get(0).message_id);
+
+        HttpRequest update = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/" + created.message_id))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\": \"updated\"}"))
+                .header("Content-Type", "application/json")
+                .build();
+        Assert.assertEquals(200, webClient.send(update, HttpResponse.BodyHandlers.ofString()).statusCode());
+        Assert.assertEquals("updated", getMessage(created.message_id).message_text);
+
+        HttpRequest delete = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/" + created.message_id))
+                .DELETE()
+                .build();
+        Assert.assertEquals(200, webClient.send(delete, HttpResponse.BodyHandlers.ofString()).statusCode());
+        Assert.assertEquals("", get("http://localhost:8080/messages/" + created.message_id).body());
+        Assert.assertEquals(5, getPage("http://localhost:8080/accounts/1/messages?limit=10").messages.size());
+    }
+
+
+    /**
+     * Rows written to the database behind the service's back are only seen once the read model is rebuilt, by a
+     * new service.
+     */
+    @Test
+    public void rebuiltFromTheDatabase() throws IOException, InterruptedException {
+        insertMessage("test message 6", 1669948100);
+        Assert.assertEquals("", get("http://localhost:8080/messages/6").body());
+
+        MessageService restarted = new MessageService();
+        Assert.assertNotNull(restarted.getReadModel());
+        Assert.assertEquals(6, restarted.getReadModel().size());
+        Assert.assertEquals("test message 6", restarted.getMessageById(6).message_text);
+    }
+
+
+    /**
+     * The creation of a message can be published after its update or delete; it neither replaces the newer text
+     * nor brings the message back.
+     */
+    @Test
+    public void createdAfterUpdateOrDeleteIsSkipped() {
+        MessageReadModel model = new MessageReadModel();
+        MessageEventBus eventBus = new MessageEventBus(16, 16);
+        eventBus.addListener(model::apply);
+
+        eventBus.publish(MessageEventBus.UPDATED, new Message(10, 1, "updated", 1669948000));
+        eventBus.publish(MessageEventBus.CREATED, new Message(10, 1, "created", 1669948000));
+        Assert.assertEquals("updated", model.getMessageById(10).message_text);
+
+        eventBus.publish(MessageEventBus.DELETED, new Message(11, 1, "created", 1669948000));
+        eventBus.publish(MessageEventBus.CREATED, new Message(11, 1, "created", 1669948000));
+        Assert.assertNull(model.getMessageById(11));
+
+        eventBus.publish(MessageEventBus.UPDATED, new Message(12, 1, "updated", 1669948000));
+        eventBus.publish(MessageEventBus.DELETED, new Message(12, 1, "updated", 1669948000));
+        eventBus.publish(MessageEventBus.CREATED, new Message(12, 1, "created", 1669948000));
+        Assert.assertNull(model.getMessageById(12));
+
+        eventBus.publish(MessageEventBus.CREATED, new Message(13, 1, "created", 1669948000));
+        eventBus.publish(MessageEventBus.UPDATED, new Message(13, 1, "updated", 1669948000));
+        Assert.assertEquals("updated", model.getMessageById(13).message_text);
+        Assert.assertEquals(2, model.getAllMessagesByAccountId(1).size());
+    }
+
+
+    private HttpResponse<String> get(String uri) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(uri))
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private Message getMessage(int messageId) throws IOException, InterruptedException {
+        HttpResponse<String> response = get("http://localhost:8080/messages/" + messageId);
+        Assert.assertEquals(200, response.statusCode());
+        return objectMapper.readValue(response.body(), Message.class);
+    }
+
+    private MessagePage getPage(String uri) throws IOException, InterruptedException {
+        HttpResponse<String> response = get(uri);
+        Assert.assertEquals(200, response.statusCode());
+        return objectMapper.readValue(response.body(), MessagePage.class);
+    }
+
+    private void insertMessage(String text, long timePostedEpoch) {
+        try (Connection conn = ConnectionUtil.getConnection()) {
+            PreparedStatement ps = conn.prepareStatement(
+                    "insert into message (posted_by, message_text, time_posted_epoch) values (1, ?, ?)");
+            ps.setString(1, text);
+            ps.setLong(2, timePostedEpoch);
+            ps.executeUpdate();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,179 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+/**
+ * Response compression and the fields query parameter on the list endpoints.
+ */
+public class ResponseSizeTest {
+    static final int MESSAGE_COUNT = 500;
+
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, give it enough messages that the lists are worth compressing, restart
+     * the Javalin app, and create a new webClient and ObjectMapper for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException, SQLException {
+        ConnectionUtil.resetTestDatabase();
+        try (Connection conn = ConnectionUtil.getConnection();
+                PreparedStatement ps = conn.prepareStatement(
+                        "insert into message (posted_by, message_text, time_posted_epoch) values (1, ?, ?)")) {
+            for (int i = 2; i <= MESSAGE_COUNT; i++) {
+                ps.setString(1, "message number " + i);
+                ps.setLong(2, 1669947792L + i);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+
+    /**
+     * The streamed list is gzipped for a client that accepts gzip, and decompresses to every message.
+     */
+    @Test
+    public void largeListIsGzipped() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .header("Accept-Encoding", "gzip")
+                .build();
+        HttpResponse<InputStream> response = webClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertEquals("gzip", response.headers().firstValue("Content-Encoding").orElse(null));
+        try (InputStream body = new GZIPInputStream(response.body())) {
+            Assert.assertEquals(MESSAGE_COUNT, objectMapper.readTree(body).size());
+        }
+    }
+
+
+    /**
+     * A response under the size threshold is sent as is.
+     */
+    @Test
+    public void smallResponseIsNotCompressed() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/1"))
+                .header("Accept-Encoding", "gzip")
+                .build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertFalse(response.headers().firstValue("Content-Encoding").isPresent());
+        Assert.assertEquals(1, objectMapper.readTree(response.body()).get("message_id").asInt());
+    }
+
+
+    @Test
+    public void streamedListHasOnlyRequestedFields() throws IOException, InterruptedException {
+        JsonNode messages = getJson("/messages?fields=message_id,message_text");
+
+        Assert.assertEquals(MESSAGE_COUNT, messages.size());
+        assertFields(messages, "message_id", "message_text");
+        Assert.assertEquals("message number 2", messages.get(1).get("message_text").asText());
+    }
+
+
+    /**
+     * message_id isn't requested, but pages still chain through next_cursor.
+     */
+    @Test
+    public void pagedListHasOnlyRequestedFields() throws IOException, InterruptedException {
+        JsonNode page = getJson("/messages?limit=300&fields=message_text");
+        assertFields(page.get("messages"), "message_text");
+        Assert.assertEquals(300, page.get("messages").size());
+
+        JsonNode nextPage = getJson("/messages?limit=300&fields=message_text&cursor="
+                + page.get("next_cursor").asText());
+        assertFields(nextPage.get("messages"), "message_text");
+        Assert.assertEquals(MESSAGE_COUNT - 300, nextPage.get("messages").size());
+        Assert.assertTrue(nextPage.get("next_cursor").isNull());
+    }
+
+
+    @Test
+    public void accountMessagesHaveOnlyRequestedFields() throws IOException, InterruptedException {
+        JsonNode messages = getJson("/accounts/1/messages?fields=time_posted_epoch,message_id");
+        Assert.assertEquals(MESSAGE_COUNT, messages.size());
+        assertFields(messages, "message_id", "time_posted_epoch");
+
+        JsonNode page = getJson("/accounts/1/messages?limit=10&fields=posted_by");
+        Assert.assertEquals(10, page.get("messages").size());
+        assertFields(page.get("messages"), "posted_by");
+        Assert.assertFalse(page.get("next_cursor").isNull());
+    }
+
+
+    @Test
+    public void unknownFieldIsRejected() throws IOException, InterruptedException {
+        for (String path : List.of("/messages?fields=password", "/messages?limit=5&fields=message_id,bogus",
+                "/accounts/1/messages?fields=username")) {
+            HttpRequest request = HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:8080" + path))
+                    .build();
+            HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+            Assert.assertEquals(path, 400, response.statusCode());
+        }
+    }
+
+
+    private JsonNode getJson(String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, response.statusCode());
+        return objectMapper.readTree(response.body());
+    }
+
+    private void assertFields(JsonNode messages, String... expected) {
+        for (JsonNode message : messages) {
+            Assert.assertEquals(message.toString(), expected.length, message.size());
+            for (String name : expected) {
+                Assert.assertTrue(message.toString(), message.has(name));
+            }
+            Iterator<String> names = message.fieldNames();
+            while (names.hasNext()) {
+                Assert.assertTrue(List.of(expected).contains(names.next()));
+            }
+        }
+    }
+}
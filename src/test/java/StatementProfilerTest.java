@@ -0,0 +1,135 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import Controller.SocialMediaController;
+import DAO.MessageDAO;
+import Util.ConnectionUtil;
+import Util.JsonUtil;
+import Util.StatementProfiler;
+import io.javalin.Javalin;
+
+/**
+ * The per-statement statistics and slow statement log, and GET /admin/queries.
+ */
+public class StatementProfilerTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, turn on profiling with empty statistics, restart the Javalin app, and
+     * create a new webClient for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        ConnectionUtil.getPool().setStatementProfiler(new StatementProfiler(100, true));
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+        ConnectionUtil.getPool().setStatementProfiler(null);
+    }
+
+
+    @Test
+    public void normalizesLiteralsAndWhitespace() {
+        Assert.assertEquals("SELECT * FROM message WHERE message_id = ? AND message_text = ?",
+                StatementProfiler.normalize("SELECT *\n  FROM message WHERE message_id = 42 AND message_text = 'it''s';"));
+        Assert.assertEquals("SELECT * FROM account WHERE username = ?",
+                StatementProfiler.normalize("SELECT * FROM account WHERE username = ?;"));
+    }
+
+
+    /**
+     * DAO statements are counted per SQL with the rows they returned.
+     */
+    @Test
+    public void countsDaoStatements() {
+        MessageDAO messageDAO = new MessageDAO();
+        messageDAO.getMessageById(1);
+        messageDAO.getMessageById(2);
+
+        StatementProfiler.QueryStats stats = find("SELECT * FROM message WHERE message_id = ?");
+        Assert.assertEquals(2, stats.getCount());
+        Assert.assertEquals(1, stats.getRows());
+        Assert.assertTrue(stats.getMaxMillis() > 0);
+        Assert.assertTrue(stats.getMeanMillis() <= stats.getMaxMillis());
+    }
+
+
+    /**
+     * With a threshold of 0 every statement is slow, and gets its EXPLAIN plan.
+     */
+    @Test
+    public void explainsSlowStatements() throws SQLException {
+        StatementProfiler profiler = new StatementProfiler(0, true);
+        String sql = "SELECT * FROM message WHERE message_id = ?;";
+        try (Connection connection = ConnectionUtil.getConnection();
+                PreparedStatement ps = profiler.wrap(connection.prepareStatement(sql), sql)) {
+            ps.setInt(1, 1);
+            try (ResultSet rs = ps.executeQuery()) {
+                Assert.assertTrue(rs.next());
+            }
+        }
+
+        Assert.assertEquals(1, profiler.getSlowStatements());
+        StatementProfiler.QueryStats stats = profiler.snapshot().get(0);
+        Assert.assertEquals(1, stats.getSlowCount());
+        Assert.assertNotNull(stats.getPlan());
+        Assert.assertTrue(stats.getPlan(), stats.getPlan().contains("PRIMARY_KEY"));
+    }
+
+
+    @Test
+    public void adminEndpointListsStatements() throws IOException, InterruptedException {
+        HttpRequest getMessage = HttpRequest.newBuilder().uri(URI.create("http://localhost:8080/messages/1")).build();
+        Assert.assertEquals(200, webClient.send(getMessage, HttpResponse.BodyHandlers.ofString()).statusCode());
+
+        HttpRequest queries = HttpRequest.newBuilder().uri(URI.create("http://localhost:8080/admin/queries")).build();
+        HttpResponse<String> response = webClient.send(queries, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, response.statusCode());
+
+        JsonNode stats = JsonUtil.MAPPER.readTree(response.body());
+        boolean found = false;
+        for (JsonNode statement : stats) {
+            if (statement.get("sql").asText().equals("SELECT * FROM message WHERE message_id = ?")) {
+                found = true;
+                Assert.assertEquals(1, statement.get("count").asLong());
+                Assert.assertTrue(statement.has("meanMillis"));
+            }
+        }
+        Assert.assertTrue(response.body(), found);
+    }
+
+
+    private StatementProfiler.QueryStats find(String sql) {
+        for (StatementProfiler.QueryStats stats : ConnectionUtil.getStatementProfiler().snapshot()) {
+            if (stats.getSql().equals(sql)) {
+                return stats;
+            }
+        }
+        throw new AssertionError("no stats for " + sql);
+    }
+}
@@ -0,0 +1,159 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import DAO.MessageDAO;
+import Model.Message;
+import Model.MessageFields;
+import Service.AccountService;
+import Service.MessageService;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class StreamAllMessagesTest {
+    static final int MESSAGE_COUNT = 5000;
+
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, fill the message table with more rows than one fetch, restart the
+     * Javalin app, and create a new webClient and ObjectMapper for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException, SQLException {
+        ConnectionUtil.resetTestDatabase();
+        try (Connection conn = ConnectionUtil.getConnection()) {
+            PreparedStatement ps = conn.prepareStatement(
+                    "insert into message (posted_by, message_text, time_posted_epoch) values (1, ?, ?)");
+            for (int i = 2; i <= MESSAGE_COUNT; i++) {
+                ps.setString(1, "streamed message " + i);
+                ps.setLong(2, 1669947792L + i);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+
+    /**
+     * Sending an http request to GET localhost:8080/messages with thousands of messages in the db
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: JSON array of every message, in message_id order
+     */
+    @Test
+    public void getAllMessagesStreamsEveryRow() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertTrue(response.headers().firstValue("Content-Type").orElse("").startsWith("application/json"));
+
+        List<Message> messages = objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){});
+        Assert.assertEquals(MESSAGE_COUNT, messages.size());
+        Assert.assertEquals(new Message(1, 1, "test message 1", 1669947792), messages.get(0));
+        for (int i = 1; i < MESSAGE_COUNT; i++) {
+            Assert.assertEquals(i + 1, messages.get(i).message_id);
+            Assert.assertEquals("streamed message " + (i + 1), messages.get(i).message_text);
+        }
+    }
+
+
+
+    /**
+     * GET localhost:8080/messages when the query fails after some rows were sent: the connection is cut, so the
+     * client can't take the rows it got for the full list.
+     */
+    @Test
+    public void failureMidStreamAbortsResponse() throws IOException, InterruptedException {
+        restartWithFailingStream(2000);
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .build();
+        try {
+            HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+            Assert.fail("Expected a failed transfer, got " + response.statusCode() + " with "
+                    + response.body().length() + " characters");
+        } catch (IOException expected) {
+        }
+    }
+
+
+    /**
+     * GET localhost:8080/messages when the query fails before any row was sent
+     *
+     * Expected Response:
+     *  Status Code: 500
+     */
+    @Test
+    public void failureBeforeFirstRowIs500() throws IOException, InterruptedException {
+        restartWithFailingStream(0);
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(500, response.statusCode());
+        Assert.assertEquals("", response.body());
+    }
+
+
+    /**
+     * Restart the app with a MessageDAO whose chunks hand out rowsBeforeFailure messages and then fail.
+     */
+    private void restartWithFailingStream(int rowsBeforeFailure) throws InterruptedException {
+        app.stop();
+        MessageDAO failing = new MessageDAO() {
+            @Override
+            public List<Message> getMessagesAfterOrThrow(int afterMessageId, int limit, MessageFields fields)
+                    throws IOException {
+                if (afterMessageId >= rowsBeforeFailure) {
+                    throw new IOException("Reading messages after " + afterMessageId + " failed");
+                }
+                List<Message> messages = new ArrayList<>();
+                for (int i = afterMessageId + 1; i <= Math.min(rowsBeforeFailure, afterMessageId + limit); i++) {
+                    messages.add(new Message(i, 1, "streamed message " + i, 1669947792L + i));
+                }
+                return messages;
+            }
+        };
+        AccountService accountService = new AccountService();
+        socialMediaController = new SocialMediaController(accountService, new MessageService(failing, accountService));
+        app = socialMediaController.startAPI();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+}
@@ -0,0 +1,105 @@
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Model.Message;
+import Model.MessageFields;
+import Service.MessageService;
+import Service.TimelineCache;
+import Util.ConnectionUtil;
+
+public class TimelineCacheTest {
+    MessageService messageService;
+
+    /**
+     * Before every test, reset the database and create a service with empty caches.
+     */
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+        messageService = new MessageService();
+    }
+
+
+    /**
+     * The first read loads the timeline, later reads are served from it.
+     */
+    @Test
+    public void repeatedReadHitsTimeline() {
+        List<Message> expected = List.of(new Message(1, 1, "test message 1", 1669947792));
+
+        Assert.assertEquals(expected, messageService.getAllMessagesByAccountId(1));
+        Assert.assertEquals(expected, messageService.getAllMessagesByAccountId(1));
+
+        Assert.assertEquals(1, messageService.getTimelineCache().stats().missCount());
+        Assert.assertEquals(1, messageService.getTimelineCache().stats().hitCount());
+    }
+
+
+    /**
+     * Creating, updating and deleting messages keep a cached timeline in step with the database.
+     */
+    @Test
+    public void writesKeepTimelineCoherent() {
+        messageService.getAllMessagesByAccountId(1);
+
+        Message second = messageService.createMessage(new Message(1, "second message", 1669947800));
+        List<Message> batch = messageService.createMessages(List.of(
+                new Message(1, "third message", 1669947801),
+                new Message(1, "fourth message", 1669947802)));
+        messageService.updateMessageById(second.message_id, "second message, edited");
+        messageService.deleteMessageById(1);
+
+        List<Message> expected = List.of(
+                new Message(second.message_id, 1, "second message, edited", 1669947800),
+                batch.get(0),
+                batch.get(1));
+        Assert.assertEquals(expected, messageService.getAllMessagesByAccountId(1));
+        Assert.assertEquals(1, messageService.getTimelineCache().stats().missCount());
+    }
+
+
+    /**
+     * A projection without message_text is built from the timeline's arrays.
+     */
+    @Test
+    public void projectionIsServedFromTimeline() {
+        Message second = messageService.createMessage(new Message(1, "second message", 1669947800));
+
+        List<Message> messages = messageService.getAllMessagesByAccountId(1,
+                MessageFields.parse("message_id,time_posted_epoch"));
+
+        Assert.assertEquals(2, messages.size());
+        Assert.assertEquals(1, messages.get(0).message_id);
+        Assert.assertEquals(1669947792, messages.get(0).time_posted_epoch);
+        Assert.assertEquals(second.message_id, messages.get(1).message_id);
+        Assert.assertEquals(1669947800, messages.get(1).time_posted_epoch);
+        Assert.assertNull(messages.get(1).message_text);
+    }
+
+
+    /**
+     * An account with more messages than maxPerAccount is read from the database every time.
+     */
+    @Test
+    public void largeTimelineIsNotHeld() {
+        TimelineCache cache = new TimelineCache(100, 2);
+        List<Message> messages = List.of(
+                new Message(3, 1, "c", 3), new Message(1, 1, "a", 1), new Message(2, 1, "b", 2));
+
+        Assert.assertNull(cache.get(1, id -> messages));
+        Assert.assertNull(cache.get(1, id -> messages));
+        Assert.assertEquals(1, cache.stats().missCount());
+
+        TimelineCache.Timeline timeline = cache.get(2, id -> messages.subList(0, 2));
+        Assert.assertEquals(2, timeline.size());
+        Assert.assertEquals(1, timeline.messageId(0));
+        Assert.assertEquals(3, timeline.messageId(1));
+
+        // Growing past the bound drops the timeline in favour of the database
+        cache.add(new Message(4, 2, "d", 4));
+        Assert.assertNull(cache.get(2, id -> messages.subList(0, 2)));
+    }
+}